@@ -0,0 +1,243 @@
+package edu.umn.cs.melt.copper.compiletime.builders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.umn.cs.melt.copper.compiletime.scannerdfa.SingleScannerDFAAnnotations;
+import edu.umn.cs.melt.copper.compiletime.scannerdfa.Utf8ScannerDFA;
+
+/**
+ * Turns a scanner DFA over characters into an equivalent DFA over the
+ * bytes of the characters' UTF-8 encodings. The character DFA's states
+ * keep their numbers and annotations; states are added for the points
+ * in the middle of a multi-byte character, which accept and reject
+ * nothing and whose possible sets are the union of those of the states
+ * they lead to. Identical intermediate states are shared.
+ * <p>
+ * Since the character DFA reads characters outside the Basic Multilingual
+ * Plane as surrogate pairs, the four bytes of such a character take the
+ * byte DFA to where the pair takes the character DFA. Malformed sequences,
+ * including encoded surrogates and overlong forms, lead to state 0, the
+ * dead state.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+public class Utf8ScannerDFABuilder
+{
+	private int[][] charTransitions;
+	private int[] charMap;
+	private BitSet[] charPossibleSets;
+
+	/** Transitions of all states, one entry per byte value. */
+	private List<int[]> rows;
+	private List<BitSet> possibleSets;
+	private Map<RowKey,Integer> intermediateStates;
+	/** Final-byte states of four-byte characters, by character state and low bits of the third byte. */
+	private Map<Integer,Integer> lowSurrogateStates;
+
+	private Utf8ScannerDFABuilder(int[][] charTransitions,int stateCount,SingleScannerDFAAnnotations annotations)
+	{
+		this.charTransitions = charTransitions;
+		this.charMap = annotations.charMap;
+		this.charPossibleSets = annotations.possibleSets;
+		this.rows = new ArrayList<int[]>();
+		this.possibleSets = new ArrayList<BitSet>();
+		this.intermediateStates = new HashMap<RowKey,Integer>();
+		this.lowSurrogateStates = new HashMap<Integer,Integer>();
+		for(int state = 0;state < stateCount;state++)
+		{
+			rows.add(null);
+			possibleSets.add(charPossibleSets[state]);
+		}
+	}
+
+	/**
+	 * @param charTransitions The transitions of the character DFA, indexed by state and character class.
+	 * @param stateCount The number of states in use.
+	 * @param annotations The character DFA's annotations.
+	 * @return The byte DFA.
+	 */
+	public static Utf8ScannerDFA build(int[][] charTransitions,int stateCount,SingleScannerDFAAnnotations annotations)
+	{
+		return new Utf8ScannerDFABuilder(charTransitions,stateCount,annotations).buildByteDFA(stateCount,annotations);
+	}
+
+	private Utf8ScannerDFA buildByteDFA(int charStateCount,SingleScannerDFAAnnotations annotations)
+	{
+		for(int state = 0;state < charStateCount;state++) rows.set(state,charStateRow(state));
+
+		// Bytes leading to the same state from every state share a class.
+		int stateCount = rows.size();
+		int[] byteClasses = new int[256];
+		List<Integer> classRepresentatives = new ArrayList<Integer>();
+		Map<RowKey,Integer> columns = new HashMap<RowKey,Integer>();
+		for(int b = 0;b < 256;b++)
+		{
+			int[] column = new int[stateCount];
+			for(int state = 0;state < stateCount;state++) column[state] = rows.get(state)[b];
+			RowKey key = new RowKey(column);
+			Integer byteClass = columns.get(key);
+			if(byteClass == null)
+			{
+				byteClass = classRepresentatives.size();
+				classRepresentatives.add(b);
+				columns.put(key,byteClass);
+			}
+			byteClasses[b] = byteClass;
+		}
+
+		int[][] transitions = new int[stateCount][classRepresentatives.size()];
+		for(int state = 0;state < stateCount;state++)
+		{
+			for(int byteClass = 0;byteClass < classRepresentatives.size();byteClass++)
+			{
+				transitions[state][byteClass] = rows.get(state)[classRepresentatives.get(byteClass)];
+			}
+		}
+
+		// Values past 255 never occur; they take the class of 0xFF, which is never valid.
+		int[] byteMap = new int[Character.MAX_VALUE + 1];
+		Arrays.fill(byteMap,byteClasses[0xFF]);
+		System.arraycopy(byteClasses,0,byteMap,0,256);
+
+		BitSet[] acceptSets = new BitSet[stateCount];
+		BitSet[] rejectSets = new BitSet[stateCount];
+		BitSet[] possibleSets = new BitSet[stateCount];
+		System.arraycopy(annotations.acceptSets,0,acceptSets,0,charStateCount);
+		System.arraycopy(annotations.rejectSets,0,rejectSets,0,charStateCount);
+		for(int state = charStateCount;state < stateCount;state++)
+		{
+			acceptSets[state] = new BitSet();
+			rejectSets[state] = new BitSet();
+		}
+		this.possibleSets.toArray(possibleSets);
+
+		return new Utf8ScannerDFA(transitions,new SingleScannerDFAAnnotations(acceptSets,rejectSets,possibleSets,byteMap,annotations.circularDependencies));
+	}
+
+	/**
+	 * @return The state to which the character DFA moves from <code>state</code> on reading <code>ch</code>.
+	 */
+	private int charTransition(int state,int ch)
+	{
+		int charClass = charMap[ch];
+		return (charClass < charTransitions[state].length) ? charTransitions[state][charClass] : 0;
+	}
+
+	private int[] charStateRow(int state)
+	{
+		int[] row = new int[256];
+		if(state == 0) return row;
+		for(int b0 = 0;b0 < 0x80;b0++) row[b0] = charTransition(state,b0);
+		int[] continuations = new int[256];
+		for(int b0 = 0xC2;b0 <= 0xDF;b0++)
+		{
+			for(int b1 = 0x80;b1 <= 0xBF;b1++) continuations[b1] = charTransition(state,((b0 & 0x1F) << 6) | (b1 & 0x3F));
+			row[b0] = intermediateState(continuations);
+		}
+		int[] secondContinuations = new int[256];
+		for(int b0 = 0xE0;b0 <= 0xEF;b0++)
+		{
+			Arrays.fill(continuations,0);
+			// Exclude overlong forms and encoded surrogates.
+			int low = (b0 == 0xE0) ? 0xA0 : 0x80;
+			int high = (b0 == 0xED) ? 0x9F : 0xBF;
+			for(int b1 = low;b1 <= high;b1++)
+			{
+				for(int b2 = 0x80;b2 <= 0xBF;b2++)
+				{
+					secondContinuations[b2] = charTransition(state,((b0 & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F));
+				}
+				continuations[b1] = intermediateState(secondContinuations);
+			}
+			row[b0] = intermediateState(continuations);
+		}
+		for(int b0 = 0xF0;b0 <= 0xF4;b0++)
+		{
+			Arrays.fill(continuations,0);
+			// Exclude overlong forms and characters past U+10FFFF.
+			int low = (b0 == 0xF0) ? 0x90 : 0x80;
+			int high = (b0 == 0xF4) ? 0x8F : 0xBF;
+			for(int b1 = low;b1 <= high;b1++)
+			{
+				for(int b2 = 0x80;b2 <= 0xBF;b2++)
+				{
+					// The first three bytes fix the high surrogate.
+					int highSurrogate = 0xD800 + ((((b0 & 0x07) << 8) | ((b1 & 0x3F) << 2) | ((b2 & 0x3F) >> 4)) - 0x40);
+					int afterHigh = charTransition(state,highSurrogate);
+					secondContinuations[b2] = (afterHigh == 0) ? 0 : lowSurrogateState(afterHigh,b2 & 0x0F);
+				}
+				continuations[b1] = intermediateState(secondContinuations);
+			}
+			row[b0] = intermediateState(continuations);
+		}
+		return row;
+	}
+
+	/**
+	 * @return The state reading the last byte of a four-byte character, after the character DFA has read its high surrogate.
+	 */
+	private int lowSurrogateState(int afterHigh,int lowBits)
+	{
+		Integer key = (afterHigh << 4) | lowBits;
+		Integer rv = lowSurrogateStates.get(key);
+		if(rv == null)
+		{
+			int[] continuations = new int[256];
+			for(int b3 = 0x80;b3 <= 0xBF;b3++) continuations[b3] = charTransition(afterHigh,0xDC00 + ((lowBits << 6) | (b3 & 0x3F)));
+			rv = intermediateState(continuations);
+			lowSurrogateStates.put(key,rv);
+		}
+		return rv;
+	}
+
+	/**
+	 * Returns the intermediate state with the given transitions, adding it
+	 * if there is none yet; if all transitions lead to the dead state, returns it.
+	 */
+	private int intermediateState(int[] row)
+	{
+		boolean dead = true;
+		for(int i = 0;i < row.length && dead;i++) dead = row[i] == 0;
+		if(dead) return 0;
+		RowKey key = new RowKey(row.clone());
+		Integer rv = intermediateStates.get(key);
+		if(rv == null)
+		{
+			rv = rows.size();
+			rows.add(key.row);
+			BitSet possible = new BitSet();
+			for(int target : key.row) possible.or(possibleSets.get(target));
+			possibleSets.add(possible);
+			intermediateStates.put(key,rv);
+		}
+		return rv;
+	}
+
+	private static final class RowKey
+	{
+		private final int[] row;
+		private final int hashCode;
+
+		private RowKey(int[] row)
+		{
+			this.row = row;
+			this.hashCode = Arrays.hashCode(row);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return (o instanceof RowKey) && Arrays.equals(row,((RowKey) o).row);
+		}
+	}
+}
@@ -197,9 +197,10 @@ public class StandardPipeline<SCIN,SCOUT> implements Pipeline,SpecParser<SCIN>,S
 	public String customSwitchUsage()
 	{
 		String rv = "";
-		if(specParser != null) rv += specParser.customSwitchUsage();
-		if(specCompiler != null) rv += specCompiler.customSwitchUsage();
-		if(sourceBuilder != null) rv += sourceBuilder.customSwitchUsage();
+		String buf;
+		if(specParser != null && (buf = specParser.customSwitchUsage()) != null) rv += buf;
+		if(specCompiler != null && (buf = specCompiler.customSwitchUsage()) != null) rv += buf;
+		if(sourceBuilder != null && (buf = sourceBuilder.customSwitchUsage()) != null) rv += buf;
 		return rv;
 	}
 
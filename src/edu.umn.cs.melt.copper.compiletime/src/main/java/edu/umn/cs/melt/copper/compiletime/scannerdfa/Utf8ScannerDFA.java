@@ -0,0 +1,20 @@
+package edu.umn.cs.melt.copper.compiletime.scannerdfa;
+
+/**
+ * Holds a scanner DFA reading UTF-8 bytes rather than characters, with
+ * its annotations; its "character" map covers only the 256 byte values.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+public class Utf8ScannerDFA
+{
+	public int[][] transitions;
+	public SingleScannerDFAAnnotations annotations;
+
+	public Utf8ScannerDFA(int[][] transitions,SingleScannerDFAAnnotations annotations)
+	{
+		this.transitions = transitions;
+		this.annotations = annotations;
+	}
+
+	public int stateCount() { return transitions.length; }
+}
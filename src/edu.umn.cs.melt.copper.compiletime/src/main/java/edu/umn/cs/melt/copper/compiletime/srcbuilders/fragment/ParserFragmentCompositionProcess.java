@@ -8,6 +8,7 @@ import edu.umn.cs.melt.copper.compiletime.pipeline.AuxiliaryMethods;
 import edu.umn.cs.melt.copper.compiletime.pipeline.ParserFragments;
 import edu.umn.cs.melt.copper.compiletime.pipeline.SourceBuilder;
 import edu.umn.cs.melt.copper.compiletime.pipeline.SourceBuilderParameters;
+import edu.umn.cs.melt.copper.compiletime.srcbuilders.single.SingleDFACompilationProcess;
 import edu.umn.cs.melt.copper.main.ParserCompilerParameters;
 import edu.umn.cs.melt.copper.runtime.logging.CopperException;
 
@@ -15,6 +16,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * @author Kevin Viratyosin
@@ -65,6 +67,7 @@ public class ParserFragmentCompositionProcess implements SourceBuilder<ParserFra
             String scannerAncillaries = "";
 
             ParserFragmentEngineBuilder engineBuilder = new ParserFragmentEngineBuilder(fragments);
+            engineBuilder.setCompressParseTable(args.getCustomSwitch(SingleDFACompilationProcess.COMPRESS_TABLES_SWITCH, Boolean.class, false));
             try {
                 timeBefore = System.currentTimeMillis();
                 engineBuilder.buildEngine(out, packageDecl, importDecls, parserName, scannerName, parserAncillaries, scannerAncillaries);
@@ -84,16 +87,22 @@ public class ParserFragmentCompositionProcess implements SourceBuilder<ParserFra
 
     @Override
     public Set<String> getCustomSwitches() {
-        return null;
+        Set<String> rv = new TreeSet<String>();
+        rv.add(SingleDFACompilationProcess.COMPRESS_TABLES_SWITCH);
+        return rv;
     }
 
     @Override
     public String customSwitchUsage() {
-        return null;
+        return "\t-" + SingleDFACompilationProcess.COMPRESS_TABLES_SWITCH + "\tStore the parse table in compressed form\n\t\t\tin the generated parser.\n";
     }
 
     @Override
     public int processCustomSwitch(ParserCompilerParameters args, String[] cmdline, int index) {
+        if (cmdline[index].equals("-" + SingleDFACompilationProcess.COMPRESS_TABLES_SWITCH)) {
+            args.setCustomSwitch(SingleDFACompilationProcess.COMPRESS_TABLES_SWITCH, true);
+            return index + 1;
+        }
         return -1;
     }
 }
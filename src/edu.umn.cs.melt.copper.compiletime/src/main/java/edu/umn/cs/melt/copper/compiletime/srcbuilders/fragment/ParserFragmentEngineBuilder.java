@@ -11,12 +11,15 @@ import edu.umn.cs.melt.copper.compiletime.spec.grammarbeans.*;
 import edu.umn.cs.melt.copper.compiletime.spec.numeric.PSSymbolTable;
 import edu.umn.cs.melt.copper.compiletime.spec.numeric.ParserSpec;
 import edu.umn.cs.melt.copper.compiletime.spec.numeric.PrecedenceGraph;
+import edu.umn.cs.melt.copper.compiletime.srcbuilders.single.SingleDFAEngineBuilder;
 import edu.umn.cs.melt.copper.main.ParserCompiler;
 import edu.umn.cs.melt.copper.runtime.auxiliary.Pair;
 import edu.umn.cs.melt.copper.runtime.auxiliary.internal.ByteArrayEncoder;
 import edu.umn.cs.melt.copper.runtime.auxiliary.internal.QuotedStringFormatter;
 import edu.umn.cs.melt.copper.runtime.engines.fragment.ParserFragmentEngine;
 import edu.umn.cs.melt.copper.runtime.engines.semantics.SpecialParserAttributes;
+import edu.umn.cs.melt.copper.runtime.engines.single.CompressedParseTable;
+import edu.umn.cs.melt.copper.runtime.engines.single.scanner.CompactTransitionTable;
 import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAEngine;
 import edu.umn.cs.melt.copper.runtime.engines.single.scanner.SingleDFAMatchData;
 import edu.umn.cs.melt.copper.runtime.engines.single.semantics.SingleDFASemanticActionContainer;
@@ -51,8 +54,8 @@ public class ParserFragmentEngineBuilder {
     private SingleScannerDFAAnnotations markingTerminalScannerDFAAnnotations;
 
     private int[][] parseTable;
-    private int[][][] deltas;
-    private int[][] cmaps;
+    private boolean compressParseTable;
+    private CompactTransitionTable[] transitionTables;
     private int totalStateCount, hostStateCount;
     private ArrayList<MarkingTerminalData> markingTerminalDatas;
     private int markingTerminalOffset;
@@ -123,6 +126,11 @@ public class ParserFragmentEngineBuilder {
         extTableOffset = Math.max(hostTerminalLength, hostFragment.fullSpec.nonterminals.length());
 
         hostParser = hostFragment.symbolTable.getParser(hostFragment.fullSpec.parser);
+        compressParseTable = false;
+    }
+
+    public void setCompressParseTable(boolean compressParseTable) {
+        this.compressParseTable = compressParseTable;
     }
 
     public void buildEngine(
@@ -229,6 +237,7 @@ public class ParserFragmentEngineBuilder {
         }
 
         out.println("    public Semantics() throws " + IOException.class.getName() + "," + errorType + " {");
+        out.println("      _specialAttributes = new " + SpecialParserAttributes.class.getName() + "(virtualLocation);");
         out.println("      runInit();");
         out.println("    }");
 
@@ -283,13 +292,21 @@ public class ParserFragmentEngineBuilder {
     }
 
     private void writeRunSemanticAction(PrintStream out) {
+        // One set of special attributes serves the whole parse; it is reset only before actions that have code.
+        boolean hasDefaultProductionCode = hostParser.getDefaultProductionCode() != null && !QuotedStringFormatter.isJavaWhitespace(hostParser.getDefaultProductionCode());
+        boolean hasDefaultTerminalCode = hostParser.getDefaultTerminalCode() != null && !QuotedStringFormatter.isJavaWhitespace(hostParser.getDefaultTerminalCode());
         // Object runSemanticAction(InputPosition _pos, Object[] _children, int _prod)
         out.println("    public " + Object.class.getName() + " runSemanticAction(" + InputPosition.class.getName() + " _pos, " + Object.class.getName() + "[] _children, int _prod)");
         out.println("    throws " + IOException.class.getName() + "," + errorType + " {");
+        out.println("      return runSemanticAction(_pos, _children, 0, _prod);");
+        out.println("    }");
+        // Object runSemanticAction(InputPosition _pos, Object[] _children, int _childrenOffset, int _prod)
+        out.println("    public " + Object.class.getName() + " runSemanticAction(" + InputPosition.class.getName() + " _pos, " + Object.class.getName() + "[] _children, int _childrenOffset, int _prod)");
+        out.println("    throws " + IOException.class.getName() + "," + errorType + " {");
         out.println("      this._pos = _pos;");
         out.println("      this._children = _children;");
+        out.println("      this._childrenOffset = _childrenOffset;");
         out.println("      this._prod = _prod;");
-        out.println("      this._specialAttributes = new " + SpecialParserAttributes.class.getName() + "(virtualLocation);");
         out.println("      " + Object.class.getName() + " RESULT = null;");
         out.println("      switch (_prod) {");
         for (Map.Entry<Integer, Pair<Integer, Integer>> entry : productionMapBack.entrySet()) {
@@ -305,11 +322,15 @@ public class ParserFragmentEngineBuilder {
             String productionCode = symbolTable.getProduction(fragmentIndex).getCode();
             if (productionCode != null && !QuotedStringFormatter.isJavaWhitespace(productionCode)) {
                 out.println("        case " + p + ":");
+                out.println("          _specialAttributes.reset(virtualLocation);");
                 out.println("          RESULT = runSemanticAction_p" + p + "();");
                 out.println("          break;");
             }
         }
         out.println("        default:");
+        if (hasDefaultProductionCode) {
+            out.println("          _specialAttributes.reset(virtualLocation);");
+        }
         out.println("          runDefaultProdAction();");
         out.println("          break;");
         out.println("      }");
@@ -325,8 +346,10 @@ public class ParserFragmentEngineBuilder {
         out.println("    throws " + IOException.class.getName() + "," + errorType + " {");
         out.println("      this._pos = _pos;");
         out.println("      this._terminal = _terminal;");
-        out.println("      this._specialAttributes = new " + SpecialParserAttributes.class.getName() + "(virtualLocation);");
-        out.println("      String lexeme = _terminal.lexeme;");
+        // Code that may look at _terminal outside a terminal's action is given it with its lexemes, and its layout's, read.
+        if (nonTerminalActionsReferenceTerminal()) {
+            out.println("      _terminal.readLexemes();");
+        }
         out.println("      " + Object.class.getName() + " RESULT = null;");
         out.println("      if (fragmentId == " + MARKING_TERMINAL_FRAGMENT_ID + ") {");
         out.println("        switch(_terminal.firstTerm) {");
@@ -334,7 +357,9 @@ public class ParserFragmentEngineBuilder {
             String code = markingTerminalDatas.get(t).terminal.getCode();
             if (code != null && !QuotedStringFormatter.isJavaWhitespace(code)) {
                 out.println("          case " + t + ":");
-                out.println("            RESULT = runSemanticAction_mt_" + t + "(lexeme);");
+                out.println("            _specialAttributes.reset(virtualLocation);");
+                out.println("            _terminal.readLexemes();");
+                out.println("            RESULT = runSemanticAction_mt_" + t + "(_terminal.getLexeme());");
                 out.println("            break;");
             }
         }
@@ -342,11 +367,17 @@ public class ParserFragmentEngineBuilder {
             String code = markingTerminalLayouts.get(t).terminal.getCode();
             if (code != null && !QuotedStringFormatter.isJavaWhitespace(code)) {
                 out.println("          case " + (t + markingTerminalCount) + ":");
-                out.println("            RESULT = runSemanticAction_mt_" + (t + markingTerminalCount) + "(lexeme);");
+                out.println("            _specialAttributes.reset(virtualLocation);");
+                out.println("            _terminal.readLexemes();");
+                out.println("            RESULT = runSemanticAction_mt_" + (t + markingTerminalCount) + "(_terminal.getLexeme());");
                 out.println("            break;");
             }
         }
         out.println("          default:");
+        if (hasDefaultTerminalCode) {
+            out.println("            _specialAttributes.reset(virtualLocation);");
+            out.println("            _terminal.readLexemes();");
+        }
         out.println("            runDefaultTermAction();");
         out.println("            break;");
         out.println("        }");
@@ -357,7 +388,9 @@ public class ParserFragmentEngineBuilder {
                 String code = hostFragment.symbolTable.getTerminal(t).getCode();
                 if (code != null && !QuotedStringFormatter.isJavaWhitespace(code)) {
                     out.println("          case " + t + ":");
-                    out.println("            RESULT = runSemanticAction_th_" + t + "(lexeme);");
+                    out.println("            _specialAttributes.reset(virtualLocation);");
+                    out.println("            _terminal.readLexemes();");
+                    out.println("            RESULT = runSemanticAction_th_" + t + "(_terminal.getLexeme());");
                     out.println("            break;");
                 }
             }
@@ -374,18 +407,28 @@ public class ParserFragmentEngineBuilder {
                     String code = extensionFragments.get(e).extensionMappingSpec.extensionSymbolTable.getTerminal(t).getCode();
                     if (code != null && !QuotedStringFormatter.isJavaWhitespace(code)) {
                         out.println("              case " + e + ":");
-                        out.println("                RESULT = runSemanticAction_te" + e + "_" + t + "(lexeme);");
+                        out.println("                _specialAttributes.reset(virtualLocation);");
+                        out.println("                _terminal.readLexemes();");
+                        out.println("                RESULT = runSemanticAction_te" + e + "_" + t + "(_terminal.getLexeme());");
                         out.println("                break;");
                     }
                 }
             }
             out.println("              default:");
+            if (hasDefaultTerminalCode) {
+                out.println("                _specialAttributes.reset(virtualLocation);");
+                out.println("                _terminal.readLexemes();");
+            }
             out.println("                runDefaultTermAction();");
             out.println("                break;");
             out.println("            }");
             out.println("            break;");
         }
         out.println("          default:");
+        if (hasDefaultTerminalCode) {
+            out.println("            _specialAttributes.reset(virtualLocation);");
+            out.println("            _terminal.readLexemes();");
+        }
         out.println("            runDefaultTermAction();");
         out.println("            break;");
         out.println("        }");
@@ -454,7 +497,7 @@ public class ParserFragmentEngineBuilder {
                         type = type == null ? Object.class.getName() : type;
                         out.print("            ");
                         String suppressWarnings = type.contains("<") ? "@SuppressWarnings(\"unchecked\") " : "";
-                        out.println("      " + suppressWarnings + type + " " + var + " = (" + type + ") _children[" + k + "];");
+                        out.println("      " + suppressWarnings + type + " " + var + " = (" + type + ") _children[_childrenOffset + " + k + "];");
                     }
                     k++;
                 }
@@ -525,7 +568,7 @@ public class ParserFragmentEngineBuilder {
     private void writeRunDisambiguationAction(PrintStream out) {
         out.println("    public int runDisambiguationAction(" + InputPosition.class.getName() + " _pos," + SingleDFAMatchData.class.getName() + " match)");
         out.println("    throws " + IOException.class.getName() + "," + errorType + " {");
-        out.println("      String lexeme = match.lexeme;");
+        out.println("      String lexeme = match.getLexeme();");
         boolean first = true;
         for (Map.Entry<Integer, Pair<Integer, Integer>> entry : disambiguationFunctionMapBack.entrySet()) {
             int df = entry.getKey();
@@ -573,6 +616,41 @@ public class ParserFragmentEngineBuilder {
         }
     }
 
+    private boolean nonTerminalActionsReferenceTerminal() {
+        for (String code : nonTerminalActionCode()) {
+            if (SingleDFAEngineBuilder.referencesTerminal(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the code placed in the semantic action container other than the actions of terminals.
+     */
+    private List<String> nonTerminalActionCode() {
+        List<String> code = new ArrayList<String>();
+        code.add(hostParser.getDefaultProductionCode());
+        code.add(hostParser.getParserInitCode());
+        code.add(hostParser.getPostParseCode());
+        for (int attrN = hostFragment.fullSpec.parserAttributes.nextSetBit(0); attrN >= 0; attrN = hostFragment.fullSpec.parserAttributes.nextSetBit(attrN + 1)) {
+            code.add(hostFragment.symbolTable.getParserAttribute(attrN).getCode());
+        }
+        for (Pair<Integer, Integer> fragmentP : productionMapBack.values()) {
+            if (fragmentP.first() == 0 && fragmentP.second() == hostFragment.fullSpec.getStartProduction()) {
+                continue;
+            }
+            PSSymbolTable symbolTable = fragmentP.first() == 0 ? hostFragment.symbolTable : extensionFragments.get(fragmentP.first() - 1).extensionMappingSpec.extensionSymbolTable;
+            code.add(symbolTable.getProduction(fragmentP.second()).getCode());
+        }
+        for (Map.Entry<Integer, Pair<Integer, Integer>> entry : disambiguationFunctionMapBack.entrySet()) {
+            int fragment = entry.getValue().first();
+            PSSymbolTable symbolTable = fragment == 0 ? hostFragment.symbolTable : extensionFragments.get(fragment - 1).extensionMappingSpec.extensionSymbolTable;
+            code.add(symbolTable.getDisambiguationFunction(entry.getValue().second()).getCode());
+        }
+        return code;
+    }
+
     private void writeSemanticsClassUse(PrintStream out) {
         out.println("  public Semantics semantics;");
 
@@ -581,6 +659,12 @@ public class ParserFragmentEngineBuilder {
         out.println("    return semantics.runSemanticAction(_pos, _children, _prod);");
         out.println("  }");
 
+        out.println("  protected " + Object.class.getName() + " runSemanticAction(" + InputPosition.class.getName() + " _pos," + Object.class.getName() + "[] _children,int _childrenOffset,int _childCount,int _prod)");
+        out.println("  throws " + IOException.class.getName() + "," + errorType + " {");
+        // Action code may use _children itself, so it is given a reused array of the children alone, not a slice of the parse stack.
+        out.println("    return semantics.runSemanticAction(_pos, childrenWindow(_children, _childrenOffset, _childCount), 0, _prod);");
+        out.println("  }");
+
         out.println("  public " + Object.class.getName() + " runFragmentSemanticAction(int fragmentId, " + InputPosition.class.getName() + " _pos," + SingleDFAMatchData.class.getName() + " _terminal)");
         out.println("  throws " + IOException.class.getName() + "," + errorType + " {");
         out.println("    return semantics.runSemanticTerminalAction(fragmentId, _pos, _terminal);");
@@ -599,6 +683,10 @@ public class ParserFragmentEngineBuilder {
         out.println("    return semantics.runDisambiguationAction(_pos,matches);");
         out.println("  }");
 
+        out.println("  protected boolean usesLazyLexemes() {");
+        out.println("    return true;");
+        out.println("  }");
+
         out.println("  public " + SpecialParserAttributes.class.getName() + " getSpecialAttributes() {");
         out.println("    return semantics.getSpecialAttributes();");
         out.println("  }");
@@ -684,9 +772,23 @@ public class ParserFragmentEngineBuilder {
     }
 
     private void printParserAncillaryMethods(PrintStream out) {
-        out.println("  public int[][] getParseTable() {");
-        out.println("    return parseTable;");
-        out.println("  }");
+        if (compressParseTable) {
+            out.println("  private static int[][] parseTable;");
+            out.println("  public int[][] getParseTable() {");
+            out.println("    return expandParseTable();");
+            out.println("  }");
+            out.println("  private static synchronized int[][] expandParseTable() {");
+            out.println("    if (parseTable == null) parseTable = compressedParseTable.expand();");
+            out.println("    return parseTable;");
+            out.println("  }");
+            out.println("  public int getParseTableAction(int state, int symbol) {");
+            out.println("    return compressedParseTable.getAction(state, symbol);");
+            out.println("  }");
+        } else {
+            out.println("  public int[][] getParseTable() {");
+            out.println("    return parseTable;");
+            out.println("  }");
+        }
 
         out.println("  protected String[] getSymbolNamesInclMT(int fragmentId) {");
         out.println("    if (fragmentId == " + MARKING_TERMINAL_FRAGMENT_ID + ") {");
@@ -713,7 +815,7 @@ public class ParserFragmentEngineBuilder {
         out.println("  }");
 
         out.println("  protected int transition(int fragmentId, int state, char ch) {");
-        out.println("    return deltas[fragmentId][state][cmaps[fragmentId][ch]];");
+        out.println("    return transitionTables[fragmentId].transition(state, ch);");
         out.println("  }");
 
         out.println("  protected " + BitSet.class.getName() + "[] getFragmentAcceptSets(int fragmentId) {");
@@ -823,7 +925,11 @@ public class ParserFragmentEngineBuilder {
         prepDisambiguationFunctionIndices();
 
         makeParseTableAndSets();
-        objectsToHash.add(new ObjectToHash(parseTable, "int[][]", "parseTable"));
+        if (compressParseTable) {
+            objectsToHash.add(new ObjectToHash(CompressedParseTable.compress(parseTable, null), CompressedParseTable.class.getName(), "compressedParseTable"));
+        } else {
+            objectsToHash.add(new ObjectToHash(parseTable, "int[][]", "parseTable"));
+        }
         objectsToHash.add(new ObjectToHash(hostTerminalUses, "int[]", "hostTerminalUses"));
         objectsToHash.add(new ObjectToHash(extTerminalUses, "int[][]", "extTerminalUses"));
         objectsToHash.add(new ObjectToHash(markingTerminalEmptyStateSets, BitSet.class.getName() + "[]", "markingTerminalEmptyStateSets"));
@@ -839,16 +945,15 @@ public class ParserFragmentEngineBuilder {
 
         generateMarkingTerminalScanner();
 
-        deltas = new int[fragmentCount][][];
-        cmaps = new int[fragmentCount][];
-        deltas[0] = markingTerminalScannerDFA.getTransitions();
-        cmaps[0] = markingTerminalScannerDFAAnnotations.charMap;
+        // The fragments' character maps mostly agree, so their pages are pooled and hashed together.
+        Map<CompactTransitionTable.PageKey, Object> pagePool = new HashMap<CompactTransitionTable.PageKey, Object>();
+        transitionTables = new CompactTransitionTable[fragmentCount];
+        transitionTables[0] = CompactTransitionTable.build(markingTerminalScannerDFAAnnotations.charMap, markingTerminalScannerDFA.getTransitions(), markingTerminalScannerDFA.stateCount(), pagePool);
         for (int i = 0; i < extensionCount; i++) {
-            deltas[i + 1] = extensionFragments.get(i).scannerDFA.getTransitions();
-            cmaps[i + 1] = extensionFragments.get(i).scannerDFAAnnotations.charMap;
+            ExtensionFragmentData fragment = extensionFragments.get(i);
+            transitionTables[i + 1] = CompactTransitionTable.build(fragment.scannerDFAAnnotations.charMap, fragment.scannerDFA.getTransitions(), fragment.scannerDFA.stateCount(), pagePool);
         }
-        objectsToHash.add(new ObjectToHash(deltas, "int[][][]", "deltas"));
-        objectsToHash.add(new ObjectToHash(cmaps, "int[][]", "cmaps"));
+        objectsToHash.add(new ObjectToHash(transitionTables, CompactTransitionTable.class.getName() + "[]", "transitionTables"));
 
         addScannerAnnotationsToBeHashed();
 
@@ -1,9 +1,11 @@
 package edu.umn.cs.melt.copper.compiletime.srcbuilders.single;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Set;
+import java.util.TreeSet;
 
 import edu.umn.cs.melt.copper.compiletime.logging.CompilerLevel;
 import edu.umn.cs.melt.copper.compiletime.logging.CompilerLogger;
@@ -19,6 +21,12 @@ import edu.umn.cs.melt.copper.runtime.logging.CopperException;
 
 public class SingleDFACompilationProcess implements SourceBuilder<StandardSpecCompilerReturnData>
 {
+	public static final String COMPRESS_TABLES_SWITCH = "compressTables";
+	public static final String SPECIALIZE_SCANNER_SWITCH = "specializeScanner";
+	public static final String INLINE_SCANNER_SWITCH = "inlineScanner";
+	public static final String UTF8_SCANNER_SWITCH = "utf8Scanner";
+	public static final String EXTERNAL_TABLES_SWITCH = "externalTables";
+
 	boolean outputSource;
 	
 	public SingleDFACompilationProcess(boolean outputSource)
@@ -79,6 +87,11 @@ public class SingleDFACompilationProcess implements SourceBuilder<StandardSpecCo
 			//String ancillaries = edu.umn.cs.melt.copper.compiletime.srcbuilders.single.MainFunctionBuilders.buildSingleDFAParserAncillaries(c.packageDecl,c.parserName,false,false,runtimeQuietLevel) + 
 		    //          edu.umn.cs.melt.copper.compiletime.srcbuilders.single.MainFunctionBuilders.buildSingleDFAParserMainFunction(c.packageDecl,c.parserName,rootType,errorType,false,false,runtimeQuietLevel);
 			SingleDFAEngineBuilder engineBuilder = new SingleDFAEngineBuilder(c.symbolTable, c.fullSpec, c.lookaheadSets, c.parseTable, c.prefixes, c.scannerDFA, c.scannerDFAAnnotations);
+			engineBuilder.setCompressParseTable(args.getCustomSwitch(COMPRESS_TABLES_SWITCH,Boolean.class,false));
+			engineBuilder.setSpecializeScanner(args.getCustomSwitch(SPECIALIZE_SCANNER_SWITCH,Boolean.class,false));
+			engineBuilder.setInlineScanner(args.getCustomSwitch(INLINE_SCANNER_SWITCH,Boolean.class,false));
+			engineBuilder.setUtf8Scanner(args.getCustomSwitch(UTF8_SCANNER_SWITCH,Boolean.class,false));
+			engineBuilder.setExternalTables(args.getCustomSwitch(EXTERNAL_TABLES_SWITCH,File.class,null));
 				
 			try
 			{
@@ -111,19 +124,55 @@ public class SingleDFACompilationProcess implements SourceBuilder<StandardSpecCo
 	@Override
 	public Set<String> getCustomSwitches()
 	{
-		return null;
+		Set<String> rv = new TreeSet<String>();
+		rv.add(COMPRESS_TABLES_SWITCH);
+		rv.add(SPECIALIZE_SCANNER_SWITCH);
+		rv.add(INLINE_SCANNER_SWITCH);
+		rv.add(UTF8_SCANNER_SWITCH);
+		rv.add(EXTERNAL_TABLES_SWITCH);
+		return rv;
 	}
 
 	@Override
 	public String customSwitchUsage()
 	{
-		return "";
+		return "\t-" + COMPRESS_TABLES_SWITCH + "\tStore the parse table in compressed form\n\t\t\tin the generated parser.\n" +
+		       "\t-" + SPECIALIZE_SCANNER_SWITCH + "\tSpecialize the scanner DFA to each parser\n\t\t\tstate's shiftable set, trading table size\n\t\t\tfor scanning speed.\n" +
+		       "\t-" + INLINE_SCANNER_SWITCH + "\tEmit the transitions of simple scanner\n\t\t\tstates as code rather than table lookups.\n" +
+		       "\t-" + UTF8_SCANNER_SWITCH + "\tScan the UTF-8 bytes of the input rather\n\t\t\tthan its characters.\n" +
+		       "\t-" + EXTERNAL_TABLES_SWITCH + " <file>\tWrite the parse and scan tables to <file>,\n\t\t\tto be memory-mapped at run time, rather\n\t\t\tthan into the generated parser.\n";
 	}
 
 	@Override
 	public int processCustomSwitch(ParserCompilerParameters args,
 			String[] cmdline, int index)
 	{
+		if(cmdline[index].equals("-" + COMPRESS_TABLES_SWITCH))
+		{
+			args.setCustomSwitch(COMPRESS_TABLES_SWITCH,true);
+			return index + 1;
+		}
+		else if(cmdline[index].equals("-" + SPECIALIZE_SCANNER_SWITCH))
+		{
+			args.setCustomSwitch(SPECIALIZE_SCANNER_SWITCH,true);
+			return index + 1;
+		}
+		else if(cmdline[index].equals("-" + INLINE_SCANNER_SWITCH))
+		{
+			args.setCustomSwitch(INLINE_SCANNER_SWITCH,true);
+			return index + 1;
+		}
+		else if(cmdline[index].equals("-" + UTF8_SCANNER_SWITCH))
+		{
+			args.setCustomSwitch(UTF8_SCANNER_SWITCH,true);
+			return index + 1;
+		}
+		else if(cmdline[index].equals("-" + EXTERNAL_TABLES_SWITCH))
+		{
+			if(index + 1 >= cmdline.length) return -1;
+			args.setCustomSwitch(EXTERNAL_TABLES_SWITCH,new File(cmdline[index + 1]));
+			return index + 2;
+		}
 		return -1;
 	}
 }
@@ -1,20 +1,28 @@
 package edu.umn.cs.melt.copper.compiletime.srcbuilders.single;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
 
+import edu.umn.cs.melt.copper.compiletime.builders.Utf8ScannerDFABuilder;
 import edu.umn.cs.melt.copper.compiletime.lrdfa.LRLookaheadAndLayoutSets;
 import edu.umn.cs.melt.copper.compiletime.lrdfa.TransparentPrefixes;
 import edu.umn.cs.melt.copper.compiletime.parsetable.LRParseTable;
 import edu.umn.cs.melt.copper.compiletime.scannerdfa.GeneralizedDFA;
 import edu.umn.cs.melt.copper.compiletime.scannerdfa.SingleScannerDFAAnnotations;
+import edu.umn.cs.melt.copper.compiletime.scannerdfa.Utf8ScannerDFA;
 import edu.umn.cs.melt.copper.compiletime.spec.grammarbeans.CopperElementType;
 import edu.umn.cs.melt.copper.compiletime.spec.grammarbeans.ParserAttribute;
 import edu.umn.cs.melt.copper.compiletime.spec.grammarbeans.ParserBean;
@@ -23,8 +31,15 @@ import edu.umn.cs.melt.copper.compiletime.spec.numeric.ParserSpec;
 import edu.umn.cs.melt.copper.main.ParserCompiler;
 import edu.umn.cs.melt.copper.runtime.auxiliary.internal.ByteArrayEncoder;
 import edu.umn.cs.melt.copper.runtime.auxiliary.internal.QuotedStringFormatter;
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableReader;
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableWriter;
+import edu.umn.cs.melt.copper.runtime.engines.CopperParserFactory;
 import edu.umn.cs.melt.copper.runtime.engines.CopperTerminalEnum;
 import edu.umn.cs.melt.copper.runtime.engines.semantics.SpecialParserAttributes;
+import edu.umn.cs.melt.copper.runtime.engines.single.CompressedParseTable;
+import edu.umn.cs.melt.copper.runtime.engines.single.MappedParseTable;
+import edu.umn.cs.melt.copper.runtime.engines.single.scanner.CompactTransitionTable;
+import edu.umn.cs.melt.copper.runtime.engines.single.scanner.ScannerContextTable;
 import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAEngine;
 import edu.umn.cs.melt.copper.runtime.engines.single.scanner.SingleDFAMatchData;
 import edu.umn.cs.melt.copper.runtime.engines.single.semantics.SingleDFASemanticActionContainer;
@@ -55,6 +70,18 @@ public class SingleDFAEngineBuilder
 	
 	/** Parse actions. */
 	private int[][] parseTable;
+	/** Terminals with parse actions. */
+	private BitSet[] actionSets;
+	/** Whether to emit the parse table in compressed form. */
+	private boolean compressParseTable;
+	/** Whether to emit the scanner DFA specialized to each shiftable set. */
+	private boolean specializeScanner;
+	/** Whether to emit the transitions of simple scanner states as code. */
+	private boolean inlineScanner;
+	/** Whether to emit a scanner reading UTF-8 bytes rather than characters. */
+	private boolean utf8Scanner;
+	/** The file to which to write the tables, or <code>null</code> to emit them in the generated parser. */
+	private File externalTables;
 	/** Shiftable sets. */
 	private BitSet[] shiftableSets;
 	/** Layout sets. */
@@ -70,6 +97,11 @@ public class SingleDFAEngineBuilder
 	 * plus all layout and prefixes that can appear before them. */
 	private BitSet shiftableUnion;
 	
+	/** Terminals with no semantic action, whose matches need not be kept when they are layout. */
+	private BitSet silentTerminals;
+	/** Scan classes --- states with the same shiftable, layout and prefix sets and prefix maps share one. */
+	private int[] scanClasses;
+	
 	private int[][] delta;
 
 	/* Counts for building arrays statically. */
@@ -98,6 +130,61 @@ public class SingleDFAEngineBuilder
 		this.prefixes = prefixes;
 		this.scannerDFA = scannerDFA;
 		this.scannerDFAAnnotations = scannerDFAAnnotations;
+		this.compressParseTable = false;
+		this.specializeScanner = false;
+		this.inlineScanner = false;
+		this.utf8Scanner = false;
+		this.externalTables = null;
+	}
+
+	/**
+	 * Sets whether the generated parser holds its parse table in
+	 * compressed form (see {@link CompressedParseTable}).
+	 */
+	public void setCompressParseTable(boolean compressParseTable)
+	{
+		this.compressParseTable = compressParseTable;
+	}
+
+	/**
+	 * Sets whether the generated parser carries its scanner DFA
+	 * specialized to each shiftable set (see {@link ScannerContextTable}).
+	 */
+	public void setSpecializeScanner(boolean specializeScanner)
+	{
+		this.specializeScanner = specializeScanner;
+	}
+
+	/**
+	 * Sets whether the generated parser holds the transitions of its
+	 * simplest scanner states as code, comparing characters directly,
+	 * rather than in its transition table.
+	 */
+	public void setInlineScanner(boolean inlineScanner)
+	{
+		this.inlineScanner = inlineScanner;
+	}
+
+	/**
+	 * Sets whether the generated parser's scanner reads the UTF-8 bytes of
+	 * its input rather than its characters, so that byte input need not be
+	 * decoded before it is scanned (see {@link Utf8ScannerDFABuilder}).
+	 */
+	public void setUtf8Scanner(boolean utf8Scanner)
+	{
+		this.utf8Scanner = utf8Scanner;
+	}
+
+	/**
+	 * Sets a file to which to write the generated parser's tables, rather
+	 * than emitting them in the parser itself. The parser will memory-map the
+	 * file when loaded (see {@link TableReader#open(Class,String)}), finding it
+	 * as a resource beside the parser class under the same name.
+	 * @param externalTables The file, or <code>null</code> to emit the tables in the parser.
+	 */
+	public void setExternalTables(File externalTables)
+	{
+		this.externalTables = externalTables;
 	}
 
 	public void buildLALREngine(PrintStream out, String packageDecl,
@@ -134,6 +221,8 @@ public class SingleDFAEngineBuilder
 	    parserAncillaries += "		private static int[] productionLHSs;\n";
 	    parserAncillaries += "		\n";
 	    parserAncillaries += "		private static int[][] parseTable;\n";
+	    if(compressParseTable) parserAncillaries += "		private static " + CompressedParseTable.class.getName() + " compressedParseTable;\n";
+	    else if(externalTables != null) parserAncillaries += "		private static " + MappedParseTable.class.getName() + " mappedParseTable;\n";
 	    parserAncillaries += "		private static " + BitSet.class.getName() + "[] shiftableSets;\n";
 	    parserAncillaries += "		private static " + BitSet.class.getName() + "[] layoutSets;\n";
 	    parserAncillaries += "		private static " + BitSet.class.getName() + "[] prefixSets;\n";
@@ -144,9 +233,13 @@ public class SingleDFAEngineBuilder
 	    parserAncillaries += "		private static " + BitSet.class.getName() + "[] disambiguationGroups;\n";
 	    parserAncillaries += "		\n";
 	    parserAncillaries += "		private static " + BitSet.class.getName() + " shiftableUnion;\n";
+	    parserAncillaries += "		private static " + BitSet.class.getName() + " silentTerminals;\n";
+	    parserAncillaries += "		private static int[] scanClasses;\n";
 	    parserAncillaries += "		\n";
 	    parserAncillaries += "		private static " + BitSet.class.getName() + "[] acceptSets,rejectSets,possibleSets;\n";
 	    parserAncillaries += "		\n";
+	    parserAncillaries += "		private static " + CompactTransitionTable.class.getName() + " transitionTable;\n";
+	    if(specializeScanner) parserAncillaries += "		private static " + ScannerContextTable.class.getName() + " scannerContexts;\n";
 	    parserAncillaries += "		private static int[][] delta;\n";
 	    parserAncillaries += "		private static int[] cmap;\n";
 	    parserAncillaries += "		\n";
@@ -192,9 +285,38 @@ public class SingleDFAEngineBuilder
 	    parserAncillaries += "		public int[] getProductionLHSs() {\n";
 	    parserAncillaries += "			return productionLHSs;\n";
 	    parserAncillaries += "		}\n";
-	    parserAncillaries += "		public int[][] getParseTable() {\n";
-	    parserAncillaries += "			return parseTable;\n";
-	    parserAncillaries += "		}\n";
+	    if(compressParseTable)
+	    {
+		    parserAncillaries += "		public int[][] getParseTable() {\n";
+		    parserAncillaries += "			return expandParseTable();\n";
+		    parserAncillaries += "		}\n";
+		    parserAncillaries += "		private static synchronized int[][] expandParseTable() {\n";
+		    parserAncillaries += "			if(parseTable == null) parseTable = compressedParseTable.expand();\n";
+		    parserAncillaries += "			return parseTable;\n";
+		    parserAncillaries += "		}\n";
+		    parserAncillaries += "		public int getParseTableAction(int state,int symbol) {\n";
+		    parserAncillaries += "			return compressedParseTable.getAction(state,symbol);\n";
+		    parserAncillaries += "		}\n";
+	    }
+	    else if(externalTables != null)
+	    {
+		    parserAncillaries += "		public int[][] getParseTable() {\n";
+		    parserAncillaries += "			return expandParseTable();\n";
+		    parserAncillaries += "		}\n";
+		    parserAncillaries += "		private static synchronized int[][] expandParseTable() {\n";
+		    parserAncillaries += "			if(parseTable == null) parseTable = mappedParseTable.expand();\n";
+		    parserAncillaries += "			return parseTable;\n";
+		    parserAncillaries += "		}\n";
+		    parserAncillaries += "		public int getParseTableAction(int state,int symbol) {\n";
+		    parserAncillaries += "			return mappedParseTable.getAction(state,symbol);\n";
+		    parserAncillaries += "		}\n";
+	    }
+	    else
+	    {
+		    parserAncillaries += "		public int[][] getParseTable() {\n";
+		    parserAncillaries += "			return parseTable;\n";
+		    parserAncillaries += "		}\n";
+	    }
 	    parserAncillaries += "		public " + BitSet.class.getName() + "[] getShiftableSets() {\n";
 	    parserAncillaries += "			return shiftableSets;\n";
 	    parserAncillaries += "		}\n";
@@ -220,6 +342,18 @@ public class SingleDFAEngineBuilder
 	    parserAncillaries += "		public " + BitSet.class.getName() + " getShiftableUnion() {\n";
 	    parserAncillaries += "			return shiftableUnion;\n";
 	    parserAncillaries += "		}\n";
+	    parserAncillaries += "		protected " + BitSet.class.getName() + " getSilentTerminals() {\n";
+	    parserAncillaries += "			return silentTerminals;\n";
+	    parserAncillaries += "		}\n";
+	    parserAncillaries += "		protected int[] getScanClasses() {\n";
+	    parserAncillaries += "			return scanClasses;\n";
+	    parserAncillaries += "		}\n";
+	    if(specializeScanner)
+	    {
+		    parserAncillaries += "		protected " + ScannerContextTable.class.getName() + " getScannerContexts() {\n";
+		    parserAncillaries += "			return scannerContexts;\n";
+		    parserAncillaries += "		}\n";
+	    }
 	    parserAncillaries += "		public " + BitSet.class.getName() + "[] getAcceptSets() {\n";
 	    parserAncillaries += "			return acceptSets;\n";
 	    parserAncillaries += "		}\n";
@@ -230,17 +364,25 @@ public class SingleDFAEngineBuilder
 	    parserAncillaries += "			return possibleSets;\n";
 	    parserAncillaries += "		}\n";
 	    parserAncillaries += "		public int[][] getDelta() {\n";
+	    parserAncillaries += "			return expandDelta();\n";
+	    parserAncillaries += "		}\n";
+	    parserAncillaries += "		private static synchronized int[][] expandDelta() {\n";
+	    parserAncillaries += "			if(delta == null) delta = transitionTable.expandTransitions();\n";
 	    parserAncillaries += "			return delta;\n";
 	    parserAncillaries += "		}\n";
 	    parserAncillaries += "		public int[] getCmap() {\n";
-	    parserAncillaries += "			return cmap;\n";
+	    parserAncillaries += "			return expandCmap();\n";
 	    parserAncillaries += "		}	\n";
+	    parserAncillaries += "		private static synchronized int[] expandCmap() {\n";
+	    parserAncillaries += "			if(cmap == null) cmap = transitionTable.expandCharMap();\n";
+	    parserAncillaries += "			return cmap;\n";
+	    parserAncillaries += "		}\n";
 	    
 		parserAncillaries += "    public " + rootType + " parse(" + Reader.class.getName() + " input,String inputName)\n";
 	    parserAncillaries += "    throws " + IOException.class.getName() + "," + errorType + "\n";
 	    parserAncillaries += "    {\n"; 
 	    //parserAncillaries += "    this.reporter = reporter;\n";
-	    parserAncillaries += "    this.charBuffer = " + ScannerBuffer.class.getName() + ".instantiate(input);\n";
+	    parserAncillaries += "    this.charBuffer = " + ScannerBuffer.class.getName() + (utf8Scanner ? ".instantiateUtf8(input);\n" : ".instantiate(input);\n");
 	    parserAncillaries += "    setupEngine();\n";
 	    parserAncillaries += "    startEngine(" + InputPosition.class.getName() + ".initialPos(inputName));\n";
 	    parserAncillaries += "    " + rootType + " parseTree = (" + rootType + ") runEngine();\n";
@@ -317,6 +459,7 @@ public class SingleDFAEngineBuilder
 		symbolNumbers = new int[SYMBOL_COUNT];
 		productionLHSs = new int[SYMBOL_COUNT - GRAMMAR_SYMBOL_COUNT];
         parseTable = new int[PARSER_STATE_COUNT][GRAMMAR_SYMBOL_COUNT];
+        actionSets = new BitSet[PARSER_STATE_COUNT];
         shiftableSets = new BitSet[PARSER_STATE_COUNT];
         layoutSets = new BitSet[PARSER_STATE_COUNT];
         prefixSets = new BitSet[PARSER_STATE_COUNT];
@@ -333,6 +476,7 @@ public class SingleDFAEngineBuilder
 		for(int statenum = 0;statenum < builtParseTable.size();statenum++)
 		{
 			shiftableSets[statenum] = SingleDFAEngine.newBitVec(TERMINAL_COUNT);
+			actionSets[statenum] = SingleDFAEngine.newBitVec(TERMINAL_COUNT);
 
 			shiftableSets[statenum].or(builtParseTable.getValidLA(statenum));
 			shiftableUnion.or(builtParseTable.getValidLA(statenum));
@@ -376,6 +520,7 @@ public class SingleDFAEngineBuilder
 					}
 					
 					parseTable[statenum][t] = SingleDFAEngine.newAction(symType,builtParseTable.getActionParameter(statenum,t));
+					actionSets[statenum].set(t);
 				}
 				else if(spec.nonterminals.get(t))
 				{
@@ -414,6 +559,31 @@ public class SingleDFAEngineBuilder
 		// TODO Remove nonterminals from the 'validLA' sets in the parse table.
 		shiftableUnion.andNot(spec.nonterminals);
 
+		silentTerminals = SingleDFAEngine.newBitVec(TERMINAL_COUNT);
+		if(parser.getDefaultTerminalCode() == null || QuotedStringFormatter.isJavaWhitespace(parser.getDefaultTerminalCode()))
+		{
+			for(int t = spec.terminals.nextSetBit(0);t >= 0;t = spec.terminals.nextSetBit(t+1))
+			{
+				if(t == spec.getEOFTerminal()) continue;
+				if(symbolTable.getTerminal(t).getCode() == null ||
+				   QuotedStringFormatter.isJavaWhitespace(symbolTable.getTerminal(t).getCode())) silentTerminals.set(t);
+			}
+		}
+
+		scanClasses = new int[PARSER_STATE_COUNT];
+		Map<List<Object>,Integer> scanClassNumbers = new HashMap<List<Object>,Integer>();
+		for(int statenum = 0;statenum < PARSER_STATE_COUNT;statenum++)
+		{
+			List<Object> key = Arrays.<Object>asList(shiftableSets[statenum],layoutSets[statenum],prefixSets[statenum],Arrays.asList(prefixMaps[statenum]));
+			Integer scanClass = scanClassNumbers.get(key);
+			if(scanClass == null)
+			{
+				scanClass = scanClassNumbers.size();
+				scanClassNumbers.put(key,scanClass);
+			}
+			scanClasses[statenum] = scanClass;
+		}
+
 		// To switch between scanner generation engines, change this line.
 //		generateScanner(out);
 //		generateScannerNew(out);
@@ -446,14 +616,25 @@ public class SingleDFAEngineBuilder
 		out.print("    {\n");
 		out.print("    }\n");
 
-		out.print("    public int transition(int state,char ch)\n");
-		out.print("    {\n");
-		out.print("         return delta[state][cmap[ch]];\n");
-		out.print("    }\n");
-
 		SCANNER_STATE_COUNT = scannerDFA.stateCount();
 		SCANNER_START_STATENUM = scannerDFA.getStartState();
 		delta = scannerDFA.getTransitions();
+		if(utf8Scanner)
+		{
+			Utf8ScannerDFA byteDFA = Utf8ScannerDFABuilder.build(delta,SCANNER_STATE_COUNT,scannerDFAAnnotations);
+			SCANNER_STATE_COUNT = byteDFA.stateCount();
+			delta = byteDFA.transitions;
+			scannerDFAAnnotations = byteDFA.annotations;
+		}
+
+		if(inlineScanner) writeInlinedTransitions(out);
+		else
+		{
+			out.print("    public int transition(int state,char ch)\n");
+			out.print("    {\n");
+			out.print("         return transitionTable.transition(state,ch);\n");
+			out.print("    }\n");
+		}
 		
 		out.print("    public class Semantics extends " + SingleDFASemanticActionContainer.class.getName() + "<" + errorType + ">\n");
 		out.print("    {\n");
@@ -469,6 +650,7 @@ public class SingleDFAEngineBuilder
 		out.print("        public Semantics()\n");
 		out.print("        throws " + IOException.class.getName() + "," + errorType + "\n");
 	    out.print("        {\n");
+		out.print("            _specialAttributes = new " + SpecialParserAttributes.class.getName() + "(virtualLocation);\n");
 		out.print("            runInit();\n");
 		out.print("        }\n");
 		out.print("\n");
@@ -500,13 +682,21 @@ public class SingleDFAEngineBuilder
 		}
 		out.print("        }\n");
 
+		// One set of special attributes serves the whole parse; it is reset only before actions that have code.
+		boolean hasDefaultProductionCode = parser.getDefaultProductionCode() != null && !QuotedStringFormatter.isJavaWhitespace(parser.getDefaultProductionCode());
+		boolean hasDefaultTerminalCode = parser.getDefaultTerminalCode() != null && !QuotedStringFormatter.isJavaWhitespace(parser.getDefaultTerminalCode());
 		out.print("        public " + Object.class.getName() + " runSemanticAction(" + InputPosition.class.getName() + " _pos," + Object.class.getName() + "[] _children,int _prod)\n");
+	    out.print("        throws " + IOException.class.getName() + "," + errorType + "\n");
+		out.print("        {\n");
+		out.print("            return runSemanticAction(_pos,_children,0,_prod);\n");
+		out.print("        }\n");
+		out.print("        public " + Object.class.getName() + " runSemanticAction(" + InputPosition.class.getName() + " _pos," + Object.class.getName() + "[] _children,int _childrenOffset,int _prod)\n");
 	    out.print("        throws " + IOException.class.getName() + "," + errorType + "\n");
 		out.print("        {\n");
 		out.print("            this._pos = _pos;\n");
 		out.print("            this._children = _children;\n");
+		out.print("            this._childrenOffset = _childrenOffset;\n");
 		out.print("            this._prod = _prod;\n");
-		out.print("            this._specialAttributes = new " + SpecialParserAttributes.class.getName() + "(virtualLocation);\n");
 		out.print("            " + Object.class.getName() + " RESULT = null;\n");
 		out.print("            switch(_prod)\n");
 		out.print("            {\n");
@@ -519,10 +709,12 @@ public class SingleDFAEngineBuilder
 				continue;
 			}
 			out.print("            case " + p + ":\n");
+			out.print("                _specialAttributes.reset(virtualLocation);\n");
 			out.print("                RESULT = runSemanticAction_" + p + "();\n");
 			out.print("                break;\n");
 		}
 		out.print("            default:\n");
+		if(hasDefaultProductionCode) out.print("                _specialAttributes.reset(virtualLocation);\n");
 		out.print("        runDefaultProdAction();\n");
 		out.print("                 break;\n");
 		out.print("            }\n");
@@ -534,19 +726,8 @@ public class SingleDFAEngineBuilder
 		out.print("        {\n");
 		out.print("            this._pos = _pos;\n");
 		out.print("            this._terminal = _terminal;\n");
-		out.print("            this._specialAttributes = new " + SpecialParserAttributes.class.getName() + "(virtualLocation);\n");
-		boolean lexemeUsed = false;
-		for(int t = spec.terminals.nextSetBit(0);t >= 0;t = spec.terminals.nextSetBit(t+1))
-		{
-			if(!(t == spec.getEOFTerminal() ||
-			     symbolTable.getTerminal(t).getCode() == null ||
-			     QuotedStringFormatter.isJavaWhitespace(symbolTable.getTerminal(t).getCode())))
-			{
-				lexemeUsed = true;
-				break;
-			}
-		}
-		if(lexemeUsed) out.print("            String lexeme = _terminal.lexeme;\n");
+		// Code that may look at _terminal outside a terminal's action is given it with its lexemes, and its layout's, read.
+		if(nonTerminalActionsReference(parser,TERMINAL_REFERENCE)) out.print("            _terminal.readLexemes();\n");
 		out.print("            " + Object.class.getName() + " RESULT = null;\n");
 		out.print("            switch(_terminal.firstTerm)\n");
 		out.print("            {\n");
@@ -559,10 +740,17 @@ public class SingleDFAEngineBuilder
 				continue;
 			}
 			out.print("            case " + t + ":\n");
-			out.print("                RESULT = runSemanticAction_" + t + "(lexeme);\n");
+			out.print("                _specialAttributes.reset(virtualLocation);\n");
+			out.print("                _terminal.readLexemes();\n");
+			out.print("                RESULT = runSemanticAction_" + t + "(_terminal.getLexeme());\n");
 			out.print("                break;\n");
 		}
 		out.print("            default:\n");
+		if(hasDefaultTerminalCode)
+		{
+			out.print("                _specialAttributes.reset(virtualLocation);\n");
+			out.print("                _terminal.readLexemes();\n");
+		}
 		out.print("        runDefaultTermAction();\n");
 		out.print("                 break;\n");
 		out.print("            }\n");
@@ -611,7 +799,7 @@ public class SingleDFAEngineBuilder
 						out.print("            ");
 						if(type == null) type = Object.class.getName();
 						if(type.contains("<")) out.print("@SuppressWarnings(\"unchecked\") ");
-						out.print(type + " " + var + " = (" + type + ") _children[" + k + "];\n");
+						out.print(type + " " + var + " = (" + type + ") _children[_childrenOffset + " + k + "];\n");
 					}
 					k++;
 				}
@@ -656,7 +844,7 @@ public class SingleDFAEngineBuilder
 		out.print("        public int runDisambiguationAction(" + InputPosition.class.getName() + " _pos," + SingleDFAMatchData.class.getName() + " match)\n");
 	    out.print("        throws " + IOException.class.getName() + "," + errorType + "\n");
 	    out.print("        {\n");
-		if(spec.disambiguationFunctions.nextSetBit(0) >= 0) out.print("            String lexeme = match.lexeme;\n");
+		if(spec.disambiguationFunctions.nextSetBit(0) >= 0) out.print("            String lexeme = match.getLexeme();\n");
 		first = true;
 	    for(int group = spec.disambiguationFunctions.nextSetBit(0);group >= 0;group = spec.disambiguationFunctions.nextSetBit(group+1))
 		{
@@ -722,6 +910,12 @@ public class SingleDFAEngineBuilder
 	    out.print("    throws " + IOException.class.getName() + "," + errorType + "\n");
 	    out.print("    {\n");
 	    out.print("        return semantics.runSemanticAction(_pos,_children,_prod);\n");
+	    out.print("    }\n");
+		out.print("    protected " + Object.class.getName() + " runSemanticAction(" + InputPosition.class.getName() + " _pos," + Object.class.getName() + "[] _children,int _childrenOffset,int _childCount,int _prod)\n");
+	    out.print("    throws " + IOException.class.getName() + "," + errorType + "\n");
+	    out.print("    {\n");
+	    // Action code may use _children itself, so it is given a reused array of the children alone, not a slice of the parse stack.
+	    out.print("        return semantics.runSemanticAction(_pos,childrenWindow(_children,_childrenOffset,_childCount),0,_prod);\n");
 	    out.print("    }\n");
 	    out.print("    public " + Object.class.getName() + " runSemanticAction(" + InputPosition.class.getName() + " _pos," + SingleDFAMatchData.class.getName() + " _terminal)\n");
 	    out.print("    throws " + IOException.class.getName() + "," + errorType + "\n");
@@ -740,6 +934,17 @@ public class SingleDFAEngineBuilder
 	    out.print("    {\n");
 	    out.print("        return semantics.runDisambiguationAction(_pos,matches);\n");
 	    out.print("    }\n");
+	    out.print("    protected boolean usesLazyLexemes()\n");
+	    out.print("    {\n");
+	    out.print("        return true;\n");
+	    out.print("    }\n");
+	    if(utf8Scanner)
+	    {
+		    out.print("    protected boolean scansUtf8()\n");
+		    out.print("    {\n");
+		    out.print("        return true;\n");
+		    out.print("    }\n");
+	    }
 	    out.print("    public " + SpecialParserAttributes.class.getName() + " getSpecialAttributes()\n");
 	    out.print("    {\n");
 	    out.print("        return semantics.getSpecialAttributes();\n");
@@ -749,6 +954,20 @@ public class SingleDFAEngineBuilder
 	    out.print("    {\n");
 	    out.print("         super.startEngine(initialPos);\n");
 	    out.print("         semantics = new Semantics();\n");
+	    out.print("    }\n");
+	    out.print("    public void reset()\n");
+	    out.print("    {\n");
+	    out.print("         super.reset();\n");
+	    out.print("         semantics = null;\n");
+	    out.print("    }\n");
+	    // The names of these methods are reserved in parser class auxiliary code; see CopperParserFactory.
+	    out.print("    public static " + CopperParserFactory.class.getName() + "<" + rootType + "," + errorType + "> newCopperParserFactory()\n");
+	    out.print("    {\n");
+	    out.print("         return newCopperParserFactory(" + Runtime.class.getName() + ".getRuntime().availableProcessors());\n");
+	    out.print("    }\n");
+	    out.print("    public static " + CopperParserFactory.class.getName() + "<" + rootType + "," + errorType + "> newCopperParserFactory(int poolSize)\n");
+	    out.print("    {\n");
+	    out.print("         return " + CopperParserFactory.class.getName() + ".forClass(" + parserName + ".class,poolSize);\n");
 	    out.print("    }\n");
 		out.print("\n");
 
@@ -768,93 +987,98 @@ public class SingleDFAEngineBuilder
 			productionLHSs[p - GRAMMAR_SYMBOL_COUNT] = SingleDFAEngine.newSymbol(SingleDFAEngine.SYMBOL_NONTERM,spec.pr.getLHS(p));
 		}
 
-		ByteArrayOutputStream stringOut = new ByteArrayOutputStream();
-		ObjectOutputStream outp;
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(symbolNames);
-		out.println("public static final byte[] symbolNamesHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(symbolDisplayNames);
-		out.println("public static final byte[] symbolDisplayNamesHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(symbolNumbers);
-		out.println("public static final byte[] symbolNumbersHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(productionLHSs);
-		out.println("public static final byte[] productionLHSsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(parseTable);
-		out.println("public static final byte[] parseTableHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(shiftableSets);
-		out.println("public static final byte[] shiftableSetsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(layoutSets);
-		out.println("public static final byte[] layoutSetsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(prefixSets);
-		out.println("public static final byte[] prefixSetsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(prefixMaps);
-		out.println("public static final byte[] prefixMapsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(terminalUses);
-		out.println("public static final byte[] terminalUsesHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(shiftableUnion);
-		out.println("public static final byte[] shiftableUnionHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(scannerDFAAnnotations.acceptSets);
-		out.println("public static final byte[] acceptSetsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(scannerDFAAnnotations.rejectSets);
-		out.println("public static final byte[] rejectSetsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(scannerDFAAnnotations.possibleSets);
-		out.println("public static final byte[] possibleSetsHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(scannerDFAAnnotations.charMap);
-		out.println("public static final byte[] cMapHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
-		stringOut.reset();
-		outp = new ObjectOutputStream(stringOut);
-		outp.writeObject(delta);
-		out.println("public static final byte[] deltaHash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,stringOut.toByteArray()) + "});\n");
+		TableWriter tables = new TableWriter();
+		if(externalTables != null)
+		{
+			tables.writeInt(PARSER_STATE_COUNT);
+			tables.writeInt(SYMBOL_COUNT);
+			tables.writeInt(SCANNER_STATE_COUNT);
+		}
+		tables.writeStringArray(symbolNames);
+		writeTable(out,tables,"symbolNames");
+		tables.writeStringArray(symbolDisplayNames);
+		writeTable(out,tables,"symbolDisplayNames");
+		tables.writeIntArray(symbolNumbers);
+		writeTable(out,tables,"symbolNumbers");
+		tables.writeIntArray(productionLHSs);
+		writeTable(out,tables,"productionLHSs");
+		if(compressParseTable) CompressedParseTable.compress(parseTable,actionSets).write(tables);
+		else if(externalTables != null) MappedParseTable.write(tables,parseTable);
+		else tables.writeIntArrays(parseTable);
+		writeTable(out,tables,"parseTable");
+		tables.writeBitSetArray(shiftableSets);
+		writeTable(out,tables,"shiftableSets");
+		tables.writeBitSetArray(layoutSets);
+		writeTable(out,tables,"layoutSets");
+		tables.writeBitSetArray(prefixSets);
+		writeTable(out,tables,"prefixSets");
+		tables.writeBitSetArrays(prefixMaps);
+		writeTable(out,tables,"prefixMaps");
+		tables.writeIntArray(terminalUses);
+		writeTable(out,tables,"terminalUses");
+		tables.writeBitSet(shiftableUnion);
+		writeTable(out,tables,"shiftableUnion");
+		tables.writeBitSet(silentTerminals);
+		writeTable(out,tables,"silentTerminals");
+		tables.writeIntArray(scanClasses);
+		writeTable(out,tables,"scanClasses");
+		tables.writeBitSetArray(scannerDFAAnnotations.acceptSets);
+		writeTable(out,tables,"acceptSets");
+		tables.writeBitSetArray(scannerDFAAnnotations.rejectSets);
+		writeTable(out,tables,"rejectSets");
+		tables.writeBitSetArray(scannerDFAAnnotations.possibleSets);
+		writeTable(out,tables,"possibleSets");
+		CompactTransitionTable.build(scannerDFAAnnotations.charMap,delta,SCANNER_STATE_COUNT).write(tables);
+		writeTable(out,tables,"transitionTable");
+		if(specializeScanner)
+		{
+			ScannerContextTable.build(shiftableSets,scannerDFAAnnotations.acceptSets,scannerDFAAnnotations.rejectSets,scannerDFAAnnotations.possibleSets).write(tables);
+			writeTable(out,tables,"scannerContexts");
+		}
+		
+		if(externalTables != null)
+		{
+			FileOutputStream tablesOut = new FileOutputStream(externalTables);
+			try
+			{
+				tablesOut.write(tables.toByteArray());
+			}
+			finally
+			{
+				tablesOut.close();
+			}
+		}
 		
 		out.print("public static void initArrays()\n");
 		out.print("throws " + IOException.class.getName() + "," + ClassNotFoundException.class.getName() + "\n");
 		out.print("{\n");
-		out.print("    symbolNames = (String[]) " + ByteArrayEncoder.class.getName() + ".readHash(symbolNamesHash);\n");
-		out.print("    symbolDisplayNames = (String[]) " + ByteArrayEncoder.class.getName() + ".readHash(symbolDisplayNamesHash);\n");
-		out.print("    symbolNumbers = (int[]) " + ByteArrayEncoder.class.getName() + ".readHash(symbolNumbersHash);\n");
-		out.print("    productionLHSs = (int[]) " + ByteArrayEncoder.class.getName() + ".readHash(productionLHSsHash);\n");
-		out.print("    parseTable = (int[][]) " + ByteArrayEncoder.class.getName() + ".readHash(parseTableHash);\n");
-		out.print("    shiftableSets = (" + BitSet.class.getName() + "[]) " + ByteArrayEncoder.class.getName() + ".readHash(shiftableSetsHash);\n");
-		out.print("    layoutSets = (" + BitSet.class.getName() + "[]) " + ByteArrayEncoder.class.getName() + ".readHash(layoutSetsHash);\n");
-		out.print("    prefixSets = (" + BitSet.class.getName() + "[]) " + ByteArrayEncoder.class.getName() + ".readHash(prefixSetsHash);\n");
+		if(externalTables != null)
+		{
+			String tablesName = QuotedStringFormatter.formatQuotedString(externalTables.getName());
+			out.print("    " + TableReader.class.getName() + " tables = " + TableReader.class.getName() + ".open(" + parserName + ".class,\"" + tablesName + "\");\n");
+			out.print("    if(tables.readInt() != PARSER_STATE_COUNT || tables.readInt() != SYMBOL_COUNT || tables.readInt() != SCANNER_STATE_COUNT) throw new " + IOException.class.getName() + "(\"Parser tables " + tablesName + " do not match this parser\");\n");
+		}
+		out.print("    symbolNames = " + tableSource("symbolNames") + ".readStringArray();\n");
+		out.print("    symbolDisplayNames = " + tableSource("symbolDisplayNames") + ".readStringArray();\n");
+		out.print("    symbolNumbers = " + tableSource("symbolNumbers") + ".readIntArray();\n");
+		out.print("    productionLHSs = " + tableSource("productionLHSs") + ".readIntArray();\n");
+		if(compressParseTable) out.print("    compressedParseTable = " + CompressedParseTable.class.getName() + ".read(" + tableSource("parseTable") + ");\n");
+		else if(externalTables != null) out.print("    mappedParseTable = " + MappedParseTable.class.getName() + ".read(" + tableSource("parseTable") + ");\n");
+		else out.print("    parseTable = " + tableSource("parseTable") + ".readIntArrays();\n");
+		out.print("    shiftableSets = " + tableSource("shiftableSets") + ".readBitSetArray();\n");
+		out.print("    layoutSets = " + tableSource("layoutSets") + ".readBitSetArray();\n");
+		out.print("    prefixSets = " + tableSource("prefixSets") + ".readBitSetArray();\n");
 		//out.print("    layoutMaps = (" + BitSet.class.getName() + "[][]) " + ByteArrayEncoder.class.getName() + ".readHash(layoutMapsHash);\n");
-		out.print("    prefixMaps = (" + BitSet.class.getName() + "[][]) " + ByteArrayEncoder.class.getName() + ".readHash(prefixMapsHash);\n");
-		out.print("    terminalUses = (int[]) " + ByteArrayEncoder.class.getName() + ".readHash(terminalUsesHash);\n");
-		out.print("    shiftableUnion = (" + BitSet.class.getName() + ") " + ByteArrayEncoder.class.getName() + ".readHash(shiftableUnionHash);\n");
-		out.print("    acceptSets = (" + BitSet.class.getName() + "[]) " + ByteArrayEncoder.class.getName() + ".readHash(acceptSetsHash);\n");
-		out.print("    rejectSets = (" + BitSet.class.getName() + "[]) " + ByteArrayEncoder.class.getName() + ".readHash(rejectSetsHash);\n");
-		out.print("    possibleSets = (" + BitSet.class.getName() + "[]) " + ByteArrayEncoder.class.getName() + ".readHash(possibleSetsHash);\n");
-		out.print("    cmap = (int[]) " + ByteArrayEncoder.class.getName() + ".readHash(cMapHash);\n");
-		out.print("    delta = (int[][]) " + ByteArrayEncoder.class.getName() + ".readHash(deltaHash);\n");
+		out.print("    prefixMaps = " + tableSource("prefixMaps") + ".readBitSetArrays();\n");
+		out.print("    terminalUses = " + tableSource("terminalUses") + ".readIntArray();\n");
+		out.print("    shiftableUnion = " + tableSource("shiftableUnion") + ".readBitSet();\n");
+		out.print("    silentTerminals = " + tableSource("silentTerminals") + ".readBitSet();\n");
+		out.print("    scanClasses = " + tableSource("scanClasses") + ".readIntArray();\n");
+		out.print("    acceptSets = " + tableSource("acceptSets") + ".readBitSetArray();\n");
+		out.print("    rejectSets = " + tableSource("rejectSets") + ".readBitSetArray();\n");
+		out.print("    possibleSets = " + tableSource("possibleSets") + ".readBitSetArray();\n");
+		out.print("    transitionTable = " + CompactTransitionTable.class.getName() + ".read(" + tableSource("transitionTable") + ");\n");
+		if(specializeScanner) out.print("    scannerContexts = " + ScannerContextTable.class.getName() + ".read(" + tableSource("scannerContexts") + ");\n");
 		out.print("    }\n");
 
 		out.print(parserAncillaries);
@@ -874,7 +1098,9 @@ public class SingleDFAEngineBuilder
 		out.print("        EOF_SYMNUM = " + EOF_SYMNUM + ";\n");
 		out.print("        EPS_SYMNUM = " + EPS_SYMNUM + ";\n");
 		out.print("        try { initArrays(); }\n");
-		out.print("        catch(" + IOException.class.getName() + " ex) { ex.printStackTrace(); System.exit(1); }\n");
+		// A missing or stale tables file is reported to the code loading the parser, rather than ending the program.
+		if(externalTables != null) out.print("        catch(" + IOException.class.getName() + " ex) { throw new " + ExceptionInInitializerError.class.getName() + "(ex); }\n");
+		else out.print("        catch(" + IOException.class.getName() + " ex) { ex.printStackTrace(); System.exit(1); }\n");
 		out.print("        catch(" + ClassNotFoundException.class.getName() + " ex) { ex.printStackTrace(); System.exit(1); }\n");
 		out.print("        disambiguationGroups = new " + BitSet.class.getName() + "[" + DISAMBIG_GROUP_COUNT + "];\n");
 	    for(int group = spec.disambiguationFunctions.nextSetBit(0);group >= 0;group = spec.disambiguationFunctions.nextSetBit(group+1))
@@ -894,6 +1120,165 @@ public class SingleDFAEngineBuilder
 		//lexChecker.checkLexicalAmbiguities(grammar,scannerInfo,builtParseTable);
 	}
 
+	private static final Pattern TERMINAL_REFERENCE = referencePattern("_terminal");
+
+	/**
+	 * @return A pattern matching <code>identifier</code>, but not longer identifiers such as <code>identifier + "Offset"</code>.
+	 */
+	private static Pattern referencePattern(String identifier)
+	{
+		return Pattern.compile("(?<![\\w$])" + Pattern.quote(identifier) + "(?![\\w$])");
+	}
+
+	/**
+	 * @return <code>true</code> iff <code>code</code> refers to the field <code>_terminal</code> of the semantic action container.
+	 */
+	public static boolean referencesTerminal(String code)
+	{
+		return code != null && TERMINAL_REFERENCE.matcher(code).find();
+	}
+
+	/**
+	 * @return <code>true</code> iff any code placed in the semantic action container,
+	 * other than the actions of terminals, matches <code>reference</code>.
+	 */
+	private boolean nonTerminalActionsReference(ParserBean parser,Pattern reference)
+	{
+		ArrayList<String> code = new ArrayList<String>();
+		code.add(parser.getSemanticActionAuxCode());
+		code.add(parser.getDefaultProductionCode());
+		code.add(parser.getParserInitCode());
+		code.add(parser.getPostParseCode());
+		for(int attrN = spec.parserAttributes.nextSetBit(0);attrN >= 0;attrN = spec.parserAttributes.nextSetBit(attrN+1))
+		{
+			code.add(symbolTable.getParserAttribute(attrN).getCode());
+		}
+		for(int p = spec.productions.nextSetBit(0);p >= 0;p = spec.productions.nextSetBit(p+1))
+		{
+			if(p != spec.getStartProduction()) code.add(symbolTable.getProduction(p).getCode());
+		}
+		for(int group = spec.disambiguationFunctions.nextSetBit(0);group >= 0;group = spec.disambiguationFunctions.nextSetBit(group+1))
+		{
+			code.add(symbolTable.getDisambiguationFunction(group).getCode());
+		}
+		for(String c : code)
+		{
+			if(c != null && reference.matcher(c).find()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Emits a table written to <code>tables</code> as a byte-array constant,
+	 * or, if the tables are kept in a separate file, leaves it to be written there.
+	 */
+	private void writeTable(PrintStream out,TableWriter tables,String name)
+	throws IOException
+	{
+		if(externalTables != null) return;
+		out.println("public static final byte[] " + name + "Hash = " + ByteArrayEncoder.class.getName() + ".literalToByteArray\n(new String[]{ " + ByteArrayEncoder.byteArrayToLiteral(16,tables.toByteArray()) + "});\n");
+		tables.reset();
+	}
+
+	/**
+	 * @return The expression in the generated parser from which to read the given table.
+	 */
+	private String tableSource(String name)
+	{
+		if(externalTables != null) return "tables";
+		else return "new " + TableReader.class.getName() + "(" + name + "Hash)";
+	}
+
+	/** The most character ranges a scanner state may have for its transitions to be emitted as code. */
+	private static final int MAX_INLINED_RANGES = 8;
+	/** The most scanner states whose transitions are emitted as code, keeping the dispatching method small enough to compile. */
+	private static final int MAX_INLINED_STATES = 256;
+
+	/**
+	 * Emits the scanner's transition function with the transitions of the
+	 * states with few character ranges --- the start state and states that
+	 * loop on themselves, such as those inside identifiers, numbers and
+	 * whitespace, taken first --- as chains of character comparisons, one
+	 * method per state. Other states use the transition table.
+	 */
+	private void writeInlinedTransitions(PrintStream out)
+	{
+		int[] charMap = scannerDFAAnnotations.charMap;
+		List<Integer> candidates = new ArrayList<Integer>();
+		candidates.add(SCANNER_START_STATENUM);
+		for(int pass = 0;pass < 2;pass++)
+		{
+			for(int state = 1;state < SCANNER_STATE_COUNT;state++)
+			{
+				if(state == SCANNER_START_STATENUM) continue;
+				boolean loops = false;
+				for(int i = 0;i < delta[state].length && !loops;i++) loops = delta[state][i] == state;
+				if(loops == (pass == 0)) candidates.add(state);
+			}
+		}
+
+		TreeSet<Integer> inlined = new TreeSet<Integer>();
+		Map<Integer,List<int[]>> inlinedRanges = new HashMap<Integer,List<int[]>>();
+		for(int state : candidates)
+		{
+			if(inlined.size() >= MAX_INLINED_STATES) break;
+			List<int[]> ranges = new ArrayList<int[]>();
+			int rangeStart = 0;
+			int rangeDest = inlinedTransition(state,charMap[0]);
+			for(int ch = 1;ch <= charMap.length && ranges.size() <= MAX_INLINED_RANGES;ch++)
+			{
+				int dest = (ch < charMap.length) ? inlinedTransition(state,charMap[ch]) : -1;
+				if(dest == rangeDest) continue;
+				if(rangeDest != 0) ranges.add(new int[] { rangeStart,ch - 1,rangeDest });
+				rangeStart = ch;
+				rangeDest = dest;
+			}
+			if(ranges.size() > MAX_INLINED_RANGES) continue;
+			inlined.add(state);
+			inlinedRanges.put(state,ranges);
+		}
+
+		out.print("    public int transition(int state,char ch)\n");
+		out.print("    {\n");
+		out.print("        switch(state)\n");
+		out.print("        {\n");
+		for(int state : inlined) out.print("        case " + state + ": return transition" + state + "(ch);\n");
+		out.print("        default: return transitionTable.transition(state,ch);\n");
+		out.print("        }\n");
+		out.print("    }\n");
+		for(int state : inlined)
+		{
+			// Ranges leading to the same state are tested together.
+			Map<Integer,String> tests = new LinkedHashMap<Integer,String>();
+			for(int[] range : inlinedRanges.get(state))
+			{
+				String test;
+				if(range[0] == range[1]) test = "ch == " + charLiteral(range[0]);
+				else if(range[0] == 0) test = "ch <= " + charLiteral(range[1]);
+				else if(range[1] == Character.MAX_VALUE) test = "ch >= " + charLiteral(range[0]);
+				else test = "(ch >= " + charLiteral(range[0]) + " && ch <= " + charLiteral(range[1]) + ")";
+				if(tests.containsKey(range[2])) tests.put(range[2],tests.get(range[2]) + " || " + test);
+				else tests.put(range[2],test);
+			}
+			out.print("    private static int transition" + state + "(char ch)\n");
+			out.print("    {\n");
+			for(Map.Entry<Integer,String> test : tests.entrySet()) out.print("        if(" + test.getValue() + ") return " + test.getKey() + ";\n");
+			out.print("        return 0;\n");
+			out.print("    }\n");
+		}
+	}
+
+	private int inlinedTransition(int state,int charClass)
+	{
+		return (charClass < delta[state].length) ? delta[state][charClass] : 0;
+	}
+
+	private static String charLiteral(int ch)
+	{
+		if(ch >= ' ' && ch < 0x7F && ch != '\'' && ch != '\\') return "'" + (char) ch + "'";
+		else return String.valueOf(ch);
+	}
+
 	public int getScannerStateCount()
 	{
 		return scannerDFA.stateCount();
@@ -0,0 +1,131 @@
+package edu.umn.cs.melt.copper.runtime.auxiliary.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters that many threads may add to at once with
+ * little contention. Each counter is kept in several stripes, a thread
+ * adding to the stripe chosen by its identity; a counter's value is the sum
+ * of its stripes. Each stripe's counters are padded apart from the next
+ * stripe's to keep them on separate cache lines.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public class StripedCounters
+{
+	/** Longs of padding between stripes, the length of a typical cache line. */
+	private static final int PADDING = 8;
+	private static final int MAX_STRIPES = 64;
+
+	private final int counterCount;
+	private final int stripeLength;
+	private final int stripeMask;
+	private final AtomicLongArray counts;
+
+	/**
+	 * @param counterCount The number of counters.
+	 */
+	public StripedCounters(int counterCount)
+	{
+		int stripes = 1;
+		while(stripes < 2 * Runtime.getRuntime().availableProcessors() && stripes < MAX_STRIPES) stripes <<= 1;
+		this.counterCount = counterCount;
+		this.stripeLength = counterCount + PADDING;
+		this.stripeMask = stripes - 1;
+		this.counts = new AtomicLongArray(stripes * stripeLength);
+	}
+
+	private int stripeBase()
+	{
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & stripeMask) * stripeLength;
+	}
+
+	/**
+	 * Adds to a counter.
+	 * @param counter The number of the counter.
+	 * @param delta The amount to add.
+	 */
+	public void add(int counter,long delta)
+	{
+		counts.addAndGet(stripeBase() + counter,delta);
+	}
+
+	/**
+	 * Adds to several consecutive counters at once.
+	 * @param firstCounter The number of the first counter.
+	 * @param deltas The amounts to add to each counter from <code>firstCounter</code> on.
+	 */
+	public void add(int firstCounter,long[] deltas)
+	{
+		int base = stripeBase() + firstCounter;
+		for(int i = 0;i < deltas.length;i++)
+		{
+			if(deltas[i] != 0) counts.addAndGet(base + i,deltas[i]);
+		}
+	}
+
+	/**
+	 * Raises a counter to a given value if it is below it. The value read is
+	 * the greatest over all stripes.
+	 */
+	public void max(int counter,long value)
+	{
+		int i = stripeBase() + counter;
+		long current;
+		while((current = counts.get(i)) < value && !counts.compareAndSet(i,current,value));
+	}
+
+	/**
+	 * @param counter The number of the counter.
+	 * @return The counter's value; not a snapshot if other threads are adding to it.
+	 */
+	public long sum(int counter)
+	{
+		long rv = 0;
+		for(int base = 0;base < counts.length();base += stripeLength) rv += counts.get(base + counter);
+		return rv;
+	}
+
+	/**
+	 * @return The greatest value of a counter kept with {@link #max(int, long)}.
+	 */
+	public long maxOf(int counter)
+	{
+		long rv = 0;
+		for(int base = 0;base < counts.length();base += stripeLength) rv = Math.max(rv,counts.get(base + counter));
+		return rv;
+	}
+
+	/**
+	 * @param firstCounter The number of the first counter.
+	 * @param length The number of counters.
+	 * @return The values of several consecutive counters.
+	 */
+	public long[] sums(int firstCounter,int length)
+	{
+		long[] rv = new long[length];
+		for(int base = 0;base < counts.length();base += stripeLength)
+		{
+			for(int i = 0;i < length;i++) rv[i] += counts.get(base + firstCounter + i);
+		}
+		return rv;
+	}
+
+	/**
+	 * Sets every counter to zero. Additions made at the same time may be lost.
+	 */
+	public void reset()
+	{
+		for(int i = 0;i < counts.length();i++) counts.set(i,0);
+	}
+
+	/**
+	 * @return The number of counters.
+	 */
+	public int getCounterCount()
+	{
+		return counterCount;
+	}
+}
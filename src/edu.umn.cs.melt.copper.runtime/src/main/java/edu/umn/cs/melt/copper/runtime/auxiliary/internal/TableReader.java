@@ -0,0 +1,195 @@
+package edu.umn.cs.melt.copper.runtime.auxiliary.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Reads parse and scan tables written by {@link TableWriter}, straight
+ * from a buffer of bytes, without object serialization.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public class TableReader
+{
+	private ByteBuffer in;
+
+	public TableReader(byte[] tables)
+	{
+		this(ByteBuffer.wrap(tables));
+	}
+
+	public TableReader(ByteBuffer tables)
+	{
+		in = tables;
+	}
+
+	/**
+	 * Opens a file of tables kept beside a parser class. The file is
+	 * memory-mapped read-only, so that processes using the same file share
+	 * one copy of it; tables read from it as views, rather than copied onto
+	 * the heap, are shared likewise.
+	 * <p>
+	 * The file is found at the path given by the system property
+	 * <code><i>ownerClassName</i>.tables</code>, if it is set, and otherwise
+	 * as the resource <code>resourceName</code> of <code>owner</code>. A
+	 * resource held in a jar cannot be mapped and is read into memory.
+	 * @param owner The parser class.
+	 * @param resourceName The name of the resource holding the tables.
+	 */
+	public static TableReader open(Class<?> owner,String resourceName)
+	throws IOException
+	{
+		String path = System.getProperty(owner.getName() + ".tables");
+		if(path != null) return new TableReader(map(Paths.get(path)));
+		URL url = owner.getResource(resourceName);
+		if(url == null) throw new IOException("Parser tables " + resourceName + " not found");
+		if(url.getProtocol().equals("file"))
+		{
+			try
+			{
+				return new TableReader(map(Paths.get(url.toURI())));
+			}
+			catch(URISyntaxException ex)
+			{
+				throw new IOException(ex);
+			}
+		}
+		InputStream in = url.openStream();
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[65536];
+			int bytesRead;
+			while((bytesRead = in.read(buf)) != -1) bytes.write(buf,0,bytesRead);
+			return new TableReader(bytes.toByteArray());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static ByteBuffer map(Path file)
+	throws IOException
+	{
+		FileChannel channel = FileChannel.open(file,StandardOpenOption.READ);
+		try
+		{
+			return channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	public int readInt()
+	{
+		return in.getInt();
+	}
+
+	public int[] readIntArray()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		int[] rv = new int[length];
+		in.asIntBuffer().get(rv);
+		in.position(in.position() + 4 * length);
+		return rv;
+	}
+
+	/**
+	 * Reads an array of ints as a view of the underlying buffer, without copying it.
+	 * @see TableWriter#writeIntArray(int[])
+	 */
+	public IntBuffer readIntArrayView()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		ByteBuffer view = in.slice();
+		view.limit(4 * length);
+		in.position(in.position() + 4 * length);
+		return view.asIntBuffer();
+	}
+
+	public int[][] readIntArrays()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		int[][] rv = new int[length][];
+		for(int i = 0;i < length;i++) rv[i] = readIntArray();
+		return rv;
+	}
+
+	public byte[] readByteArray()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		byte[] rv = new byte[length];
+		in.get(rv);
+		return rv;
+	}
+
+	public char[] readCharArray()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		char[] rv = new char[length];
+		in.asCharBuffer().get(rv);
+		in.position(in.position() + 2 * length);
+		return rv;
+	}
+
+	public String readString()
+	{
+		char[] chars = readCharArray();
+		return (chars == null) ? null : new String(chars);
+	}
+
+	public String[] readStringArray()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		String[] rv = new String[length];
+		for(int i = 0;i < length;i++) rv[i] = readString();
+		return rv;
+	}
+
+	public BitSet readBitSet()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		long[] words = new long[length];
+		in.asLongBuffer().get(words);
+		in.position(in.position() + 8 * length);
+		return BitSet.valueOf(words);
+	}
+
+	public BitSet[] readBitSetArray()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		BitSet[] rv = new BitSet[length];
+		for(int i = 0;i < length;i++) rv[i] = readBitSet();
+		return rv;
+	}
+
+	public BitSet[][] readBitSetArrays()
+	{
+		int length = in.getInt();
+		if(length < 0) return null;
+		BitSet[][] rv = new BitSet[length][];
+		for(int i = 0;i < length;i++) rv[i] = readBitSetArray();
+		return rv;
+	}
+}
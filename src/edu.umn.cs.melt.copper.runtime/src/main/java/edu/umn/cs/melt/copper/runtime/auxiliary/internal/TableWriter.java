@@ -0,0 +1,161 @@
+package edu.umn.cs.melt.copper.runtime.auxiliary.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Writes parse and scan tables in a compact binary form, to be read back
+ * with {@link TableReader}. All values are written as big-endian words;
+ * arrays and sets are written as a length followed by their elements, a
+ * length of -1 standing for <code>null</code>.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public class TableWriter
+{
+	private ByteArrayOutputStream bytes;
+	private DataOutputStream out;
+
+	public TableWriter()
+	{
+		bytes = new ByteArrayOutputStream();
+		out = new DataOutputStream(bytes);
+	}
+
+	/**
+	 * @return The tables written since this writer was created or last reset.
+	 */
+	public byte[] toByteArray()
+	throws IOException
+	{
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Discards the tables written so far.
+	 */
+	public void reset()
+	throws IOException
+	{
+		out.flush();
+		bytes.reset();
+	}
+
+	public void writeInt(int value)
+	throws IOException
+	{
+		out.writeInt(value);
+	}
+
+	public void writeIntArray(int[] array)
+	throws IOException
+	{
+		if(array == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(array.length);
+		for(int value : array) out.writeInt(value);
+	}
+
+	public void writeIntArrays(int[][] arrays)
+	throws IOException
+	{
+		if(arrays == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(arrays.length);
+		for(int[] array : arrays) writeIntArray(array);
+	}
+
+	public void writeByteArray(byte[] array)
+	throws IOException
+	{
+		if(array == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(array.length);
+		out.write(array);
+	}
+
+	public void writeCharArray(char[] array)
+	throws IOException
+	{
+		if(array == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(array.length);
+		for(char value : array) out.writeChar(value);
+	}
+
+	public void writeString(String string)
+	throws IOException
+	{
+		if(string == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(string.length());
+		out.writeChars(string);
+	}
+
+	public void writeStringArray(String[] array)
+	throws IOException
+	{
+		if(array == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(array.length);
+		for(String string : array) writeString(string);
+	}
+
+	public void writeBitSet(BitSet set)
+	throws IOException
+	{
+		if(set == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		long[] words = set.toLongArray();
+		out.writeInt(words.length);
+		for(long word : words) out.writeLong(word);
+	}
+
+	public void writeBitSetArray(BitSet[] sets)
+	throws IOException
+	{
+		if(sets == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(sets.length);
+		for(BitSet set : sets) writeBitSet(set);
+	}
+
+	public void writeBitSetArrays(BitSet[][] sets)
+	throws IOException
+	{
+		if(sets == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(sets.length);
+		for(BitSet[] array : sets) writeBitSetArray(array);
+	}
+}
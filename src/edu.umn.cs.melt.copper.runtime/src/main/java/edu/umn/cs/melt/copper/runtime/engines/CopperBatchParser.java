@@ -0,0 +1,325 @@
+package edu.umn.cs.melt.copper.runtime.engines;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAEngine;
+import edu.umn.cs.melt.copper.runtime.logging.CopperSyntaxError;
+
+/**
+ * Parses many inputs at once on a pool of threads. Each parse runs in a
+ * session of its own, borrowed from a {@link CopperParserFactory} for the
+ * length of the parse, so no session is used by two threads at once; the
+ * sessions of one parser class share its tables. Results are handed back
+ * as the parses finish, not in the order the inputs were given.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ * @param <ROOT> The type of the root of a parse tree produced by the parser.
+ * @param <EXCEPT> The type of the syntax-error exceptions thrown by the parser.
+ */
+public class CopperBatchParser<ROOT,EXCEPT extends Exception> implements Closeable
+{
+	private final CopperParserFactory<ROOT,EXCEPT> factory;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a batch parser running one parse per available processor at a time.
+	 * @param parserClass The parser class, which must have a public no-argument constructor.
+	 */
+	public CopperBatchParser(Class<? extends CopperParseSession<ROOT,EXCEPT>> parserClass)
+	{
+		this(parserClass,Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a batch parser with a custom level of parallelism.
+	 * @param parserClass The parser class, which must have a public no-argument constructor.
+	 * @param parallelism The greatest number of parses to run at a time.
+	 */
+	public CopperBatchParser(Class<? extends CopperParseSession<ROOT,EXCEPT>> parserClass,int parallelism)
+	{
+		this(CopperParserFactory.forClass(parserClass,parallelism),parallelism);
+	}
+
+	/**
+	 * Creates a batch parser borrowing its sessions from a given factory.
+	 * The factory's pool should hold at least <code>parallelism</code>
+	 * sessions, or sessions will be created and discarded as parses run.
+	 * @param factory The factory.
+	 * @param parallelism The greatest number of parses to run at a time.
+	 */
+	public CopperBatchParser(CopperParserFactory<ROOT,EXCEPT> factory,int parallelism)
+	{
+		if(parallelism < 1) throw new IllegalArgumentException("Parallelism must be positive");
+		this.factory = factory;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Starts parsing a collection of inputs.
+	 * @param inputs The inputs.
+	 * @return The results, one per input, in the order the parses finish;
+	 * <code>next()</code> waits for the next parse to finish if none has yet,
+	 * and throws any error, as opposed to exception, that ended it.
+	 */
+	public Iterator<Result<ROOT>> parseAll(Collection<? extends Input> inputs)
+	{
+		final BlockingQueue<Result<ROOT>> finished = new LinkedBlockingQueue<Result<ROOT>>();
+		int index = 0;
+		for(final Input input : inputs)
+		{
+			final int inputIndex = index++;
+			pool.execute(new Runnable()
+			{
+				public void run()
+				{
+					Result<ROOT> result;
+					try
+					{
+						result = parse(inputIndex,input);
+					}
+					catch(Error err)
+					{
+						// Handed to the caller of next(), rather than lost in the pool's thread.
+						result = new Result<ROOT>(inputIndex,input.getName(),null,err);
+					}
+					finished.add(result);
+				}
+			});
+		}
+		final int count = index;
+		return new Iterator<Result<ROOT>>()
+		{
+			private int taken = 0;
+
+			public boolean hasNext()
+			{
+				return taken < count;
+			}
+
+			public Result<ROOT> next()
+			{
+				if(!hasNext()) throw new NoSuchElementException();
+				try
+				{
+					Result<ROOT> rv = finished.take();
+					taken++;
+					if(rv.failure instanceof Error) throw (Error) rv.failure;
+					return rv;
+				}
+				catch(InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for a parse to finish",ex);
+				}
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private Result<ROOT> parse(int index,Input input)
+	{
+		CopperParseSession<ROOT,EXCEPT> session = factory.acquire();
+		try
+		{
+			return new Result<ROOT>(index,input.getName(),input.parse(session),null);
+		}
+		catch(Exception ex)
+		{
+			return new Result<ROOT>(index,input.getName(),null,ex);
+		}
+		finally
+		{
+			factory.release(session);
+		}
+	}
+
+	/**
+	 * Stops the threads once the parses under way have finished.
+	 */
+	@Override
+	public void close()
+	{
+		pool.shutdown();
+	}
+
+	/**
+	 * An input to be parsed.
+	 */
+	public static abstract class Input
+	{
+		private final String name;
+
+		protected Input(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * @return The label attached to the input (filename or similar).
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Parses this input in a given session.
+		 */
+		protected abstract <ROOT,EXCEPT extends Exception> ROOT parse(CopperParseSession<ROOT,EXCEPT> session)
+		throws IOException,EXCEPT;
+
+		/**
+		 * An input read from a file, through a memory mapping where the parser supports it.
+		 * @param file The file, whose name is also used to label the input.
+		 * @param charset The character set in which the file is encoded.
+		 */
+		public static Input of(final Path file,final Charset charset)
+		{
+			return new Input(file.toString())
+			{
+				@Override
+				@SuppressWarnings("unchecked")
+				protected <ROOT,EXCEPT extends Exception> ROOT parse(CopperParseSession<ROOT,EXCEPT> session)
+				throws IOException,EXCEPT
+				{
+					if(session instanceof SingleDFAEngine) return ((SingleDFAEngine<ROOT,EXCEPT>) session).parse(file,charset);
+					Reader reader = Files.newBufferedReader(file,charset);
+					try
+					{
+						return session.parse(reader,getName());
+					}
+					finally
+					{
+						reader.close();
+					}
+				}
+			};
+		}
+
+		/**
+		 * An input read from a reader, which is closed once it has been parsed.
+		 * @param reader The reader.
+		 * @param name The label attached to the reader's data (filename or similar).
+		 */
+		public static Input of(final Reader reader,String name)
+		{
+			return new Input(name)
+			{
+				@Override
+				protected <ROOT,EXCEPT extends Exception> ROOT parse(CopperParseSession<ROOT,EXCEPT> session)
+				throws IOException,EXCEPT
+				{
+					try
+					{
+						return session.parse(reader,getName());
+					}
+					finally
+					{
+						reader.close();
+					}
+				}
+			};
+		}
+
+		/**
+		 * An input held in memory and read in place.
+		 * @param text The text; it must not change while it is being parsed.
+		 * @param name The label attached to the text (filename or similar).
+		 */
+		public static Input of(final CharSequence text,String name)
+		{
+			return new Input(name)
+			{
+				@Override
+				protected <ROOT,EXCEPT extends Exception> ROOT parse(CopperParseSession<ROOT,EXCEPT> session)
+				throws IOException,EXCEPT
+				{
+					return session.parse(text,getName());
+				}
+			};
+		}
+	}
+
+	/**
+	 * The outcome of parsing one input.
+	 * @param <ROOT> The type of the root of a parse tree produced by the parser.
+	 */
+	public static class Result<ROOT>
+	{
+		private final int index;
+		private final String name;
+		private final ROOT root;
+		private final Throwable failure;
+
+		private Result(int index,String name,ROOT root,Throwable failure)
+		{
+			this.index = index;
+			this.name = name;
+			this.root = root;
+			this.failure = failure;
+		}
+
+		/**
+		 * @return The position of the input in the collection given to {@link CopperBatchParser#parseAll(Collection)}.
+		 */
+		public int getIndex()
+		{
+			return index;
+		}
+
+		/**
+		 * @return The label attached to the input.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return <code>true</code> if the input was parsed without an exception being thrown.
+		 */
+		public boolean succeeded()
+		{
+			return failure == null;
+		}
+
+		/**
+		 * @return The synthesized attribute of the root node of the input's parse tree, or <code>null</code> if the parse failed.
+		 */
+		public ROOT getRoot()
+		{
+			return root;
+		}
+
+		/**
+		 * @return The exception that ended the parse, or <code>null</code> if it succeeded.
+		 */
+		public Exception getFailure()
+		{
+			return (Exception) failure;
+		}
+
+		/**
+		 * @return The syntax error that ended the parse, or <code>null</code> if it succeeded or ended otherwise.
+		 */
+		public CopperSyntaxError getSyntaxError()
+		{
+			return (failure instanceof CopperSyntaxError) ? (CopperSyntaxError) failure : null;
+		}
+	}
+}
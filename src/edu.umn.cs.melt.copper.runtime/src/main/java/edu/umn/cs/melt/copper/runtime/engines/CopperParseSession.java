@@ -0,0 +1,41 @@
+package edu.umn.cs.melt.copper.runtime.engines;
+
+import java.io.IOException;
+
+/**
+ * A Copper parser whose per-parse state can be discarded so that the same
+ * object may be reused for later parses, as by {@link CopperParserFactory}.
+ * A session is not thread-safe and may run only one parse at a time; the
+ * parse tables it reads are shared, read-only, by all sessions of a parser.
+ * @param <ROOT> The type of the root of a parse tree produced by the parser.
+ * @param <EXCEPT> The type of the syntax-error exceptions thrown by the parser.
+ */
+public interface CopperParseSession<ROOT,EXCEPT extends Exception> extends CopperParser<ROOT,EXCEPT>
+{
+	/**
+	 * Drops all references held to the input, tokens and semantic values of
+	 * the last parse. The session is left ready for another parse.
+	 */
+	public void reset();
+
+	/**
+	 * Runs the parser on input held in memory, reading it in place, with default input labeling.
+	 * @param text Contains the text to parse; it must not change while it is being parsed.
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a parse error occurs.
+	 */
+	public ROOT parse(CharSequence text)
+	    throws IOException,EXCEPT;
+
+	/**
+	 * Runs the parser on input held in memory, reading it in place, with custom input labeling.
+	 * @param text Contains the text to parse; it must not change while it is being parsed.
+	 * @param inputName The label attached to the text (filename or similar).
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a parse error occurs.
+	 */
+	public ROOT parse(CharSequence text,String inputName)
+	    throws IOException,EXCEPT;
+}
@@ -0,0 +1,169 @@
+package edu.umn.cs.melt.copper.runtime.engines;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A thread-safe source of parse sessions for one Copper parser, keeping
+ * a bounded pool of idle sessions for reuse. The factory itself implements
+ * {@link CopperParser}, so it may be shared by any number of threads and
+ * called as if it were a parser; each call borrows a session from the pool
+ * for the length of the parse.
+ * <p>
+ * Each generated single-DFA parser class has static methods
+ * <code>newCopperParserFactory()</code> and <code>newCopperParserFactory(int poolSize)</code>
+ * returning a factory for that class; these names are reserved, and must not
+ * be declared in a parser's class auxiliary code.
+ * @param <ROOT> The type of the root of a parse tree produced by the parser.
+ * @param <EXCEPT> The type of the syntax-error exceptions thrown by the parser.
+ */
+public abstract class CopperParserFactory<ROOT,EXCEPT extends Exception> implements CopperParser<ROOT,EXCEPT>
+{
+	private final BlockingQueue<CopperParseSession<ROOT,EXCEPT>> idleSessions;
+	
+	/**
+	 * Creates a factory pooling up to one idle session per available processor.
+	 */
+	public CopperParserFactory()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a factory with a custom pool size.
+	 * @param poolSize The maximum number of idle sessions to keep; sessions released beyond this are discarded.
+	 */
+	public CopperParserFactory(int poolSize)
+	{
+		if(poolSize < 1) throw new IllegalArgumentException("Pool size must be positive");
+		idleSessions = new ArrayBlockingQueue<CopperParseSession<ROOT,EXCEPT>>(poolSize);
+	}
+	
+	/**
+	 * Creates a factory whose sessions are new instances of a given parser class.
+	 * @param <ROOT> The type of the root of a parse tree produced by the parser.
+	 * @param <EXCEPT> The type of the syntax-error exceptions thrown by the parser.
+	 * @param parserClass The parser class, which must have a public no-argument constructor.
+	 * @param poolSize The maximum number of idle sessions to keep.
+	 * @return The factory.
+	 */
+	public static <ROOT,EXCEPT extends Exception> CopperParserFactory<ROOT,EXCEPT> forClass(Class<? extends CopperParseSession<ROOT,EXCEPT>> parserClass,int poolSize)
+	{
+		final Constructor<? extends CopperParseSession<ROOT,EXCEPT>> constructor;
+		try
+		{
+			constructor = parserClass.getConstructor();
+		}
+		catch(NoSuchMethodException ex)
+		{
+			throw new IllegalArgumentException("Parser class " + parserClass.getName() + " has no public no-argument constructor",ex);
+		}
+		return new CopperParserFactory<ROOT,EXCEPT>(poolSize)
+		{
+			@Override
+			protected CopperParseSession<ROOT,EXCEPT> newSession()
+			{
+				try
+				{
+					return constructor.newInstance();
+				}
+				catch(ReflectiveOperationException ex)
+				{
+					throw new IllegalStateException("Could not instantiate parser class " + constructor.getDeclaringClass().getName(),ex);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Creates a new session. Called when the pool has no idle session to lend.
+	 * @return The new session.
+	 */
+	protected abstract CopperParseSession<ROOT,EXCEPT> newSession();
+	
+	/**
+	 * Borrows a session, taking an idle one from the pool if there is one.
+	 * It should be handed back with {@link #release(CopperParseSession)} when
+	 * the caller is done with it.
+	 * @return The session.
+	 */
+	public CopperParseSession<ROOT,EXCEPT> acquire()
+	{
+		CopperParseSession<ROOT,EXCEPT> session = idleSessions.poll();
+		if(session == null) session = newSession();
+		return session;
+	}
+	
+	/**
+	 * Resets a borrowed session and returns it to the pool, or discards it if the pool is full.
+	 * @param session The session to return.
+	 */
+	public void release(CopperParseSession<ROOT,EXCEPT> session)
+	{
+		session.reset();
+		idleSessions.offer(session);
+	}
+	
+	@Override
+	public ROOT parse(Reader input)
+	throws IOException,EXCEPT
+	{
+		CopperParseSession<ROOT,EXCEPT> session = acquire();
+		try { return session.parse(input); }
+		finally { release(session); }
+	}
+	
+	@Override
+	public ROOT parse(String text)
+	throws IOException,EXCEPT
+	{
+		CopperParseSession<ROOT,EXCEPT> session = acquire();
+		try { return session.parse(text); }
+		finally { release(session); }
+	}
+	
+	@Override
+	public ROOT parse(Reader input,String inputName)
+	throws IOException,EXCEPT
+	{
+		CopperParseSession<ROOT,EXCEPT> session = acquire();
+		try { return session.parse(input,inputName); }
+		finally { release(session); }
+	}
+	
+	@Override
+	public ROOT parse(String text,String inputName)
+	throws IOException,EXCEPT
+	{
+		CopperParseSession<ROOT,EXCEPT> session = acquire();
+		try { return session.parse(text,inputName); }
+		finally { release(session); }
+	}
+	
+	/**
+	 * Runs a session on input held in memory, reading it in place, with default input labeling.
+	 * @see CopperParseSession#parse(CharSequence)
+	 */
+	public ROOT parse(CharSequence text)
+	throws IOException,EXCEPT
+	{
+		CopperParseSession<ROOT,EXCEPT> session = acquire();
+		try { return session.parse(text); }
+		finally { release(session); }
+	}
+	
+	/**
+	 * Runs a session on input held in memory, reading it in place, with custom input labeling.
+	 * @see CopperParseSession#parse(CharSequence, String)
+	 */
+	public ROOT parse(CharSequence text,String inputName)
+	throws IOException,EXCEPT
+	{
+		CopperParseSession<ROOT,EXCEPT> session = acquire();
+		try { return session.parse(text,inputName); }
+		finally { release(session); }
+	}
+}
@@ -1,7 +1,25 @@
 package edu.umn.cs.melt.copper.runtime.engines;
 
+import java.io.IOException;
+
+/**
+ * This is an interface for Copper scanners that can be run apart from a parse,
+ * returning one token at a time.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ * @param <STATE> The type of the parser state that gives the scanner its context.
+ * @param <TOKEN> The type of the tokens returned.
+ * @param <EXCEPT> The type of the syntax-error exceptions thrown by the scanner.
+ */
 public interface CopperScanner<STATE,TOKEN,EXCEPT extends Exception>
 {
+	/**
+	 * Scans the next token in a given parser state.
+	 * @param state The parser state, including the position at which to scan.
+	 * @return The token matched.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a lexical error occurs.
+	 */
 	public TOKEN pullToken(STATE state)
-	throws EXCEPT;
+	throws IOException,EXCEPT;
 }
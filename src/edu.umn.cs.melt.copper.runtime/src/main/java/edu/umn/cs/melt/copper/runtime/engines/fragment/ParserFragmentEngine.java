@@ -2,7 +2,6 @@ package edu.umn.cs.melt.copper.runtime.engines.fragment;
 
 import edu.umn.cs.melt.copper.runtime.auxiliary.internal.PrettyPrinter;
 import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAEngine;
-import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAParseStackNode;
 import edu.umn.cs.melt.copper.runtime.engines.single.scanner.SingleDFAMatchData;
 import edu.umn.cs.melt.copper.runtime.io.InputPosition;
 import edu.umn.cs.melt.copper.runtime.io.ScannerBuffer;
@@ -59,6 +58,9 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
     public abstract int getPARSER_START_STATENUM();
     public abstract int getEOF_SYMNUM();
     public abstract int[][] getParseTable();
+    public int getParseTableAction(int state, int symbol) {
+        return getParseTable()[state][symbol];
+    }
     public abstract int[] getProductionLHSs();
     public abstract BitSet[] getDisambiguationGroups();
     protected abstract Object runSemanticAction(InputPosition _pos, Object[] _children, int _prod) throws IOException,EXCEPT;
@@ -174,49 +176,50 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
         //else lastMatchFromQueue = false;
         int currentState = params.startState;
         char symbol = '\0';
-        InputPosition p;
-        BitSet shiftableS = (BitSet) shiftable.clone();
-        BitSet present = newBitVec(params.terminalCount);
-        InputPosition presentPos = whence;
-        for(p = InputPosition.copy(whence);;p = InputPosition.advance(p,symbol))
+        long start = whence.getPos();
+        long p;
+        BitSet shiftableS = scanShiftable;
+        shiftableS.clear();
+        shiftableS.or(shiftable);
+        BitSet present = scanPresent;
+        present.clear();
+        long presentPos = start;
+        for(p = start;;p++)
         {
-            BitSet tP = (BitSet) params.possibleSets[currentState].clone();
-            tP.and(shiftableS);
-            if(p.equals(whence) && shiftableS.get(params.eofSymNum)) tP.set(params.eofSymNum);
-            if(tP.isEmpty()) break;
-            shiftableS.and(tP);
-            BitSet tA = (BitSet) params.acceptSets[currentState].clone();
-            tA.and(shiftableS);
-            if(!tA.isEmpty())
+            boolean eofPossible = p == start && shiftableS.get(params.eofSymNum);
+            if(!eofPossible && !params.possibleSets[currentState].intersects(shiftableS)) break;
+            shiftableS.and(params.possibleSets[currentState]);
+            if(eofPossible) shiftableS.set(params.eofSymNum);
+            if(params.acceptSets[currentState].intersects(shiftableS))
             {
-                present = tA;
-                presentPos = InputPosition.copy(p);
+                present.clear();
+                present.or(params.acceptSets[currentState]);
+                present.and(shiftableS);
+                presentPos = p;
             }
-            else
+            else if(params.rejectSets[currentState].intersects(shiftableS))
             {
-                BitSet tR = (BitSet) params.rejectSets[currentState].clone();
-                tR.and(shiftableS);
-                if(!tR.isEmpty())
-                {
-                    present.clear();
-                    presentPos = whence;
-                }
+                present.clear();
+                presentPos = start;
             }
-            symbol = charBuffer.charAt(p.getPos());
+            symbol = charBuffer.charAt(p);
             if(symbol == ScannerBuffer.EOFIndicator)
             {
                 break;
             }
             currentState = transition(params.fragmentId, currentState, symbol);
         }
+        BitSet terms = newBitVec(params.terminalCount);
+        terms.or(present);
         if(symbol == ScannerBuffer.EOFIndicator &&
-                p.equals(whence) &&
+                p == start &&
                 shiftableS.get(params.eofSymNum))
         {
-            present.set(params.eofSymNum);
-            return new SingleDFAMatchData(present,whence,p,"",layouts);
+            terms.set(params.eofSymNum);
+            return new SingleDFAMatchData(terms,whence,whence,"",layouts);
         }
-        else return new SingleDFAMatchData(present,whence,presentPos,charBuffer.readStringFromBuffer(whence.getPos(),presentPos.getPos()),layouts);
+        InputPosition followingPos = (presentPos == start) ? whence : charBuffer.getPosition(whence.getFileName(),presentPos);
+        return newMatchData(terms,whence,followingPos,start,presentPos,layouts);
     }
 
     protected SingleDFAMatchData parameterizedMaybeDisjointScan(
@@ -243,7 +246,7 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
             else whence = currentState.pos;
         }
         else whence = currentState.pos;
-        charBuffer.advanceBufferTo(whence.getPos());
+        advanceBuffer();
         if(!runDisjoint && whence.equals(lastPosition) && lastAction != STATE_SHIFT)
         {
             if(lastMatchFromQueue)
@@ -287,7 +290,7 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
                 // DEBUG-BEGIN
                 //System.err.println("Ambiguity: " + bitVecToString(params.fragmentId, finalMatches.terms) + "; runDisjoint = " + runDisjoint);
                 // DEBUG-END
-                if(finalMatches.terms.get(params.eofSymNum) && finalMatches.lexeme.isEmpty())
+                if(finalMatches.terms.get(params.eofSymNum) && finalMatches.getLexemeLength() == 0)
                 {
                     finalMatches.terms.clear();
                     finalMatches.terms.set(params.eofSymNum);
@@ -300,12 +303,12 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
                     if(disambiguatedTerm == -1)
                     {
                         int firstActionIndex = finalMatches.firstTerm;
-                        int action = getParseTable()[currentState.statenum][firstActionIndex];
+                        int action = getParseTableAction(currentState.statenum,firstActionIndex);
                         if(actionType(action) == STATE_REDUCE) disambiguatedTerm = firstActionIndex;
 
                         for(int j = finalMatches.terms.nextSetBit(firstActionIndex + 1);j >= 0;j = finalMatches.terms.nextSetBit(j + 1))
                         {
-                            if(action != getParseTable()[currentState.statenum][j])
+                            if(action != getParseTableAction(currentState.statenum,j))
                             {
                                 disambiguatedTerm = -1;
                                 break;
@@ -363,8 +366,8 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
                     // DEBUG-X-BEGIN
                     // System.err.println("Layout match");
                     // DEBUG-X-END
-                    whence = InputPosition.advance(whence,finalMatches.lexeme.length(),finalMatches.lexeme);
-                    if(finalMatches.lexeme.length() == 0)
+                    whence = finalMatches.followingPos;
+                    if(finalMatches.getLexemeLength() == 0)
                     {
                         //System.err.println("Empty layout match");
                         if(layouts.isEmpty())
@@ -386,7 +389,7 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
                     // DEBUG-X-END
                     layouts.add(finalMatches);
                     shiftable = params.prefixMaps[currentState.statenum][finalMatches.firstTerm];
-                    whence = InputPosition.advance(whence,finalMatches.lexeme.length(),finalMatches.lexeme);
+                    whence = finalMatches.followingPos;
                     break;
                 default:
                     reportError(formatError("Cannot determine whether terminal is layout, prefix, or shiftable --- bug in scanner"));
@@ -398,11 +401,11 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
 
     protected static class MarkingTerminalMatchData extends SingleDFAMatchData {
         public MarkingTerminalMatchData(SingleDFAMatchData data) {
-            super(data.terms, data.precedingPos, data.followingPos, data.lexeme, data.layouts);
+            super(data);
         }
     }
 
-    protected SingleDFAMatchData multiLayoutScan(int fragmentId) throws IOException,EXCEPT {
+    protected SingleDFAMatchData multiLayoutScan(int fragmentId, boolean runActions) throws IOException,EXCEPT {
         // assumes fragmentId is an extension id (> 0)
 
         // marking terminals take precedence
@@ -418,14 +421,16 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
         if (extScanResult.terms.isEmpty()) {
             disjointMatch = parameterizedLayoutScan(true, extScanResult, extParams);
             for (SingleDFAMatchData layout : extScanResult.layouts) {
-                runFragmentSemanticAction(fragmentId, layout.precedingPos, layout);
-                virtualLocation.defaultUpdateAutomatic(layout.lexeme);
+                if (runActions) runFragmentSemanticAction(fragmentId, layout.precedingPos, layout);
+                layout.defaultUpdate(virtualLocation);
             }
-			parseStack.push(new SingleDFAParseStackNode(currentState.statenum, extScanResult.followingPos, null));
-			currentState = parseStack.peek();
+            currentState.pos = extScanResult.followingPos;
+            virtualLocation.resolve();
+            if(parseListener != null) parseListener.syntaxError(currentState.statenum);
+            reportingSyntaxError = true;
             reportSyntaxError(fragmentId);
-			parseStack.pop();
-			currentState = parseStack.peek();
+            reportingSyntaxError = false;
+            peekCurrentState();
         } else if (extScanResult.terms.cardinality() > 1) {
             throw new RuntimeException("Ambiguous match: " + bitVecToDisplayStringList(fragmentId, extScanResult.terms)); // Should not happen.
         }
@@ -437,6 +442,8 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
     protected void startEngine(InputPosition initialPos) throws IOException, EXCEPT {
         super.startEngine(initialPos);
 
+        // The scanner parameters only refer to the shared tables, so a session builds them once.
+        if (fragmentScanners != null) return;
         fragmentScanners = new ScannerParams[getFragmentCount()];
         for (int fragmentId = 0; fragmentId < getFragmentCount(); fragmentId++) {
             ScannerParams fragmentScannerParams = new ScannerParams();
@@ -458,13 +465,28 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
     }
 
     @Override
-    protected Object runEngine() throws IOException,EXCEPT {
+    protected Object runParser() throws IOException,EXCEPT {
+        return runFragments(true);
+    }
+
+    @Override
+    protected void runRecognizer() throws IOException,EXCEPT {
+        runFragments(false);
+    }
+
+    /**
+     * Runs the parser over the input.
+     * @param runActions If <code>false</code>, no semantic actions other than
+     * disambiguation functions are run and <code>null</code> is returned.
+     * @return The synthesized attribute of the root node of the input's derivative parse tree.
+     */
+    private Object runFragments(boolean runActions) throws IOException,EXCEPT {
         while(true)
         {
             // DEBUG-X-BEGIN
             //System.err.println(parseStack);
             // DEBUG-X-END
-            currentState = parseStack.peek();
+            peekCurrentState();
             int fragmentId = stateToFragmentId(currentState.statenum);
             if (fragmentId == 0) {
                 // Because scanner fragment 0 is for marking terminals
@@ -472,34 +494,35 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
                 fragmentId = 1;
             }
 
-            SingleDFAMatchData scanResult = multiLayoutScan(fragmentId);
+            SingleDFAMatchData scanResult = multiLayoutScan(fragmentId, runActions);
             // DEBUG-X-BEGIN
             //System.err.println(bitVecToString(fragmentId, scanResult.terms));
             // DEBUG-X-END
             boolean isMarkingTerminal = scanResult instanceof MarkingTerminalMatchData;
             int symbol = scanResult.firstTerm + (isMarkingTerminal ? getMarkingTerminalOffset() : 0);
             int terminalSemanticActionFragmentId = isMarkingTerminal ? 0 : fragmentId;
-            int action = getParseTable()[currentState.statenum][symbol];
+            int action = getParseTableAction(currentState.statenum,symbol);
             Object synthAttr;
             switch(actionType(action))
             {
                 case STATE_ACCEPT:
                     for(SingleDFAMatchData layout : scanResult.layouts)
                     {
-                        runFragmentSemanticAction(terminalSemanticActionFragmentId, layout.precedingPos, layout);
-                        virtualLocation.defaultUpdateAutomatic(layout.lexeme);
+                        if(runActions) runFragmentSemanticAction(terminalSemanticActionFragmentId, layout.precedingPos, layout);
+                        layout.defaultUpdate(virtualLocation);
                     }
-                    return parseStack.peek().synthAttr;
+                    return parseStack.peekValue();
                 case STATE_SHIFT:
                     int nextState = actionIndex(action);
                     for(SingleDFAMatchData layout : scanResult.layouts)
                     {
-                        runFragmentSemanticAction(terminalSemanticActionFragmentId, layout.precedingPos, layout);
-                        virtualLocation.defaultUpdateAutomatic(layout.lexeme);
+                        if(runActions) runFragmentSemanticAction(terminalSemanticActionFragmentId, layout.precedingPos, layout);
+                        layout.defaultUpdate(virtualLocation);
                     }
-                    synthAttr = runFragmentSemanticAction(terminalSemanticActionFragmentId, scanResult.precedingPos, scanResult);
-                    virtualLocation.defaultUpdateAutomatic(scanResult.lexeme);
-                    parseStack.push(new SingleDFAParseStackNode(nextState,scanResult.followingPos,synthAttr));
+                    synthAttr = runActions ? runFragmentSemanticAction(terminalSemanticActionFragmentId, scanResult.precedingPos, scanResult) : null;
+                    scanResult.defaultUpdate(virtualLocation);
+                    parseStack.push(nextState,scanResult.followingPos,synthAttr);
+                    if(parseListener != null) parseListener.shifted(symbol,parseStack.size());
                     // DEBUG-X-BEGIN
                     //System.err.println("shift(" + nextState + ")");
                     // DEBUG-X-END
@@ -508,14 +531,13 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
                     int production = actionIndex(action);
                     int productionLength = actionIndex(getProductionLengths()[production]);
                     int productionLHS = actionIndex(getProductionLHSs()[production]);
-                    Object[] children = new Object[productionLength];
-                    for(int i = productionLength - 1;i >= 0;i--)
-                    {
-                        children[i] = parseStack.pop().synthAttr;
-                    }
-                    int gotoState = actionIndex(getParseTable()[parseStack.peek().statenum][productionLHS]);
-                    synthAttr = runSemanticAction(currentState.pos, children, production);
-                    parseStack.push(new SingleDFAParseStackNode(gotoState,currentState.pos,synthAttr));
+                    parseStack.pop(productionLength);
+                    int childrenOffset = parseStack.size();
+                    int gotoState = actionIndex(getParseTableAction(parseStack.peekState(),productionLHS));
+                    synthAttr = runActions ? runSemanticAction(currentState.pos, parseStack.getValues(), childrenOffset, productionLength, production) : null;
+                    parseStack.push(gotoState,currentState.pos,synthAttr);
+                    parseStack.releaseValues(childrenOffset + productionLength);
+                    if(parseListener != null) parseListener.reduced(production,parseStack.size());
                     // DEBUG-X-BEGIN
                     //System.err.println("reduce(" + production + "); goto(" + gotoState + ")");
                     // DEBUG-X-END
@@ -525,7 +547,11 @@ public abstract class ParserFragmentEngine<ROOT, EXCEPT extends Exception> exten
                     //System.err.println(bitVecToString(fragmentId, scanResult.terms));
                     // DEBUG-X-END
                     disjointMatch = scanResult;
+                    virtualLocation.resolve();
+                    if(parseListener != null) parseListener.syntaxError(currentState.statenum);
+                    reportingSyntaxError = true;
                     reportSyntaxError(fragmentId);
+                    reportingSyntaxError = false;
             }
             lastAction = actionType(action);
         }
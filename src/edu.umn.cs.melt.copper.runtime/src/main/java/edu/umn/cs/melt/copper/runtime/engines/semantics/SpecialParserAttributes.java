@@ -22,6 +22,17 @@ public class SpecialParserAttributes
 		latchLocation = false;
 	}
 	
+	/**
+	 * Resets all attributes before a semantic action, so that one
+	 * instance may serve every action of a parse.
+	 * @param currentVirtualLocation The virtual location to which the action applies.
+	 */
+	public void reset(VirtualLocation currentVirtualLocation)
+	{
+		virtualLocation = currentVirtualLocation;
+		latchLocation = false;
+	}
+	
 	/** Resets per-terminal attributes. */
 	public void resetSpecialAttributes()
 	{
@@ -39,6 +50,8 @@ public class SpecialParserAttributes
 		return !attrName.equals("_pos") &&
 		       !attrName.equals("_parseTree") &&
 		       !attrName.equals("_prod") &&
+		       !attrName.equals("_children") &&
+		       !attrName.equals("_childrenOffset") &&
 		       !attrName.equals("_reporter") &&
 		       !attrName.equals("_positionFollowing") &&
 		       !attrName.equals("_terminal") &&
@@ -1,13 +1,21 @@
 package edu.umn.cs.melt.copper.runtime.engines.semantics;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
 import edu.umn.cs.melt.copper.runtime.auxiliary.Pair;
 import edu.umn.cs.melt.copper.runtime.io.Location;
+import edu.umn.cs.melt.copper.runtime.io.ScannerBuffer;
 
 
 /**
  * Holds a "virtual" location -- a location that may not represent
  * a "real" location in an input file (e.g., a location specified in
  * C preprocessor tags).
+ * <p>
+ * Automatic updates past input still in a scanner buffer are only
+ * recorded, and applied when the line, column or string representation
+ * is next asked for, or by {@link #resolve()}.
  * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
  */
 public class VirtualLocation implements Location
@@ -17,7 +25,11 @@ public class VirtualLocation implements Location
 	 */
 	private static final long serialVersionUID = -4262577268165715268L;
 	private boolean isModified;
+	/** The string representation, or <code>null</code> if it must be generated again. */
 	private String hash;
+	/** The buffer holding the input passed by automatic updates not yet applied, or <code>null</code> if there are none. */
+	private transient ScannerBuffer pendingBuffer;
+	private transient long pendingBegin,pendingEnd;
 	
 	/** The character width of a tab in this context; defaults to 8. */
 	protected int tabStop;
@@ -41,17 +53,18 @@ public class VirtualLocation implements Location
 		this.fileName = fileName;
 		this.line = line;
 		this.column = column;
-		generateHash();
+		hash = null;
 	}
 	
 	public VirtualLocation(VirtualLocation original)
 	{
+		original.resolvePending();
 		isModified = false;
 		tabStop = original.tabStop;
 		line = original.line;
 		column = original.column;
 		fileName = original.fileName;
-		generateHash();
+		hash = null;
 	}
 	
 	/**
@@ -59,6 +72,7 @@ public class VirtualLocation implements Location
 	 */
 	public int getColumn()
 	{
+		resolvePending();
 		return column;
 	}
 
@@ -67,7 +81,8 @@ public class VirtualLocation implements Location
 	 */
 	public void setColumn(int column)
 	{
-		if(this.column != column) isModified = true;
+		resolvePending();
+		if(this.column != column) markModified();
 		this.column = column;
 	}
 
@@ -84,7 +99,8 @@ public class VirtualLocation implements Location
 	 */
 	public void setFileName(String fileName)
 	{
-		if(!this.fileName.equals(fileName)) isModified = true;
+		resolvePending();
+		if(!this.fileName.equals(fileName)) markModified();
 		this.fileName = fileName;
 	}
 
@@ -93,6 +109,7 @@ public class VirtualLocation implements Location
 	 */
 	public int getLine()
 	{
+		resolvePending();
 		return line;
 	}
 
@@ -101,7 +118,8 @@ public class VirtualLocation implements Location
 	 */
 	public void setLine(int line)
 	{
-		if(this.line != line) isModified = true;
+		resolvePending();
+		if(this.line != line) markModified();
 		this.line = line;
 	}
 	
@@ -124,16 +142,28 @@ public class VirtualLocation implements Location
 	 */
 	public void setTabStop(int tabStop)
 	{
+		resolvePending();
 		this.tabStop = tabStop;
 	}
 
+	/**
+	 * Marks this location modified, keeping the string representation
+	 * of its unmodified state until it is next generated.
+	 */
+	private void markModified()
+	{
+		if(hash == null) generateHash();
+		isModified = true;
+	}
+
 	/**
 	 * Generates and returns a string representation of the location.
 	 * @return The string representation of the location, in the format <code>[filename]:[line].[column]</code>.
 	 */
 	public String getHash()
 	{
-		if(isModified) generateHash();
+		resolvePending();
+		if(hash == null || isModified) generateHash();
 		return hash;
 	}
 
@@ -152,6 +182,7 @@ public class VirtualLocation implements Location
 		// DEBUG-X-BEGIN
 		//System.err.println("Default-updating on " + fileName + ":" + line + "." + column + ", formerly " + hash + ", lexeme \"" + lexeme + "\": is " + (isModified ? "" : "NOT ") + "modified");
 		// DEBUG-X-END
+		resolvePending();
 		if(!isAutomatic) isModified = true;
 		else if(isModified)
 		{
@@ -162,7 +193,7 @@ public class VirtualLocation implements Location
     	line += nlCount.first();
     	if(nlCount.second() == -1) column += lexeme.length();
     	else column = nlCount.second();
-    	generateHash();
+    	hash = null;
     	// DEBUG-X-BEGIN
     	//System.err.println("Modification occurred");
     	// DEBUG-X-END		
@@ -179,6 +210,94 @@ public class VirtualLocation implements Location
 		defaultUpdate(lexeme,true);
 	}
 
+	/**
+	 * Performs an automatic "default update" past a lexeme still held
+	 * in a scanner buffer. The update is only recorded, to be applied
+	 * when next needed; the lexeme must stay in the buffer until then,
+	 * or until {@link #resolve()} is called.
+	 * @see #defaultUpdateAutomatic(String)
+	 * @param buffer The buffer holding the lexeme.
+	 * @param begin The position of the lexeme's first character.
+	 * @param end The position one past the lexeme's last character.
+	 */
+	public void defaultUpdateAutomatic(ScannerBuffer buffer,long begin,long end)
+	throws IOException
+	{
+		if(isModified)
+		{
+			isModified = false;
+			return;
+		}
+		// Lexemes are nearly always passed one after another.
+		if(buffer == pendingBuffer && begin == pendingEnd)
+		{
+			pendingEnd = end;
+			return;
+		}
+		resolve();
+		pendingBuffer = buffer;
+		pendingBegin = begin;
+		pendingEnd = end;
+	}
+
+	/**
+	 * Applies the automatic updates recorded but not yet applied, reading
+	 * the input they passed over from its scanner buffer. This must be
+	 * called before the buffer discards that input.
+	 */
+	public void resolve()
+	throws IOException
+	{
+		if(pendingBuffer == null) return;
+		ScannerBuffer buffer = pendingBuffer;
+		long begin = pendingBegin,end = pendingEnd;
+		pendingBuffer = null;
+		boolean utf8 = buffer.isUtf8();
+		for(long pos = begin;pos < end;pos++)
+		{
+			char ch = buffer.charAt(pos);
+			if(ch == '\n')
+			{
+				line++;
+				column = 0;
+			}
+			else if(ch == '\t') column += tabStop - (column % tabStop);
+			else if(utf8) column += ScannerBuffer.utf8Width(ch);
+			else column++;
+		}
+		hash = null;
+	}
+
+	/**
+	 * @param buffer A scanner buffer.
+	 * @return The position of the first character of input held in <code>buffer</code>
+	 * that automatic updates not yet applied have passed, or -1 if there is none.
+	 */
+	public long getPendingBegin(ScannerBuffer buffer)
+	{
+		return buffer == pendingBuffer ? pendingBegin : -1;
+	}
+
+	private void resolvePending()
+	{
+		if(pendingBuffer == null) return;
+		try
+		{
+			resolve();
+		}
+		catch(IOException ex)
+		{
+			throw new IllegalStateException("Could not read input passed over by a virtual location",ex);
+		}
+	}
+
+	private void writeObject(ObjectOutputStream out)
+	throws IOException
+	{
+		resolve();
+		out.defaultWriteObject();
+	}
+
 	/**
 	 * Performs a "default update" -- i.e., moves this virtual location
 	 * past a given lexeme. For example, a virtual location starting at
@@ -204,6 +323,7 @@ public class VirtualLocation implements Location
 	@Override
 	public int compareTo(Location l)
 	{
+		resolvePending();
 		int fileNameCompare = fileName.compareTo(l.getFileName());
 		if(fileNameCompare != 0) return fileNameCompare;
 		int lineCompare = Integer.signum(line - l.getLine());
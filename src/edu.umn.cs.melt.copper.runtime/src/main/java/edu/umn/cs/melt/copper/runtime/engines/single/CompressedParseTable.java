@@ -0,0 +1,239 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableReader;
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableWriter;
+
+/**
+ * A parse table packed by row displacement. Each parser state has a default
+ * action, taken on any symbol in a given set (in generated parsers, the
+ * state's shiftable set) with no entry of its own; every other entry that is
+ * not an error is kept in a single array shared by all states, each state's
+ * entries starting at its own offset, with a parallel array recording which
+ * state owns each slot.
+ * <p>
+ * A lookup is exact for every state and symbol: entries differing from the
+ * default, including errors on symbols in the default set, are kept
+ * explicitly.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public final class CompressedParseTable implements Serializable
+{
+	private static final long serialVersionUID = -3722307466618253906L;
+
+	private final int symbolCount;
+	/** The offset of each state's entries. */
+	private final int[] base;
+	/** The state owning each slot, or -1 if it is unused. */
+	private final int[] check;
+	/** The action in each slot. */
+	private final int[] next;
+	/** The default action of each state. */
+	private final int[] defaults;
+	/** The symbols on which each state's default action is taken. */
+	private final BitSet[] defaultSymbols;
+
+	private CompressedParseTable(int symbolCount,int[] base,int[] check,int[] next,int[] defaults,BitSet[] defaultSymbols)
+	{
+		this.symbolCount = symbolCount;
+		this.base = base;
+		this.check = check;
+		this.next = next;
+		this.defaults = defaults;
+		this.defaultSymbols = defaultSymbols;
+	}
+
+	/**
+	 * Looks up an entry in the table.
+	 * @param state The parser state.
+	 * @param symbol The grammar symbol.
+	 * @return The parse action.
+	 */
+	public int getAction(int state,int symbol)
+	{
+		int i = base[state] + symbol;
+		if(check[i] == state) return next[i];
+		return defaultSymbols[state].get(symbol) ? defaults[state] : SingleDFAEngine.STATE_ERROR;
+	}
+
+	/**
+	 * @return The table in uncompressed form.
+	 */
+	public int[][] expand()
+	{
+		int[][] rv = new int[base.length][symbolCount];
+		for(int state = 0;state < base.length;state++)
+		{
+			for(int symbol = 0;symbol < symbolCount;symbol++) rv[state][symbol] = getAction(state,symbol);
+		}
+		return rv;
+	}
+
+	/**
+	 * @return The number of slots in the shared array of entries.
+	 */
+	public int getSlotCount()
+	{
+		return next.length;
+	}
+
+	/**
+	 * Writes this table in binary form.
+	 * @see #read(TableReader)
+	 */
+	public void write(TableWriter out)
+	throws IOException
+	{
+		out.writeInt(symbolCount);
+		out.writeIntArray(base);
+		out.writeIntArray(check);
+		out.writeIntArray(next);
+		out.writeIntArray(defaults);
+		out.writeBitSetArray(defaultSymbols);
+	}
+
+	/**
+	 * Reads a table written by {@link #write(TableWriter)}.
+	 */
+	public static CompressedParseTable read(TableReader in)
+	{
+		int symbolCount = in.readInt();
+		int[] base = in.readIntArray();
+		int[] check = in.readIntArray();
+		int[] next = in.readIntArray();
+		int[] defaults = in.readIntArray();
+		return new CompressedParseTable(symbolCount,base,check,next,defaults,in.readBitSetArray());
+	}
+
+	/**
+	 * Compresses a parse table.
+	 * @param table The table, one row per parser state, all rows of equal length.
+	 * @param defaultSymbols For each state, the symbols on which a default action may be taken;
+	 *                       <code>null</code> to use no default actions.
+	 * @return The compressed table.
+	 */
+	public static CompressedParseTable compress(int[][] table,BitSet[] defaultSymbols)
+	{
+		final int stateCount = table.length;
+		int symbolCount = (stateCount == 0) ? 0 : table[0].length;
+		if(defaultSymbols == null)
+		{
+			defaultSymbols = new BitSet[stateCount];
+			for(int state = 0;state < stateCount;state++) defaultSymbols[state] = new BitSet();
+		}
+
+		// Choose each state's default action, the most common non-error action on its default symbols,
+		// and list the symbols whose entries must be kept explicitly.
+		int[] defaults = new int[stateCount];
+		final int[][] explicit = new int[stateCount][];
+		for(int state = 0;state < stateCount;state++)
+		{
+			int[] row = table[state];
+			BitSet rowDefaults = defaultSymbols[state];
+			int[] candidates = new int[rowDefaults.cardinality()];
+			int candidateCount = 0;
+			for(int symbol = rowDefaults.nextSetBit(0);symbol >= 0;symbol = rowDefaults.nextSetBit(symbol+1))
+			{
+				if(row[symbol] != SingleDFAEngine.STATE_ERROR) candidates[candidateCount++] = row[symbol];
+			}
+			Arrays.sort(candidates,0,candidateCount);
+			int bestRun = 0;
+			for(int i = 0,j;i < candidateCount;i = j)
+			{
+				for(j = i;j < candidateCount && candidates[j] == candidates[i];j++);
+				if(j - i > bestRun)
+				{
+					bestRun = j - i;
+					defaults[state] = candidates[i];
+				}
+			}
+
+			int[] symbols = new int[symbolCount];
+			int explicitCount = 0;
+			for(int symbol = 0;symbol < symbolCount;symbol++)
+			{
+				int fallback = rowDefaults.get(symbol) ? defaults[state] : SingleDFAEngine.STATE_ERROR;
+				if(row[symbol] != fallback) symbols[explicitCount++] = symbol;
+			}
+			explicit[state] = Arrays.copyOf(symbols,explicitCount);
+		}
+
+		// Place the densest rows first, each at the lowest offset where its entries fit.
+		ArrayList<Integer> order = new ArrayList<Integer>(stateCount);
+		for(int state = 0;state < stateCount;state++) order.add(state);
+		Collections.sort(order,new Comparator<Integer>()
+		{
+			public int compare(Integer a,Integer b)
+			{
+				return explicit[b].length - explicit[a].length;
+			}
+		});
+
+		int[] base = new int[stateCount];
+		int[] check = new int[Math.max(16,symbolCount * 2)];
+		Arrays.fill(check,-1);
+		int[] next = new int[check.length];
+		int firstFree = 0;
+		int length = symbolCount;
+		for(int state : order)
+		{
+			int[] symbols = explicit[state];
+			if(symbols.length == 0) continue;
+			int offset = Math.max(0,firstFree - symbols[0]);
+			for(;;offset++)
+			{
+				int needed = offset + symbols[symbols.length - 1] + 1;
+				if(needed > check.length)
+				{
+					int oldLength = check.length;
+					int newLength = Math.max(needed,oldLength * 2);
+					check = Arrays.copyOf(check,newLength);
+					Arrays.fill(check,oldLength,newLength,-1);
+					next = Arrays.copyOf(next,newLength);
+				}
+				boolean fits = true;
+				for(int symbol : symbols)
+				{
+					if(check[offset + symbol] != -1)
+					{
+						fits = false;
+						break;
+					}
+				}
+				if(fits) break;
+			}
+			base[state] = offset;
+			for(int symbol : symbols)
+			{
+				check[offset + symbol] = state;
+				next[offset + symbol] = table[state][symbol];
+			}
+			while(firstFree < check.length && check[firstFree] != -1) firstFree++;
+			length = Math.max(length,offset + symbolCount);
+		}
+
+		// Every lookup of a state's row must stay in bounds.
+		if(length > check.length)
+		{
+			int oldLength = check.length;
+			check = Arrays.copyOf(check,length);
+			Arrays.fill(check,oldLength,length,-1);
+			next = Arrays.copyOf(next,length);
+		}
+		else
+		{
+			check = Arrays.copyOf(check,length);
+			next = Arrays.copyOf(next,length);
+		}
+
+		return new CompressedParseTable(symbolCount,base,check,next,defaults,defaultSymbols);
+	}
+}
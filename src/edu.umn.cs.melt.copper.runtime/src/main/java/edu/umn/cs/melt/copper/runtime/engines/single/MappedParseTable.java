@@ -0,0 +1,73 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableReader;
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableWriter;
+
+/**
+ * A parse table read in place from a table file (see
+ * {@link TableReader#open(Class,String)}), its rows laid end to end,
+ * rather than copied onto the heap.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public final class MappedParseTable
+{
+	private final int symbolCount;
+	private final IntBuffer entries;
+
+	private MappedParseTable(int symbolCount,IntBuffer entries)
+	{
+		this.symbolCount = symbolCount;
+		this.entries = entries;
+	}
+
+	/**
+	 * Looks up an entry in the table.
+	 * @param state The parser state.
+	 * @param symbol The grammar symbol.
+	 * @return The parse action.
+	 */
+	public int getAction(int state,int symbol)
+	{
+		return entries.get(state * symbolCount + symbol);
+	}
+
+	/**
+	 * @return The table copied onto the heap.
+	 */
+	public int[][] expand()
+	{
+		int[][] rv = new int[entries.limit() / Math.max(1,symbolCount)][symbolCount];
+		for(int state = 0;state < rv.length;state++)
+		{
+			for(int symbol = 0;symbol < symbolCount;symbol++) rv[state][symbol] = getAction(state,symbol);
+		}
+		return rv;
+	}
+
+	/**
+	 * Writes a parse table in the form read by {@link #read(TableReader)}.
+	 * @param table The table, one row per parser state, all rows of equal length.
+	 */
+	public static void write(TableWriter out,int[][] table)
+	throws IOException
+	{
+		int symbolCount = (table.length == 0) ? 0 : table[0].length;
+		int[] entries = new int[table.length * symbolCount];
+		for(int state = 0;state < table.length;state++) System.arraycopy(table[state],0,entries,state * symbolCount,symbolCount);
+		out.writeInt(symbolCount);
+		out.writeIntArray(entries);
+	}
+
+	/**
+	 * Reads a table written by {@link #write(TableWriter,int[][])}, as a view of the reader's buffer.
+	 */
+	public static MappedParseTable read(TableReader in)
+	{
+		int symbolCount = in.readInt();
+		return new MappedParseTable(symbolCount,in.readIntArrayView());
+	}
+}
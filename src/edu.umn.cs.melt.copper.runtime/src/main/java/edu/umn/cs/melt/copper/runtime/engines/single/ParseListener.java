@@ -0,0 +1,78 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import edu.umn.cs.melt.copper.runtime.io.InputPosition;
+
+/**
+ * Receives notice of the steps a {@link SingleDFAEngine} takes in a parse.
+ * An engine with no listener set makes no calls and does no timing.
+ * @see SingleDFAEngine#setParseListener(ParseListener)
+ * @see ParseStatistics
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public interface ParseListener
+{
+	/**
+	 * Called when a parse begins.
+	 * @param initialPos The position of the start of the input.
+	 */
+	public void parseStarted(InputPosition initialPos);
+
+	/**
+	 * Called each time the scanner DFA is run.
+	 * @param start The position at which the run began.
+	 * @param charactersExamined The number of characters the DFA read.
+	 */
+	public void scanned(long start,int charactersExamined);
+
+	/**
+	 * Called for each layout or prefix token passed over, whether or not a match is kept for it.
+	 * @param terminal The terminal matched.
+	 */
+	public void layoutMatched(int terminal);
+
+	/**
+	 * Called when a token is shifted.
+	 * @param terminal The terminal shifted.
+	 * @param stackDepth The depth of the parse stack after the shift.
+	 */
+	public void shifted(int terminal,int stackDepth);
+
+	/**
+	 * Called when a production is reduced.
+	 * @param production The production reduced.
+	 * @param stackDepth The depth of the parse stack after the reduction.
+	 */
+	public void reduced(int production,int stackDepth);
+
+	/**
+	 * Called when the input is rescanned against every terminal, after a scan found no valid token.
+	 */
+	public void disjointScanned();
+
+	/**
+	 * Called before a syntax error is reported.
+	 * @param parserState The parser state in which no valid token could be scanned.
+	 */
+	public void syntaxError(int parserState);
+
+	/**
+	 * Called after a disambiguation function or group is run.
+	 * @param result The terminal chosen, or -1 if none was.
+	 */
+	public void disambiguationRun(int result);
+
+	/**
+	 * Called after a semantic action is run.
+	 * @param symbol The terminal or production whose action was run.
+	 * @param nanos The time the action took, in nanoseconds.
+	 */
+	public void semanticActionRun(int symbol,long nanos);
+
+	/**
+	 * Called when a parse ends.
+	 * @param accepted <code>true</code> if the input was accepted,
+	 * <code>false</code> if the parse ended with an exception.
+	 */
+	public void parseEnded(boolean accepted);
+}
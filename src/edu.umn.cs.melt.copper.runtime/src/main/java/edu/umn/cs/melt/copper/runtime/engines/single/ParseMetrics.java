@@ -0,0 +1,313 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.StripedCounters;
+import edu.umn.cs.melt.copper.runtime.io.InputPosition;
+
+/**
+ * Metrics aggregated over every parse run by any number of parser
+ * instances at once, and exported over JMX. Each engine reports to the
+ * metrics through a listener of its own (see {@link #newListener()}),
+ * which keeps the counts for the parse under way and adds them to the
+ * shared counts when it ends; the shared counts are striped, so that
+ * concurrent parses seldom contend for them.
+ * <p>
+ * Latencies and stack depths are kept in histograms whose buckets are a
+ * quarter of a power of two wide, so percentiles are exact to within 25%.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public class ParseMetrics implements ParseMetricsMXBean
+{
+	private static final ConcurrentHashMap<String,ParseMetrics> registered = new ConcurrentHashMap<String,ParseMetrics>();
+
+	/**
+	 * Returns the metrics of a parser class, creating them and registering
+	 * them with the platform MBean server the first time they are asked for.
+	 * @param parserClass The parser class.
+	 * @return The metrics shared by every instance of <code>parserClass</code>.
+	 */
+	public static ParseMetrics forParser(Class<?> parserClass)
+	{
+		String name = parserClass.getName();
+		ParseMetrics rv = registered.get(name);
+		if(rv != null) return rv;
+		ParseMetrics created = new ParseMetrics(name);
+		rv = registered.putIfAbsent(name,created);
+		if(rv != null) return rv;
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(created,created.getObjectName());
+		}
+		catch(InstanceAlreadyExistsException ex)
+		{
+			// The same parser class loaded by another class loader has registered first.
+		}
+		catch(JMException ex)
+		{
+			throw new IllegalStateException("Could not register parse metrics for " + name,ex);
+		}
+		return created;
+	}
+
+	private static final int PARSES = 0;
+	private static final int FAILED_PARSES = 1;
+	private static final int CHARACTERS = 2;
+	private static final int TOKENS = 3;
+	private static final int SCANS = 4;
+	private static final int DISJOINT_SCANS = 5;
+	private static final int PARSE_NANOS = 6;
+	private static final int SEMANTIC_NANOS = 7;
+	private static final int MAX_LATENCY = 8;
+	private static final int MAX_STACK_DEPTH = 9;
+	private static final int BUCKETS = 248;
+	private static final int LATENCY_HISTOGRAM = 10;
+	private static final int STACK_DEPTH_HISTOGRAM = LATENCY_HISTOGRAM + BUCKETS;
+	private static final int COUNTER_COUNT = STACK_DEPTH_HISTOGRAM + BUCKETS;
+
+	private final String parserName;
+	private final StripedCounters counters;
+	private final ConcurrentHashMap<Integer,AtomicLong> syntaxErrorsByState;
+
+	/**
+	 * Creates metrics that are not registered over JMX.
+	 * @param parserName The name under which the metrics are reported.
+	 */
+	public ParseMetrics(String parserName)
+	{
+		this.parserName = parserName;
+		this.counters = new StripedCounters(COUNTER_COUNT);
+		this.syntaxErrorsByState = new ConcurrentHashMap<Integer,AtomicLong>();
+	}
+
+	/**
+	 * @return The name under which these metrics are registered over JMX.
+	 */
+	public ObjectName getObjectName()
+	throws JMException
+	{
+		return new ObjectName("edu.umn.cs.melt.copper:type=ParseMetrics,name=" + ObjectName.quote(parserName));
+	}
+
+	/**
+	 * @return A listener through which one engine at a time may report its parses to these metrics.
+	 * @see SingleDFAEngine#setParseListener(ParseListener)
+	 */
+	public ParseListener newListener()
+	{
+		return new Recorder();
+	}
+
+	/**
+	 * The histogram bucket of a value: values below 4 have buckets of their
+	 * own, and each power of two above is split into four buckets.
+	 */
+	private static int bucketOf(long value)
+	{
+		if(value < 4) return (int) Math.max(0,value);
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return 4 + 4 * (exponent - 2) + (int) ((value >>> (exponent - 2)) & 3);
+	}
+
+	/**
+	 * @return The greatest value in a histogram bucket.
+	 */
+	private static long bucketTop(int bucket)
+	{
+		if(bucket < 4) return bucket;
+		int shift = (bucket - 4) / 4;
+		long low = (4L + (bucket - 4) % 4) << shift;
+		return low + (1L << shift) - 1;
+	}
+
+	/**
+	 * @param max The counter of the greatest value recorded, which no percentile exceeds.
+	 */
+	private long percentile(int histogram,int max,double fraction)
+	{
+		long[] buckets = counters.sums(histogram,BUCKETS);
+		long total = 0;
+		for(long count : buckets) total += count;
+		if(total == 0) return 0;
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for(int bucket = 0;bucket < BUCKETS;bucket++)
+		{
+			seen += buckets[bucket];
+			if(seen >= rank) return Math.min(bucketTop(bucket),counters.maxOf(max));
+		}
+		return counters.maxOf(max);
+	}
+
+	private static double toMillis(long nanos)
+	{
+		return nanos / 1000000.0;
+	}
+
+	@Override
+	public String getParserName() { return parserName; }
+	@Override
+	public long getParses() { return counters.sum(PARSES); }
+	@Override
+	public long getFailedParses() { return counters.sum(FAILED_PARSES); }
+	@Override
+	public long getCharacters() { return counters.sum(CHARACTERS); }
+	@Override
+	public long getTokens() { return counters.sum(TOKENS); }
+	@Override
+	public long getScans() { return counters.sum(SCANS); }
+	@Override
+	public long getDisjointScans() { return counters.sum(DISJOINT_SCANS); }
+	@Override
+	public long getParseMillis() { return counters.sum(PARSE_NANOS) / 1000000; }
+	@Override
+	public long getSemanticActionMillis() { return counters.sum(SEMANTIC_NANOS) / 1000000; }
+	@Override
+	public long getScanAndParseMillis() { return (counters.sum(PARSE_NANOS) - counters.sum(SEMANTIC_NANOS)) / 1000000; }
+	@Override
+	public double getLatencyMillis50() { return toMillis(percentile(LATENCY_HISTOGRAM,MAX_LATENCY,0.50)); }
+	@Override
+	public double getLatencyMillis90() { return toMillis(percentile(LATENCY_HISTOGRAM,MAX_LATENCY,0.90)); }
+	@Override
+	public double getLatencyMillis99() { return toMillis(percentile(LATENCY_HISTOGRAM,MAX_LATENCY,0.99)); }
+	@Override
+	public double getMaxLatencyMillis() { return toMillis(counters.maxOf(MAX_LATENCY)); }
+	@Override
+	public long getStackDepth50() { return percentile(STACK_DEPTH_HISTOGRAM,MAX_STACK_DEPTH,0.50); }
+	@Override
+	public long getStackDepth90() { return percentile(STACK_DEPTH_HISTOGRAM,MAX_STACK_DEPTH,0.90); }
+	@Override
+	public long getStackDepth99() { return percentile(STACK_DEPTH_HISTOGRAM,MAX_STACK_DEPTH,0.99); }
+	@Override
+	public long getMaxStackDepth() { return counters.maxOf(MAX_STACK_DEPTH); }
+
+	@Override
+	public double getCharactersPerSecond()
+	{
+		long nanos = counters.sum(PARSE_NANOS);
+		return (nanos == 0) ? 0.0 : counters.sum(CHARACTERS) * 1.0e9 / nanos;
+	}
+
+	@Override
+	public double getMeanLatencyMillis()
+	{
+		long parses = counters.sum(PARSES);
+		return (parses == 0) ? 0.0 : toMillis(counters.sum(PARSE_NANOS)) / parses;
+	}
+
+	@Override
+	public Map<Integer,Long> getSyntaxErrorsByState()
+	{
+		Map<Integer,Long> rv = new TreeMap<Integer,Long>();
+		for(Map.Entry<Integer,AtomicLong> entry : syntaxErrorsByState.entrySet()) rv.put(entry.getKey(),entry.getValue().get());
+		return rv;
+	}
+
+	@Override
+	public void reset()
+	{
+		counters.reset();
+		syntaxErrorsByState.clear();
+	}
+
+	private void syntaxError(int parserState)
+	{
+		AtomicLong count = syntaxErrorsByState.get(parserState);
+		if(count == null)
+		{
+			AtomicLong created = new AtomicLong();
+			count = syntaxErrorsByState.putIfAbsent(parserState,created);
+			if(count == null) count = created;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Counts one parse at a time, adding its counts to the shared ones when it ends.
+	 */
+	private class Recorder implements ParseListener
+	{
+		private long startNanos,semanticNanos;
+		private long startPos,readTo;
+		private long tokens,scans,disjointScans;
+		private int maxStackDepth;
+
+		@Override
+		public void parseStarted(InputPosition initialPos)
+		{
+			startNanos = System.nanoTime();
+			semanticNanos = 0;
+			startPos = readTo = initialPos.getPos();
+			tokens = scans = disjointScans = 0;
+			maxStackDepth = 1;
+		}
+
+		@Override
+		public void scanned(long start,int charactersExamined)
+		{
+			scans++;
+			if(start + charactersExamined > readTo) readTo = start + charactersExamined;
+		}
+
+		@Override
+		public void layoutMatched(int terminal)
+		{
+		}
+
+		@Override
+		public void shifted(int terminal,int stackDepth)
+		{
+			tokens++;
+			if(stackDepth > maxStackDepth) maxStackDepth = stackDepth;
+		}
+
+		@Override
+		public void reduced(int production,int stackDepth)
+		{
+			if(stackDepth > maxStackDepth) maxStackDepth = stackDepth;
+		}
+
+		@Override
+		public void disjointScanned()
+		{
+			disjointScans++;
+		}
+
+		@Override
+		public void syntaxError(int parserState)
+		{
+			ParseMetrics.this.syntaxError(parserState);
+		}
+
+		@Override
+		public void disambiguationRun(int result)
+		{
+		}
+
+		@Override
+		public void semanticActionRun(int symbol,long nanos)
+		{
+			semanticNanos += nanos;
+		}
+
+		@Override
+		public void parseEnded(boolean accepted)
+		{
+			long elapsed = System.nanoTime() - startNanos;
+			counters.add(PARSES,new long[] { 1,accepted ? 0 : 1,readTo - startPos,tokens,scans,disjointScans,elapsed,semanticNanos });
+			counters.add(LATENCY_HISTOGRAM + bucketOf(elapsed),1);
+			counters.add(STACK_DEPTH_HISTOGRAM + bucketOf(maxStackDepth),1);
+			counters.max(MAX_LATENCY,elapsed);
+			counters.max(MAX_STACK_DEPTH,maxStackDepth);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ParseMetrics}.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public interface ParseMetricsMXBean
+{
+	/** @return The name of the parser class whose parses are counted. */
+	public String getParserName();
+	/** @return The number of parses ended. */
+	public long getParses();
+	/** @return The number of parses that ended with an exception. */
+	public long getFailedParses();
+	/** @return The number of syntax errors reported, by the parser state in which each occurred. */
+	public Map<Integer,Long> getSyntaxErrorsByState();
+	/** @return The number of characters parsed. */
+	public long getCharacters();
+	/** @return The number of tokens shifted. */
+	public long getTokens();
+	/** @return The number of runs of the scanner DFA. */
+	public long getScans();
+	/** @return The number of rescans against every terminal after syntax errors. */
+	public long getDisjointScans();
+	/** @return The total time spent parsing, in milliseconds. */
+	public long getParseMillis();
+	/** @return The part of the time spent parsing that was spent in semantic actions, in milliseconds. */
+	public long getSemanticActionMillis();
+	/** @return The part of the time spent parsing that was spent scanning and parsing, outside semantic actions, in milliseconds. */
+	public long getScanAndParseMillis();
+	/** @return The number of characters parsed per second of time spent parsing. */
+	public double getCharactersPerSecond();
+	/** @return The mean time taken by a parse, in milliseconds. */
+	public double getMeanLatencyMillis();
+	/** @return The median time taken by a parse, in milliseconds. */
+	public double getLatencyMillis50();
+	/** @return The 90th percentile of the time taken by a parse, in milliseconds. */
+	public double getLatencyMillis90();
+	/** @return The 99th percentile of the time taken by a parse, in milliseconds. */
+	public double getLatencyMillis99();
+	/** @return The longest time taken by a parse, in milliseconds. */
+	public double getMaxLatencyMillis();
+	/** @return The median of the greatest parse stack depth reached in each parse. */
+	public long getStackDepth50();
+	/** @return The 90th percentile of the greatest parse stack depth reached in each parse. */
+	public long getStackDepth90();
+	/** @return The 99th percentile of the greatest parse stack depth reached in each parse. */
+	public long getStackDepth99();
+	/** @return The greatest parse stack depth reached in any parse. */
+	public long getMaxStackDepth();
+	/** Sets all counts to zero. */
+	public void reset();
+}
@@ -0,0 +1,143 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import edu.umn.cs.melt.copper.runtime.io.InputPosition;
+
+/**
+ * A parse listener that counts the steps taken in parses, totalled over
+ * all parses since it was created or last reset.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public class ParseStatistics implements ParseListener
+{
+	private long parses,parsesAccepted;
+	private long scans,charactersExamined,layoutTokens;
+	private long shifts,reductions;
+	private int maxStackDepth;
+	private long disjointScans,syntaxErrors,disambiguations;
+	private long semanticActions,semanticActionNanos;
+
+	public ParseStatistics()
+	{
+		reset();
+	}
+
+	/**
+	 * Sets all counts to zero.
+	 */
+	public void reset()
+	{
+		parses = parsesAccepted = 0;
+		scans = charactersExamined = layoutTokens = 0;
+		shifts = reductions = 0;
+		maxStackDepth = 0;
+		disjointScans = syntaxErrors = disambiguations = 0;
+		semanticActions = semanticActionNanos = 0;
+	}
+
+	@Override
+	public void parseStarted(InputPosition initialPos)
+	{
+		parses++;
+	}
+
+	@Override
+	public void scanned(long start,int charactersExamined)
+	{
+		scans++;
+		this.charactersExamined += charactersExamined;
+	}
+
+	@Override
+	public void layoutMatched(int terminal)
+	{
+		layoutTokens++;
+	}
+
+	@Override
+	public void shifted(int terminal,int stackDepth)
+	{
+		shifts++;
+		if(stackDepth > maxStackDepth) maxStackDepth = stackDepth;
+	}
+
+	@Override
+	public void reduced(int production,int stackDepth)
+	{
+		reductions++;
+		if(stackDepth > maxStackDepth) maxStackDepth = stackDepth;
+	}
+
+	@Override
+	public void disjointScanned()
+	{
+		disjointScans++;
+	}
+
+	@Override
+	public void syntaxError(int parserState)
+	{
+		syntaxErrors++;
+	}
+
+	@Override
+	public void disambiguationRun(int result)
+	{
+		disambiguations++;
+	}
+
+	@Override
+	public void semanticActionRun(int symbol,long nanos)
+	{
+		semanticActions++;
+		semanticActionNanos += nanos;
+	}
+
+	@Override
+	public void parseEnded(boolean accepted)
+	{
+		if(accepted) parsesAccepted++;
+	}
+
+	/** @return The number of parses begun. */
+	public long getParses() { return parses; }
+	/** @return The number of parses that accepted their input. */
+	public long getParsesAccepted() { return parsesAccepted; }
+	/** @return The number of runs of the scanner DFA. */
+	public long getScans() { return scans; }
+	/** @return The number of characters read by the scanner DFA. */
+	public long getCharactersExamined() { return charactersExamined; }
+	/** @return The number of layout and prefix tokens passed over. */
+	public long getLayoutTokens() { return layoutTokens; }
+	/** @return The number of tokens shifted. */
+	public long getShifts() { return shifts; }
+	/** @return The number of reductions. */
+	public long getReductions() { return reductions; }
+	/** @return The greatest depth the parse stack reached. */
+	public int getMaxStackDepth() { return maxStackDepth; }
+	/** @return The number of rescans against every terminal after syntax errors. */
+	public long getDisjointScans() { return disjointScans; }
+	/** @return The number of syntax errors reported. */
+	public long getSyntaxErrors() { return syntaxErrors; }
+	/** @return The number of disambiguation functions and groups run. */
+	public long getDisambiguations() { return disambiguations; }
+	/** @return The number of semantic actions run. */
+	public long getSemanticActions() { return semanticActions; }
+	/** @return The total time spent in semantic actions, in nanoseconds. */
+	public long getSemanticActionNanos() { return semanticActionNanos; }
+
+	@Override
+	public String toString()
+	{
+		return "Parses: " + parses + " (" + parsesAccepted + " accepted)\n" +
+		       "Scans: " + scans + " (" + charactersExamined + " characters examined)\n" +
+		       "Layout tokens: " + layoutTokens + "\n" +
+		       "Shifts: " + shifts + "\n" +
+		       "Reductions: " + reductions + "\n" +
+		       "Maximum stack depth: " + maxStackDepth + "\n" +
+		       "Disjoint scans: " + disjointScans + "\n" +
+		       "Syntax errors: " + syntaxErrors + "\n" +
+		       "Disambiguations: " + disambiguations + "\n" +
+		       "Semantic actions: " + semanticActions + " (" + (semanticActionNanos / 1000000) + " ms)\n";
+	}
+}
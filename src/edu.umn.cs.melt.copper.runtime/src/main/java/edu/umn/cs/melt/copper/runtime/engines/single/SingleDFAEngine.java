@@ -1,20 +1,30 @@
 package edu.umn.cs.melt.copper.runtime.engines.single;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
-import java.util.Stack;
+import java.util.ListIterator;
 
 import edu.umn.cs.melt.copper.runtime.auxiliary.internal.PrettyPrinter;
-import edu.umn.cs.melt.copper.runtime.engines.CopperParser;
+import edu.umn.cs.melt.copper.runtime.engines.CopperParseSession;
 import edu.umn.cs.melt.copper.runtime.engines.CopperScanner;
 import edu.umn.cs.melt.copper.runtime.engines.semantics.VirtualLocation;
+import edu.umn.cs.melt.copper.runtime.engines.single.scanner.ScannerContextTable;
 import edu.umn.cs.melt.copper.runtime.engines.single.scanner.SingleDFAMatchData;
 import edu.umn.cs.melt.copper.runtime.io.CircleTokenBuffer;
 import edu.umn.cs.melt.copper.runtime.io.InputPosition;
+import edu.umn.cs.melt.copper.runtime.io.PushScannerBuffer;
 import edu.umn.cs.melt.copper.runtime.io.ScannerBuffer;
 
 /**
@@ -25,7 +35,7 @@ import edu.umn.cs.melt.copper.runtime.io.ScannerBuffer;
  * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
  *
  */
-public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements CopperParser<ROOT,EXCEPT>,CopperScanner<SingleDFAParseStackNode,SingleDFAMatchData,EXCEPT>
+public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements CopperParseSession<ROOT,EXCEPT>,CopperScanner<SingleDFAParseStackNode,SingleDFAMatchData,EXCEPT>
 {
 	// Abstraction barriers for bit-mashing. Limit 536,870,912 symbols + productions, states.
 	public static int newSymbol(int symType,int index) { return ((symType & 0x03) << 29) | (index & 0x1FFFFFFF); }
@@ -100,6 +110,17 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 	public abstract int[] getSymbolNumbers();
 	public abstract int[] getProductionLHSs();
 	public abstract int[][] getParseTable();
+	/**
+	 * Looks up an entry in the parse table. Parsers generated with compressed
+	 * tables override this to read them without expanding them.
+	 * @param state The parser state.
+	 * @param symbol The grammar symbol.
+	 * @return The parse action, as built by {@link #newAction(int,int)}.
+	 */
+	public int getParseTableAction(int state,int symbol)
+	{
+		return getParseTable()[state][symbol];
+	}
 	public abstract BitSet[] getShiftableSets();
 	public abstract BitSet[] getLayoutSets();
 	public abstract BitSet[] getPrefixSets();
@@ -130,9 +151,106 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 		throws IOException,EXCEPT;
     protected abstract Object runSemanticAction(InputPosition _pos,Object[] _children,int _prod)
     	throws IOException,EXCEPT;
+	/**
+	 * Runs the semantic action for a reduction whose children occupy a slice of
+	 * the parse stack's value array. Parsers generated by earlier versions of
+	 * Copper do not override this method, so by default the slice is copied
+	 * and passed to {@link #runSemanticAction(InputPosition, Object[], int)}.
+	 * @param _pos The input position at the reduction.
+	 * @param _children The array holding the children's semantic values.
+	 * @param _childrenOffset The index in <code>_children</code> of the first child.
+	 * @param _childCount The number of children.
+	 * @param _prod The production being reduced.
+	 * @return The result of the semantic action.
+	 */
+	protected Object runSemanticAction(InputPosition _pos,Object[] _children,int _childrenOffset,int _childCount,int _prod)
+		throws IOException,EXCEPT
+	{
+		Object[] children = new Object[_childCount];
+		System.arraycopy(_children,_childrenOffset,children,0,_childCount);
+		return runSemanticAction(_pos,children,_prod);
+	}
+
+	/** Arrays reused to hold the children of reductions, indexed by the number of children. */
+	private Object[][] childrenWindows;
+
+	/**
+	 * Copies the children of a reduction out of a slice of the parse stack's
+	 * value array into an array holding exactly those children. One array is
+	 * kept for each number of children, up to the longest right-hand side
+	 * reduced so far, and reused by every reduction with that many; it is
+	 * only valid until the semantic action to which it is passed returns.
+	 * @param _children The array holding the children's semantic values.
+	 * @param _childrenOffset The index in <code>_children</code> of the first child.
+	 * @param _childCount The number of children.
+	 * @return An array of length <code>_childCount</code> holding the children.
+	 */
+	protected Object[] childrenWindow(Object[] _children,int _childrenOffset,int _childCount)
+	{
+		if(childrenWindows == null) childrenWindows = new Object[Math.max(8,_childCount + 1)][];
+		else if(_childCount >= childrenWindows.length) childrenWindows = Arrays.copyOf(childrenWindows,Math.max(childrenWindows.length * 2,_childCount + 1));
+		Object[] window = childrenWindows[_childCount];
+		if(window == null) window = childrenWindows[_childCount] = new Object[_childCount];
+		System.arraycopy(_children,_childrenOffset,window,0,_childCount);
+		return window;
+	}
 	protected abstract Object runSemanticAction(InputPosition _pos,SingleDFAMatchData _terminal)
 		throws IOException,EXCEPT;
+	/**
+	 * Returns the terminals with no semantic action, which need not be
+	 * matched one by one when they are layout. Parsers generated by earlier
+	 * versions of Copper do not override this method, so by default none is.
+	 * @return The silent terminals, or <code>null</code> if there are none.
+	 */
+	protected BitSet getSilentTerminals()
+	{
+		return null;
+	}
+	/**
+	 * Returns the scan class of each parser state. States in the same class
+	 * have the same shiftable, layout and prefix sets and prefix maps, so
+	 * they scan any input alike. Parsers generated by earlier versions of
+	 * Copper do not override this method.
+	 * @return The class of each state, or <code>null</code> if not known.
+	 */
+	protected int[] getScanClasses()
+	{
+		return null;
+	}
+	/**
+	 * Returns the scanner DFA specialized to each parser state's shiftable
+	 * set, if the parser was generated with one.
+	 * @return The specialized actions, or <code>null</code> to filter the
+	 * accept, reject and possible sets by the shiftable set while scanning.
+	 */
+	protected ScannerContextTable getScannerContexts()
+	{
+		return null;
+	}
+	/**
+	 * Tells whether this parser reads the lexemes of matches only through
+	 * {@link SingleDFAMatchData#getLexeme()}, so that the scanner may leave
+	 * them in the buffer until they are asked for. Parsers generated by
+	 * earlier versions of Copper read the <code>lexeme</code> field directly,
+	 * so by default every lexeme is read as soon as it is matched.
+	 */
+	protected boolean usesLazyLexemes()
+	{
+		return false;
+	}
 	
+	/**
+	 * Tells whether the scanner reads the UTF-8 bytes of the input rather
+	 * than its characters; its tables are then over byte values, and input
+	 * positions are byte offsets. By default, returns <code>false</code>.
+	 */
+	protected boolean scansUtf8()
+	{
+		return false;
+	}
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	public void runPostParseCode(Object __root)
 	throws IOException,EXCEPT
 	{
@@ -160,20 +278,470 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 	public ROOT parse(String text,String inputName)
 	    throws IOException,EXCEPT
 	{
-		StringReader reader = new StringReader(text);
-		return parse(reader,inputName);
+		return parse((CharSequence) text,inputName);
 	}
-	
+
 	@Override
-	public SingleDFAMatchData pullToken(SingleDFAParseStackNode currentState)
-	throws EXCEPT
+	public ROOT parse(CharSequence text)
+	throws IOException,EXCEPT
 	{
-		return null;
+		return parse(text,"<StringBuffer>");
+	}
+
+	@Override
+	public ROOT parse(CharSequence text,String inputName)
+	throws IOException,EXCEPT
+	{
+		return parse(scansUtf8() ? ScannerBuffer.instantiateUtf8(text) : ScannerBuffer.instantiate(text),inputName);
 	}
 
+	/**
+	 * Runs the parser on UTF-8 bytes held in memory. A parser whose scanner
+	 * reads bytes (see {@link #scansUtf8()}) reads them in place; any
+	 * other decodes them first.
+	 * @param text The bytes, from the buffer's position to its limit; they must not change while they are being parsed.
+	 * @param inputName The label attached to the text (filename or similar).
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a parse error occurs.
+	 */
+	public ROOT parse(ByteBuffer text,String inputName)
+	throws IOException,EXCEPT
+	{
+		if(scansUtf8()) return parse(ScannerBuffer.instantiateUtf8(text.duplicate()),inputName);
+		else return parse(UTF_8.decode(text.duplicate()),inputName);
+	}
 
+	/**
+	 * Runs the parser on a slice of a character array, reading it in place.
+	 * @param text The array holding the text to parse; it must not change while it is being parsed.
+	 * @param offset The index of the first character of the text.
+	 * @param length The length of the text.
+	 * @param inputName The label attached to the text (filename or similar).
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a parse error occurs.
+	 */
+	public ROOT parse(char[] text,int offset,int length,String inputName)
+	throws IOException,EXCEPT
+	{
+		if(scansUtf8()) return parse(ScannerBuffer.instantiateUtf8(CharBuffer.wrap(text,offset,length)),inputName);
+		return parse(ScannerBuffer.instantiate(text,offset,length),inputName);
+	}
+
+	/**
+	 * Runs the parser on a file, reading it through a memory mapping instead of a reader.
+	 * @param file The file to parse, whose name is also used to label the input.
+	 * @param charset The character set in which the file is encoded.
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a parse error occurs.
+	 */
+	public ROOT parse(Path file,Charset charset)
+	throws IOException,EXCEPT
+	{
+		if(!scansUtf8()) return parse(ScannerBuffer.instantiate(file,charset),file.toString());
+		// ASCII is a subset of UTF-8; other encodings are decoded and encoded again as they are scanned.
+		if(charset.equals(UTF_8) || charset.name().equals("US-ASCII")) return parse(ScannerBuffer.instantiateUtf8(file),file.toString());
+		Reader reader = new InputStreamReader(Files.newInputStream(file),charset);
+		try
+		{
+			return parse(ScannerBuffer.instantiateUtf8(reader),file.toString());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Runs the parser on input held in a given scanner buffer.
+	 * @param input The scanner buffer.
+	 * @param inputName The label attached to the input (filename or similar).
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 */
+	@SuppressWarnings("unchecked")
+	protected ROOT parse(ScannerBuffer input,String inputName)
+	throws IOException,EXCEPT
+	{
+		charBuffer = input;
+		setupEngine();
+		startEngine(InputPosition.initialPos(inputName));
+		return (ROOT) runEngine();
+	}
+
+	/**
+	 * Checks whether an input is in the parser's language without parsing
+	 * it: the scanner and the LR automaton run as in a parse, but no
+	 * semantic action other than disambiguation functions is run and no
+	 * lexeme is read. The virtual location is only kept as a range of
+	 * input passed, read again if a syntax error is reported or the
+	 * buffer discards input, so that syntax errors are reported as they
+	 * would be by a parse.
+	 * <p>
+	 * Input that a parse accepts only through its semantic actions, such as
+	 * tokens pushed by terminal actions, may not be recognized.
+	 * @param input The reader from which to read the input.
+	 * @param inputName The label attached to the reader's data (filename or similar).
+	 * @return The exception with which the syntax error that stopped recognition
+	 * was reported, or <code>null</code> if the input was recognized.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a disambiguation function throws it.
+	 */
+	public EXCEPT recognize(Reader input,String inputName)
+	throws IOException,EXCEPT
+	{
+		return recognize(scansUtf8() ? ScannerBuffer.instantiateUtf8(input) : ScannerBuffer.instantiate(input),inputName);
+	}
+
+	/**
+	 * Checks whether a text is in the parser's language without parsing it.
+	 * @param text The text.
+	 * @param inputName The label attached to the text (filename or similar).
+	 * @return The exception with which the syntax error that stopped recognition was reported, or <code>null</code> if the text was recognized.
+	 * @see #recognize(Reader, String)
+	 */
+	public EXCEPT recognize(CharSequence text,String inputName)
+	throws IOException,EXCEPT
+	{
+		return recognize(scansUtf8() ? ScannerBuffer.instantiateUtf8(text) : ScannerBuffer.instantiate(text),inputName);
+	}
+
+	/**
+	 * Checks whether a file is in the parser's language without parsing it,
+	 * reading it through a memory mapping.
+	 * @param file The file, whose name is also used to label the input.
+	 * @param charset The character set in which the file is encoded.
+	 * @return The exception with which the syntax error that stopped recognition was reported, or <code>null</code> if the file was recognized.
+	 * @see #recognize(Reader, String)
+	 */
+	public EXCEPT recognize(Path file,Charset charset)
+	throws IOException,EXCEPT
+	{
+		if(!scansUtf8()) return recognize(ScannerBuffer.instantiate(file,charset),file.toString());
+		if(charset.equals(UTF_8) || charset.name().equals("US-ASCII")) return recognize(ScannerBuffer.instantiateUtf8(file),file.toString());
+		Reader reader = new InputStreamReader(Files.newInputStream(file),charset);
+		try
+		{
+			return recognize(ScannerBuffer.instantiateUtf8(reader),file.toString());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Recognizes input held in a given scanner buffer.
+	 * @param input The scanner buffer.
+	 * @param inputName The label attached to the input (filename or similar).
+	 * @return The exception with which the syntax error that stopped recognition was reported, or <code>null</code> if the input was recognized.
+	 */
+	protected EXCEPT recognize(ScannerBuffer input,String inputName)
+	throws IOException,EXCEPT
+	{
+		charBuffer = input;
+		setupEngine();
+		startEngine(InputPosition.initialPos(inputName));
+		boolean accepted = false;
+		try
+		{
+			runRecognizer();
+			accepted = true;
+			return null;
+		}
+		catch(Exception ex)
+		{
+			// Anything other than the report of a syntax error, such as an
+			// EXCEPT thrown by a disambiguation function, is passed on.
+			if(!reportingSyntaxError) throw ex;
+			@SuppressWarnings("unchecked")
+			EXCEPT error = (EXCEPT) ex;
+			return error;
+		}
+		finally
+		{
+			if(parseListener != null) parseListener.parseEnded(accepted);
+		}
+	}
+
+	/**
+	 * Starts a parse whose input is pushed to the parser in chunks by
+	 * {@link #feed(CharBuffer)}, rather than pulled from a reader, so
+	 * that no thread is blocked waiting for input. Each chunk is parsed
+	 * as far as it can be when it is fed; where the scanner needs a
+	 * character not yet fed, the parse is suspended until the next chunk.
+	 * @param inputName The label attached to the input (filename or similar).
+	 */
+	public void startPush(String inputName)
+	throws IOException,EXCEPT
+	{
+		startPush(new PushScannerBuffer(null,scansUtf8()),inputName);
+	}
+
+	/**
+	 * Starts a parse whose input is pushed to the parser in chunks, as
+	 * {@link #startPush(String)} does, allowing the chunks to be bytes
+	 * fed by {@link #feed(ByteBuffer)}.
+	 * @param inputName The label attached to the input (filename or similar).
+	 * @param charset The character set in which bytes fed are encoded.
+	 */
+	public void startPush(String inputName,Charset charset)
+	throws IOException,EXCEPT
+	{
+		startPush(new PushScannerBuffer(charset,scansUtf8()),inputName);
+	}
+
+	private void startPush(PushScannerBuffer input,String inputName)
+	throws IOException,EXCEPT
+	{
+		charBuffer = input;
+		setupEngine();
+		startEngine(InputPosition.initialPos(inputName));
+		pushBuffer = input;
+		pushedScans = new ArrayList<ScanCheckpoint>();
+	}
+
+	/**
+	 * Feeds a chunk of characters to a parse started by {@link #startPush(String)},
+	 * and parses as far as it can.
+	 * @param chunk The characters; the buffer's position is moved to its limit.
+	 * @throws EXCEPT If a parse error occurs, ending the parse.
+	 */
+	public void feed(CharBuffer chunk)
+	throws IOException,EXCEPT
+	{
+		pushBuffer().append(chunk);
+		resumePush();
+	}
 
-	protected Stack<SingleDFAParseStackNode> parseStack;
+	/**
+	 * Feeds a chunk of bytes to a parse started by {@link #startPush(String, Charset)},
+	 * and parses as far as it can. A character split between chunks is
+	 * scanned once the chunk completing it is fed.
+	 * @param chunk The bytes; the buffer's position is moved to its limit.
+	 * @throws EXCEPT If a parse error occurs, ending the parse.
+	 */
+	public void feed(ByteBuffer chunk)
+	throws IOException,EXCEPT
+	{
+		pushBuffer().append(chunk);
+		resumePush();
+	}
+
+	/**
+	 * Ends the input of a parse started by {@link #startPush(String)}, and finishes the parse.
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 * @throws EXCEPT If a parse error occurs.
+	 */
+	@SuppressWarnings("unchecked")
+	public ROOT endOfInput()
+	throws IOException,EXCEPT
+	{
+		pushBuffer().endOfInput();
+		return (ROOT) resumePush();
+	}
+
+	private PushScannerBuffer pushBuffer()
+	{
+		if(pushBuffer == null) throw new IllegalStateException("No pushed parse is under way");
+		return pushBuffer;
+	}
+
+	/**
+	 * Runs a pushed parse until it ends or needs input not yet fed. The parse
+	 * stack, and the tokens already shifted, are kept while it is suspended.
+	 * When more is fed, the scan that was suspended goes on from the scanner
+	 * state and position at which it stopped, and scans already finished from
+	 * the same position are not run again (see {@link #pushedScans}).
+	 */
+	private Object resumePush()
+	throws IOException,EXCEPT
+	{
+		boolean suspended = false,accepted = false;
+		try
+		{
+			Object rv = runParser();
+			accepted = true;
+			return rv;
+		}
+		catch(PushScannerBuffer.MoreInputNeeded ex)
+		{
+			suspended = true;
+			// The suspended scan left no match to be reused.
+			lastPosition = null;
+			return null;
+		}
+		finally
+		{
+			if(!suspended)
+			{
+				pushBuffer = null;
+				pushedScans = null;
+				if(parseListener != null) parseListener.parseEnded(accepted);
+			}
+		}
+	}
+	
+	/**
+	 * Scans one token, with layout and prefixes, in the context of a
+	 * caller-supplied parser state. No semantic actions are run other
+	 * than disambiguation functions. The input must first be opened with
+	 * {@link #startTokenStream(Reader, String)}. Unless the input is held
+	 * whole in memory, the scan may not start before input the scanner
+	 * buffer has already discarded, and it discards none that the token
+	 * stream has yet to read.
+	 * @param state The parser state; its position is where the scan starts.
+	 * @return The match; its <code>terms</code> set is empty if no valid token was found.
+	 * @throws IllegalArgumentException If the state's position has been discarded from the buffer.
+	 * @throws IllegalStateException If no input has been opened.
+	 */
+	@Override
+	public SingleDFAMatchData pullToken(SingleDFAParseStackNode state)
+	throws IOException,EXCEPT
+	{
+		if(charBuffer == null || currentState == null) throw new IllegalStateException("No token stream has been opened");
+		if(state == null || state.pos == null) throw new IllegalArgumentException("The parser state must have a position");
+		if(state.statenum < 0 || state.statenum >= getShiftableSets().length) throw new IllegalArgumentException("No parser state " + state.statenum);
+		if(!charBuffer.keepsAllInput() && state.pos.getPos() < bufferBegin) throw new IllegalArgumentException("Position " + state.pos.getPos() + " has already been discarded from the scanner buffer, which begins at " + bufferBegin);
+		SingleDFAParseStackNode parseState = currentState;
+		currentState = state;
+		lastPosition = null;
+		pullKeepFrom = bufferBegin;
+		try
+		{
+			return readLexemes(layoutScan(false,null));
+		}
+		finally
+		{
+			currentState = parseState;
+			lastPosition = null;
+			pullKeepFrom = -1;
+		}
+	}
+	
+	/**
+	 * Reads the lexemes of a match and its layout, which are handed to a
+	 * caller that may ask for them after the buffer has moved past them.
+	 */
+	private SingleDFAMatchData readLexemes(SingleDFAMatchData match)
+	throws IOException
+	{
+		match.readLexemes();
+		return match;
+	}
+	
+	/**
+	 * Opens an input to be read a token at a time by {@link #nextToken()}
+	 * or {@link #pullToken(SingleDFAParseStackNode)}.
+	 * @param input The reader from which to read the input.
+	 * @param inputName The label attached to the reader's data (filename or similar).
+	 */
+	public void startTokenStream(Reader input,String inputName)
+	throws IOException,EXCEPT
+	{
+		startTokenStream(scansUtf8() ? ScannerBuffer.instantiateUtf8(input) : ScannerBuffer.instantiate(input),inputName);
+	}
+	
+	/**
+	 * Opens an input to be read a token at a time, as {@link #startTokenStream(Reader, String)}
+	 * does, but from a point reached by an earlier token stream over a
+	 * version of the input identical up to that point.
+	 * @param text The input, which must not change while it is being read.
+	 * @param inputName The label attached to the input (filename or similar).
+	 * @param pos The position at which the next scan starts.
+	 * @param states The parser states on the parse stack at that point, bottom first.
+	 * @param location The virtual location at that point; it is copied.
+	 * @param readTo The furthest position read by the scanner before that point.
+	 * @see #getStackStates()
+	 * @see #getScanReadTo()
+	 */
+	public void resumeTokenStream(CharSequence text,String inputName,long pos,int[] states,VirtualLocation location,long readTo)
+	throws IOException,EXCEPT
+	{
+		startTokenStream(scansUtf8() ? ScannerBuffer.instantiateUtf8(text) : ScannerBuffer.instantiate(text),inputName);
+		parseStack.clear();
+		InputPosition startPos = charBuffer.getPosition(inputName,pos);
+		for(int state : states) parseStack.push(state,startPos,null);
+		virtualLocation = new VirtualLocation(location);
+		scanReadTo = readTo;
+	}
+	
+	private void startTokenStream(ScannerBuffer input,String inputName)
+	throws IOException,EXCEPT
+	{
+		charBuffer = input;
+		setupEngine();
+		startEngine(InputPosition.initialPos(inputName));
+		tokenStreamEnded = false;
+		// Tokens are handed out with all their layout.
+		skipSilentLayouts = false;
+	}
+	
+	/**
+	 * Returns the next token of the input opened by {@link #startTokenStream(Reader, String)}.
+	 * The parse is driven to pick each token's scanning context, but
+	 * builds no semantic values and runs no semantic actions other than
+	 * disambiguation functions. The layout and prefixes preceding each
+	 * token are in its <code>layouts</code> list.
+	 * @return The next token; the end-of-input token once, and <code>null</code> after it.
+	 * @throws EXCEPT If a syntax error occurs.
+	 */
+	public SingleDFAMatchData nextToken()
+	throws IOException,EXCEPT
+	{
+		if(tokenStreamEnded) return null;
+		return (SingleDFAMatchData) runLR(RUN_TOKENS);
+	}
+	
+	/**
+	 * @return <code>true</code> once {@link #nextToken()} has returned the end-of-input token.
+	 */
+	public boolean isTokenStreamEnded()
+	{
+		return tokenStreamEnded;
+	}
+	
+	/**
+	 * @return The parser states on the parse stack, bottom first.
+	 */
+	public int[] getStackStates()
+	{
+		int[] states = new int[parseStack.size()];
+		for(int i = 0;i < states.length;i++) states[i] = parseStack.getState(i);
+		return states;
+	}
+	
+	/**
+	 * @return The furthest input position the scanner has read.
+	 */
+	public long getScanReadTo()
+	{
+		return scanReadTo;
+	}
+	
+	/**
+	 * @return The virtual location, moved past the input passed so far.
+	 */
+	public VirtualLocation getVirtualLocation()
+	{
+		return virtualLocation;
+	}
+	
+	/**
+	 * Called before each parse; by default, does nothing.
+	 */
+	public void setupEngine()
+	{
+	}
+
+
+	/**
+	 * The LR parse stack. Up to Copper 1.0 this was a
+	 * <code>java.util.Stack&lt;SingleDFAParseStackNode&gt;</code>; subclasses
+	 * that used it as such must now use the methods of {@link SingleDFAParseStack}.
+	 */
+	protected SingleDFAParseStack parseStack;
 	protected VirtualLocation virtualLocation;
 	
 	protected SingleDFAParseStackNode currentState;
@@ -184,19 +752,165 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
     protected CircleTokenBuffer<SingleDFAMatchData> tokenBuffer;
     
     protected BitSet lastShiftable;
+    /** The scan class of the state in which <code>lastMatched</code> was last scanned or reused. */
+    protected int lastScanClass;
     protected InputPosition lastPosition;
     protected SingleDFAMatchData lastMatched;
     protected boolean functionalDisambiguationUsed;
     protected boolean lastMatchFromQueue;
+    protected boolean tokenStreamEnded;
     protected int lastAction;
     
     protected SingleDFAMatchData disjointMatch;
+    /** <code>true</code> while a syntax error is being reported, so that what it throws is known to be the report. */
+    protected boolean reportingSyntaxError;
+    
+    /** Scratch sets reused by every call to <code>simpleScan</code>. */
+    protected BitSet scanShiftable,scanPresent;
+    /** Set by <code>runScanner</code> if the scan matched the end of input. */
+    protected boolean scanEOFMatched;
+    /**
+     * If <code>true</code>, matches of silent layout are neither built nor kept;
+     * the virtual location is moved past them from the positions of the matches that are.
+     * @see #getSilentTerminals()
+     */
+    protected boolean skipSilentLayouts;
+    /** The most input kept in the buffer for the virtual location to read later. */
+    protected static final int MAX_PENDING_INPUT = 4096;
+    /** The layout list of a match preceded by no layout or prefixes that were kept; it cannot be added to. */
+    protected static final LinkedList<SingleDFAMatchData> NO_LAYOUTS = new EmptyLayoutList();
+    
+    /**
+     * An empty list that cannot be modified, to be shared by every match
+     * with no layout. It is a <code>LinkedList</code> because that is the
+     * type of {@link SingleDFAMatchData#layouts}.
+     */
+    private static final class EmptyLayoutList extends LinkedList<SingleDFAMatchData>
+    {
+        private static final long serialVersionUID = 2630841627502356317L;
+
+        @Override public boolean add(SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public void add(int index,SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public boolean addAll(Collection<? extends SingleDFAMatchData> c) { throw new UnsupportedOperationException(); }
+        @Override public boolean addAll(int index,Collection<? extends SingleDFAMatchData> c) { throw new UnsupportedOperationException(); }
+        @Override public void addFirst(SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public void addLast(SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public boolean offer(SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public boolean offerFirst(SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public boolean offerLast(SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public void push(SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public SingleDFAMatchData set(int index,SingleDFAMatchData e) { throw new UnsupportedOperationException(); }
+        @Override public ListIterator<SingleDFAMatchData> listIterator(int index) { return Collections.<SingleDFAMatchData>emptyList().listIterator(index); }
+    }
+    
+    /** The furthest input position the scanner has read. */
+    protected long scanReadTo;
+    /** The position to which the scanner buffer was last advanced; input before it may have been discarded. */
+    private long bufferBegin;
+    /** While a token is pulled out of turn, the position before which the buffer may not be advanced; otherwise -1. */
+    private long pullKeepFrom = -1;
+    /** The listener notified of each step of the parse, or <code>null</code> if none is. */
+    protected ParseListener parseListener;
+
+    /** The input of a pushed parse under way, or <code>null</code> if there is none. */
+    private PushScannerBuffer pushBuffer;
+    /**
+     * In a pushed parse, the scans run from the present parser position onward,
+     * finished or suspended for want of input; otherwise <code>null</code>.
+     */
+    private ArrayList<ScanCheckpoint> pushedScans;
+
+    /**
+     * A scan in a pushed parse: its result once it has finished, and until
+     * then, the scanner DFA's state and position when it was suspended.
+     */
+    private static final class ScanCheckpoint
+    {
+        final long start;
+        final BitSet shiftable;
+        /** The actions of the scanner context used, or <code>null</code> if none was. */
+        final int[] actions;
+        boolean suspended,finished,eofMatched;
+        int dfaState;
+        long pos;
+        /** For a scan without a context, the terminals still possible. */
+        BitSet possible;
+        /** The terminals of the longest match so far, as a set or as a context's match set. */
+        BitSet present;
+        int presentAction;
+        long presentPos;
+
+        ScanCheckpoint(long start,BitSet shiftable,int[] actions)
+        {
+            this.start = start;
+            this.shiftable = (BitSet) shiftable.clone();
+            this.actions = actions;
+        }
+    }
+    
+    /**
+     * Sets a listener to be notified of each step of every parse this engine runs.
+     * @param parseListener The listener, or <code>null</code> to stop notifying one.
+     */
+    public void setParseListener(ParseListener parseListener)
+    {
+    	this.parseListener = parseListener;
+    }
+    
+    public ParseListener getParseListener()
+    {
+    	return parseListener;
+    }
+    
+    /**
+     * Reports every parse this engine runs to the metrics shared by all
+     * instances of its class and exported over JMX, in place of any other listener.
+     * @see ParseMetrics#forParser(Class)
+     */
+    public void enableMetrics()
+    {
+    	setParseListener(ParseMetrics.forParser(getClass()).newListener());
+    }
     
     protected abstract String formatError(String error);
 
     protected abstract void reportError(String error) throws EXCEPT;
+    /**
+     * Reports a syntax error at the current state. The virtual location has
+     * read all the input it passed, as the error may outlive the buffer.
+     */
     protected abstract void reportSyntaxError() throws EXCEPT;
     
+	/**
+	 * Advances the buffer to the current position. Input the virtual location
+	 * has passed but not yet read is kept in the buffer, unless there is more
+	 * than {@link #MAX_PENDING_INPUT} characters of it, when it is read now.
+	 * A disjoint scan keeps the layout of the failed one, which is read after it.
+	 */
+	protected void advanceBuffer()
+	throws IOException
+	{
+		long keepFrom = currentState.pos.getPos();
+		if(!charBuffer.keepsAllInput())
+		{
+			// A token pulled out of turn leaves the buffer where the token stream had it.
+			if(pullKeepFrom != -1) keepFrom = pullKeepFrom;
+			long pendingBegin = virtualLocation.getPendingBegin(charBuffer);
+			if(pendingBegin != -1 && keepFrom - pendingBegin > MAX_PENDING_INPUT) virtualLocation.resolve();
+			else if(pendingBegin != -1) keepFrom = Math.min(keepFrom,pendingBegin);
+		}
+		charBuffer.advanceBufferTo(keepFrom);
+		bufferBegin = keepFrom;
+		if(pushedScans != null)
+		{
+			// Scans from before the parser's position will not be run again.
+			long scansFrom = currentState.pos.getPos();
+			for(int i = pushedScans.size() - 1;i >= 0;i--)
+			{
+				if(pushedScans.get(i).start < scansFrom) pushedScans.remove(i);
+			}
+		}
+	}
 
 	protected SingleDFAMatchData layoutScan(boolean runDisjoint,SingleDFAMatchData previousResult)
 	throws IOException,EXCEPT
@@ -205,28 +919,42 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 		InputPosition whence;
 		if(runDisjoint)
 		{
-			if(!previousResult.layouts.isEmpty()) whence = previousResult.layouts.getLast().followingPos;
-			else whence = currentState.pos;
+			// The failed match begins after all the layout and prefixes preceding it, kept or not.
+			whence = previousResult.precedingPos;
 		}
 		else whence = currentState.pos;
-		charBuffer.advanceBufferTo(whence.getPos());
+		if(runDisjoint && parseListener != null) parseListener.disjointScanned();
+		advanceBuffer();
+		int[] scanClasses = getScanClasses();
+		int scanClass = (scanClasses == null) ? -1 : scanClasses[currentState.statenum];
 		if(!runDisjoint && whence.equals(lastPosition) && lastAction != STATE_SHIFT)
 		{
 			if(lastMatchFromQueue)
 			{
 				lastShiftable = shiftable;
+				lastScanClass = scanClass;
 				return lastMatched;					
 			}
 			if(lastMatched != null && !functionalDisambiguationUsed)
 			{
-				boolean partiallyDisjoint = false;
-				BitSet diff = new BitSet();
-				diff.or(lastMatched.terms);
-				diff.andNot(shiftable);
-				partiallyDisjoint = !diff.isEmpty();
+				// A state of the same scan class would scan exactly as the last did.
+				boolean partiallyDisjoint = scanClass < 0 || scanClass != lastScanClass;
+				if(partiallyDisjoint)
+				{
+					partiallyDisjoint = false;
+					for(int t = lastMatched.terms.nextSetBit(0);t >= 0;t = lastMatched.terms.nextSetBit(t + 1))
+					{
+						if(!shiftable.get(t))
+						{
+							partiallyDisjoint = true;
+							break;
+						}
+					}
+				}
 				if(!partiallyDisjoint)
 				{
 					lastShiftable = shiftable;
+					lastScanClass = scanClass;
 					return lastMatched;
 				}
 			}
@@ -234,10 +962,12 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 
 		lastPosition = whence;
 		lastShiftable = shiftable;
+		lastScanClass = scanClass;
 		functionalDisambiguationUsed = false;
 		lastMatchFromQueue = false;
 		
-		LinkedList<SingleDFAMatchData> layouts = new LinkedList<SingleDFAMatchData>();
+		// A list is made only once there is a layout or prefix match to keep.
+		LinkedList<SingleDFAMatchData> layouts = NO_LAYOUTS;
 		SingleDFAMatchData finalMatches;
 
 		//for(int i = 0;;i++)
@@ -253,7 +983,7 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 				// DEBUG-BEGIN
 				//System.err.println("Ambiguity: " + bitVecToString(finalMatches.terms) + "; runDisjoint = " + runDisjoint);
 				// DEBUG-END
-				if(finalMatches.terms.get(getEOF_SYMNUM()) && finalMatches.lexeme.isEmpty())
+				if(finalMatches.terms.get(getEOF_SYMNUM()) && finalMatches.getLexemeLength() == 0)
 				{
 					finalMatches.terms.clear();
 					finalMatches.terms.set(getEOF_SYMNUM());
@@ -263,15 +993,16 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 				{
 					functionalDisambiguationUsed = true;
 					int disambiguatedTerm = runDisambiguationAction(currentState.pos,finalMatches);
+					if(parseListener != null) parseListener.disambiguationRun(disambiguatedTerm);
 					if(disambiguatedTerm == -1)
 					{
 						int firstActionIndex = finalMatches.firstTerm;
-						int action = getParseTable()[currentState.statenum][firstActionIndex];
+						int action = getParseTableAction(currentState.statenum,firstActionIndex);
 						if(actionType(action) == STATE_REDUCE) disambiguatedTerm = firstActionIndex;
 						
 						for(int j = finalMatches.terms.nextSetBit(firstActionIndex + 1);j >= 0;j = finalMatches.terms.nextSetBit(j + 1))
 						{
-							if(action != getParseTable()[currentState.statenum][j])
+							if(action != getParseTableAction(currentState.statenum,j))
 							{
 								disambiguatedTerm = -1;
 								break;
@@ -310,15 +1041,7 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 				break;
 			}
 			
-			int useAs = getTerminalUses()[finalMatches.firstTerm];
-			if(useAs == TERMINAL_VERSATILE)
-			{
-				if(getLayoutSets()[currentState.statenum].get(finalMatches.firstTerm)) useAs = TERMINAL_EXCLUSIVELY_LAYOUT;
-				else if(getPrefixSets()[currentState.statenum].get(finalMatches.firstTerm)) useAs = TERMINAL_EXCLUSIVELY_PREFIX;
-				else useAs = TERMINAL_EXCLUSIVELY_SHIFTABLE;
-			}
-			
-			switch(useAs)
+			switch(terminalUse(finalMatches.firstTerm))
 			{
 			case TERMINAL_EXCLUSIVELY_SHIFTABLE:
 				// DEBUG-X-BEGIN
@@ -330,11 +1053,14 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 				// DEBUG-X-BEGIN
 				// System.err.println("Layout match");
 				// DEBUG-X-END
-				whence = InputPosition.advance(whence,finalMatches.lexeme.length(),finalMatches.lexeme);
-				if(finalMatches.lexeme.length() == 0)
+				if(parseListener != null) parseListener.layoutMatched(finalMatches.firstTerm);
+				whence = finalMatches.followingPos;
+				boolean kept = !skipSilentLayouts || !getSilentTerminals().get(finalMatches.firstTerm);
+				if(kept && layouts == NO_LAYOUTS) layouts = new LinkedList<SingleDFAMatchData>();
+				if(finalMatches.getLexemeLength() == 0)
 				{
 					//System.err.println("Empty layout match");
-					if(layouts.isEmpty())
+					if(kept && layouts.isEmpty())
 					{
 						layouts.add(finalMatches);
 					}
@@ -343,7 +1069,7 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 				}
 				else
 				{
-					layouts.add(finalMatches);
+					if(kept) layouts.add(finalMatches);
 					continue;
 				}
 				break;
@@ -351,9 +1077,11 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 				// DEBUG-X-BEGIN
 				// System.err.println("Prefix match");
 				// DEBUG-X-END
+				if(parseListener != null) parseListener.layoutMatched(finalMatches.firstTerm);
+				if(layouts == NO_LAYOUTS) layouts = new LinkedList<SingleDFAMatchData>();
 				layouts.add(finalMatches);
 				shiftable = getPrefixMaps()[currentState.statenum][finalMatches.firstTerm];
-				whence = InputPosition.advance(whence,finalMatches.lexeme.length(),finalMatches.lexeme);
+				whence = finalMatches.followingPos;
 				break;
 			default:
 				reportError(formatError("Cannot determine whether terminal is layout, prefix, or shiftable --- bug in scanner"));
@@ -370,7 +1098,7 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 	throws IOException
 	{
 		//System.err.println("Run disjoint: " + runDisjoint);
-		if(!runDisjoint) return simpleScan(whence,shiftable,layouts);
+		if(!runDisjoint) return simpleScan(whence,shiftable,layouts,skipSilentLayouts);
 		else return simpleScan(whence,getShiftableUnion(),layouts);
 	}
 	
@@ -378,6 +1106,21 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 			                    BitSet shiftable,
 			                    LinkedList<SingleDFAMatchData> layouts)
 	throws IOException
+	{
+		return simpleScan(whence,shiftable,layouts,false);
+	}
+	
+	/**
+	 * Scans for the longest match from a given position.
+	 * @param skipSilent If <code>true</code>, any run of silent layout (see
+	 * {@link #getSilentTerminals()}) at the start is passed over without
+	 * building a match for it, and the match returned begins after it.
+	 */
+	protected SingleDFAMatchData simpleScan(InputPosition whence,
+			                    BitSet shiftable,
+			                    LinkedList<SingleDFAMatchData> layouts,
+			                    boolean skipSilent)
+	throws IOException
 	{
 		//System.err.println("Simple-shiftable " + bitVecToDisplayStringList(shiftable) + "; token buffer size: " + tokenBuffer.size());
 		if(!tokenBuffer.isEmpty())
@@ -389,62 +1132,279 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 			return tok;
 		}
 		//else lastMatchFromQueue = false;
-		int currentState = getSCANNER_START_STATENUM();
-		char symbol = '\0';
-		InputPosition p;
-		BitSet shiftableS = (BitSet) shiftable.clone();
-		BitSet present = newBitVec(getTERMINAL_COUNT());
-		InputPosition presentPos = whence;
-		for(p = InputPosition.copy(whence);;p = InputPosition.advance(p,symbol))
-		{
-			BitSet tP = (BitSet) getPossibleSets()[currentState].clone();
-			tP.and(shiftableS);
-			if(p.equals(whence) && shiftableS.get(getEOF_SYMNUM())) tP.set(getEOF_SYMNUM());
-			if(tP.isEmpty()) break;
-			shiftableS.and(tP);
-			BitSet tA = (BitSet) getAcceptSets()[currentState].clone();
-			tA.and(shiftableS);
-			if(!tA.isEmpty())
+		long start = whence.getPos();
+		long presentPos = runScanner(start,shiftable);
+		if(skipSilent)
+		{
+			long silentStart = start;
+			while(presentPos > start && isSilentLayout(scanPresent))
 			{
-				present = tA;
-				presentPos = InputPosition.copy(p);
+				if(parseListener != null) parseListener.layoutMatched(scanPresent.nextSetBit(0));
+				start = presentPos;
+				presentPos = runScanner(start,shiftable);
 			}
-			else
+			if(start > silentStart) whence = charBuffer.getPosition(whence.getFileName(),start);
+		}
+		BitSet terms = newBitVec(getTERMINAL_COUNT());
+		terms.or(scanPresent);
+		if(scanEOFMatched)
+		{
+			terms.set(getEOF_SYMNUM());
+			return new SingleDFAMatchData(terms,whence,whence,"",layouts);
+		}
+		InputPosition followingPos = (presentPos == start) ? whence : charBuffer.getPosition(whence.getFileName(),presentPos);
+		return newMatchData(terms,whence,followingPos,start,presentPos,layouts);
+	}
+	
+	/**
+	 * Runs the scanner DFA from a given position, leaving the terminals of the
+	 * longest match in <code>scanPresent</code>, and setting <code>scanEOFMatched</code>
+	 * if the end of input was matched. In a pushed parse, a scan run before
+	 * from the same position with the same shiftable set is not run again, but
+	 * its result is reused, or if it was suspended, it goes on from where it stopped.
+	 * @return The position just past the longest match; <code>start</code> if there is none.
+	 */
+	protected long runScanner(long start,BitSet shiftable)
+	throws IOException
+	{
+		ScannerContextTable contexts = getScannerContexts();
+		int[] actions = null;
+		if(contexts != null && shiftable == getShiftableSets()[currentState.statenum]) actions = contexts.getActions(currentState.statenum);
+		ScanCheckpoint checkpoint = null;
+		if(pushedScans != null)
+		{
+			checkpoint = pushedScan(start,shiftable,actions);
+			if(checkpoint.finished)
 			{
-				BitSet tR = (BitSet) getRejectSets()[currentState].clone();
-				tR.and(shiftableS);
-				if(!tR.isEmpty())
+				scanPresent.clear();
+				scanPresent.or(checkpoint.present);
+				scanEOFMatched = checkpoint.eofMatched;
+				return checkpoint.presentPos;
+			}
+		}
+		long presentPos;
+		if(actions != null) presentPos = runScanner(start,shiftable,contexts,actions,checkpoint);
+		else presentPos = runScanner(start,shiftable,checkpoint);
+		if(checkpoint != null)
+		{
+			checkpoint.finished = true;
+			checkpoint.present = (BitSet) scanPresent.clone();
+			checkpoint.presentPos = presentPos;
+			checkpoint.eofMatched = scanEOFMatched;
+			checkpoint.possible = null;
+		}
+		return presentPos;
+	}
+
+	/**
+	 * Finds the scan of a pushed parse from a given position with a given
+	 * shiftable set and scanner context, adding one not yet run.
+	 */
+	private ScanCheckpoint pushedScan(long start,BitSet shiftable,int[] actions)
+	{
+		for(ScanCheckpoint scan : pushedScans)
+		{
+			if(scan.start == start && scan.actions == actions && scan.shiftable.equals(shiftable)) return scan;
+		}
+		ScanCheckpoint scan = new ScanCheckpoint(start,shiftable,actions);
+		pushedScans.add(scan);
+		return scan;
+	}
+
+	/**
+	 * Runs the scanner DFA without a scanner context, as {@link #runScanner(long, BitSet)} does.
+	 * @param checkpoint In a pushed parse, where the scan was suspended, and where
+	 * it is to be recorded if it is suspended again; otherwise <code>null</code>.
+	 */
+	private long runScanner(long start,BitSet shiftable,ScanCheckpoint checkpoint)
+	throws IOException
+	{
+		int currentState = getSCANNER_START_STATENUM();
+		char symbol = '\0';
+		long p = start;
+		BitSet shiftableS = scanShiftable;
+		shiftableS.clear();
+		shiftableS.or(shiftable);
+		BitSet present = scanPresent;
+		present.clear();
+		long presentPos = start;
+		if(checkpoint != null && checkpoint.suspended)
+		{
+			currentState = checkpoint.dfaState;
+			p = checkpoint.pos;
+			shiftableS.clear();
+			shiftableS.or(checkpoint.possible);
+			present.or(checkpoint.present);
+			presentPos = checkpoint.presentPos;
+		}
+		int eofSymNum = getEOF_SYMNUM();
+		BitSet[] possibleSets = getPossibleSets();
+		BitSet[] acceptSets = getAcceptSets();
+		BitSet[] rejectSets = getRejectSets();
+		try
+		{
+			for(;;p++)
+			{
+				// The possible, accept and reject sets are intersected with
+				// the scratch sets in place, so no sets are allocated per character.
+				boolean eofPossible = p == start && shiftableS.get(eofSymNum);
+				if(!eofPossible && !possibleSets[currentState].intersects(shiftableS)) break;
+				shiftableS.and(possibleSets[currentState]);
+				if(eofPossible) shiftableS.set(eofSymNum);
+				if(acceptSets[currentState].intersects(shiftableS))
+				{
+					present.clear();
+					present.or(acceptSets[currentState]);
+					present.and(shiftableS);
+					presentPos = p;
+				}
+				else if(rejectSets[currentState].intersects(shiftableS))
 				{
 					present.clear();
-					presentPos = whence;
+					presentPos = start;
+				}
+				symbol = charBuffer.charAt(p);
+				if(symbol == ScannerBuffer.EOFIndicator)
+				{
+					break;
 				}
+				currentState = transition(currentState,symbol);
 			}
-			symbol = charBuffer.charAt(p.getPos());
-			if(symbol == ScannerBuffer.EOFIndicator)
+		}
+		catch(PushScannerBuffer.MoreInputNeeded ex)
+		{
+			// Stepping through position p again on resuming leaves the sets as they are.
+			checkpoint.suspended = true;
+			checkpoint.dfaState = currentState;
+			checkpoint.pos = p;
+			checkpoint.possible = (BitSet) shiftableS.clone();
+			checkpoint.present = (BitSet) present.clone();
+			checkpoint.presentPos = presentPos;
+			throw ex;
+		}
+		if(p > scanReadTo) scanReadTo = p;
+		if(parseListener != null) parseListener.scanned(start,(int) (p - start));
+		scanEOFMatched = symbol == ScannerBuffer.EOFIndicator &&
+		                 p == start &&
+		                 shiftableS.get(eofSymNum);
+		return presentPos;
+	}
+	
+	/**
+	 * Runs the scanner DFA as {@link #runScanner(long, BitSet)} does, but
+	 * in a context for which each state's action is known in advance.
+	 */
+	private long runScanner(long start,BitSet shiftable,ScannerContextTable contexts,int[] actions,ScanCheckpoint checkpoint)
+	throws IOException
+	{
+		int currentState = getSCANNER_START_STATENUM();
+		char symbol = '\0';
+		long p = start;
+		int present = ScannerContextTable.NO_ACTION;
+		long presentPos = start;
+		if(checkpoint != null && checkpoint.suspended)
+		{
+			currentState = checkpoint.dfaState;
+			p = checkpoint.pos;
+			present = checkpoint.presentAction;
+			presentPos = checkpoint.presentPos;
+		}
+		boolean eofShiftable = shiftable.get(getEOF_SYMNUM());
+		try
+		{
+			for(;;p++)
 			{
-				break;
+				int action = actions[currentState];
+				if(action >= 0)
+				{
+					present = action;
+					presentPos = p;
+				}
+				else if(action == ScannerContextTable.REJECT)
+				{
+					present = ScannerContextTable.NO_ACTION;
+					presentPos = start;
+				}
+				else if(action == ScannerContextTable.STOP && !(p == start && eofShiftable)) break;
+				symbol = charBuffer.charAt(p);
+				if(symbol == ScannerBuffer.EOFIndicator)
+				{
+					break;
+				}
+				currentState = transition(currentState,symbol);
 			}
-			currentState = transition(currentState,symbol);
 		}
-		if(symbol == ScannerBuffer.EOFIndicator &&
-				   p.equals(whence) &&
-				   shiftableS.get(getEOF_SYMNUM()))
+		catch(PushScannerBuffer.MoreInputNeeded ex)
 		{
-			present.set(getEOF_SYMNUM());
-			return new SingleDFAMatchData(present,whence,p,"",layouts);
+			checkpoint.suspended = true;
+			checkpoint.dfaState = currentState;
+			checkpoint.pos = p;
+			checkpoint.presentAction = present;
+			checkpoint.presentPos = presentPos;
+			throw ex;
 		}
-		else return new SingleDFAMatchData(present,whence,presentPos,charBuffer.readStringFromBuffer(whence.getPos(),presentPos.getPos()),layouts);
+		if(p > scanReadTo) scanReadTo = p;
+		if(parseListener != null) parseListener.scanned(start,(int) (p - start));
+		scanPresent.clear();
+		if(present >= 0) scanPresent.or(contexts.getMatchSet(present));
+		scanEOFMatched = symbol == ScannerBuffer.EOFIndicator &&
+		                 p == start &&
+		                 eofShiftable;
+		return presentPos;
+	}
+	
+	/**
+	 * Tells whether a set of matched terminals is a single silent terminal
+	 * used as layout in the present parser state.
+	 */
+	private boolean isSilentLayout(BitSet matched)
+	{
+		int t = matched.nextSetBit(0);
+		if(t < 0 || matched.nextSetBit(t + 1) >= 0 || !getSilentTerminals().get(t)) return false;
+		return terminalUse(t) == TERMINAL_EXCLUSIVELY_LAYOUT;
+	}
+	
+	/**
+	 * Returns what a terminal is used as in the present parser state:
+	 * layout, prefix, or shiftable.
+	 */
+	protected int terminalUse(int t)
+	{
+		int useAs = getTerminalUses()[t];
+		if(useAs == TERMINAL_VERSATILE)
+		{
+			if(getLayoutSets()[currentState.statenum].get(t)) useAs = TERMINAL_EXCLUSIVELY_LAYOUT;
+			else if(getPrefixSets()[currentState.statenum].get(t)) useAs = TERMINAL_EXCLUSIVELY_PREFIX;
+			else useAs = TERMINAL_EXCLUSIVELY_SHIFTABLE;
+		}
+		return useAs;
+	}
+
+	/**
+	 * Builds the result of a scan, reading its lexeme now only if this parser
+	 * does not use lazy lexemes.
+	 * @see #usesLazyLexemes()
+	 */
+	protected SingleDFAMatchData newMatchData(BitSet terms,InputPosition precedingPos,InputPosition followingPos,long lexemeBegin,long lexemeEnd,LinkedList<SingleDFAMatchData> layouts)
+	throws IOException
+	{
+		if(usesLazyLexemes()) return new SingleDFAMatchData(terms,precedingPos,followingPos,charBuffer,lexemeBegin,lexemeEnd,layouts);
+		else return new SingleDFAMatchData(terms,precedingPos,followingPos,charBuffer.readStringFromBuffer(lexemeBegin,lexemeEnd),layouts);
 	}
 	
 	protected void startEngine(InputPosition initialPos)
     throws IOException,EXCEPT
 	{
-		parseStack = new Stack<SingleDFAParseStackNode>();
-		parseStack.push(new SingleDFAParseStackNode(getPARSER_START_STATENUM(),initialPos,null));
+		if(charBuffer != null) charBuffer.setOrigin(initialPos);
+		bufferBegin = 0;
+		if(parseStack == null) parseStack = new SingleDFAParseStack();
+		else parseStack.clear();
+		parseStack.push(getPARSER_START_STATENUM(),initialPos,null);
 		tokenBuffer = new CircleTokenBuffer<SingleDFAMatchData>();
 		virtualLocation = new VirtualLocation(initialPos.getFileName(),1,0);
-		currentState = null;
+		currentState = new SingleDFAParseStackNode(getPARSER_START_STATENUM(),initialPos,null);
 		disjointMatch = null;
+		reportingSyntaxError = false;
 		functionalDisambiguationUsed = false;
 		lastAction = STATE_SHIFT;
 		lastMatchFromQueue = false;
@@ -452,32 +1412,183 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 		lastMatched = null;
 		lastShiftable = null;
 		scanResult = null;
+		scanReadTo = -1;
+		skipSilentLayouts = getSilentTerminals() != null && !getSilentTerminals().isEmpty();
+		if(parseListener != null) parseListener.parseStarted(initialPos);
+		if(scanShiftable == null)
+		{
+			scanShiftable = new BitSet();
+			scanPresent = new BitSet();
+		}
+	}
+	
+	@Override
+	public void reset()
+	{
+		if(parseStack != null) parseStack.clear();
+		charBuffer = null;
+		pushBuffer = null;
+		pushedScans = null;
+		tokenBuffer = null;
+		virtualLocation = null;
+		currentState = null;
+		scanResult = null;
+		disjointMatch = null;
+		lastPosition = null;
+		lastMatched = null;
+		lastShiftable = null;
+		if(childrenWindows != null)
+		{
+			for(Object[] window : childrenWindows)
+			{
+				if(window != null) Arrays.fill(window,null);
+			}
+		}
+	}
+	
+	/**
+	 * Copies the top of the parse stack into <code>currentState</code>.
+	 */
+	protected void peekCurrentState()
+	{
+		currentState.statenum = parseStack.peekState();
+		currentState.pos = parseStack.peekPosition();
+		currentState.synthAttr = parseStack.peekValue();
+	}
+	
+	/**
+	 * Runs the semantic actions of the layout and prefixes kept before a match,
+	 * moving the virtual location past each of them and past any silent layout
+	 * between them.
+	 * @param scanStart The position at which the scan for the match began.
+	 */
+	protected void runLayoutActions(long scanStart,SingleDFAMatchData match)
+	throws IOException,EXCEPT
+	{
+		long pos = scanStart;
+		for(SingleDFAMatchData layout : match.layouts)
+		{
+			passSilentLayout(pos,layout.precedingPos.getPos());
+			runTerminalAction(layout.precedingPos,layout);
+			layout.defaultUpdate(virtualLocation);
+			pos = layout.followingPos.getPos();
+		}
+		passSilentLayout(pos,match.precedingPos.getPos());
+	}
+	
+	private void passSilentLayout(long begin,long end)
+	throws IOException
+	{
+		if(skipSilentLayouts && begin < end) virtualLocation.defaultUpdateAutomatic(charBuffer,begin,end);
+	}
+	
+	/**
+	 * Runs the semantic action of a terminal, timing it if there is a listener.
+	 */
+	private Object runTerminalAction(InputPosition pos,SingleDFAMatchData terminal)
+	throws IOException,EXCEPT
+	{
+		if(parseListener == null) return runSemanticAction(pos,terminal);
+		long before = System.nanoTime();
+		Object rv = runSemanticAction(pos,terminal);
+		parseListener.semanticActionRun(terminal.firstTerm,System.nanoTime() - before);
+		return rv;
+	}
+	
+	/**
+	 * Runs the semantic action of a production, timing it if there is a listener.
+	 */
+	private Object runProductionAction(InputPosition pos,Object[] children,int childrenOffset,int childCount,int production)
+	throws IOException,EXCEPT
+	{
+		if(parseListener == null) return runSemanticAction(pos,children,childrenOffset,childCount,production);
+		long before = System.nanoTime();
+		Object rv = runSemanticAction(pos,children,childrenOffset,childCount,production);
+		parseListener.semanticActionRun(production,System.nanoTime() - before);
+		return rv;
 	}
 	
 	protected Object runEngine()
 	throws IOException,EXCEPT
+	{
+		if(parseListener == null) return runParser();
+		boolean accepted = false;
+		try
+		{
+			Object rv = runParser();
+			accepted = true;
+			return rv;
+		}
+		finally
+		{
+			parseListener.parseEnded(accepted);
+		}
+	}
+	
+	/**
+	 * Runs the parser over the input, running the semantic actions.
+	 * The caller tells the parse listener when the parse ends.
+	 * @return The synthesized attribute of the root node of the input's derivative parse tree.
+	 */
+	protected Object runParser()
+	throws IOException,EXCEPT
+	{
+		return runLR(RUN_PARSE);
+	}
+	
+	/**
+	 * Runs the parser over the input as {@link #runParser()} does,
+	 * but without semantic actions other than disambiguation functions.
+	 * @see #recognize(Reader, String)
+	 */
+	protected void runRecognizer()
+	throws IOException,EXCEPT
+	{
+		runLR(RUN_RECOGNIZE);
+	}
+	
+	/**
+	 * Moves the virtual location past input with no semantic actions run.
+	 * The move is only recorded, so that the input is read again only if
+	 * a syntax error is reported or the buffer is about to discard it.
+	 */
+	private void passInput(long begin,long end)
+	throws IOException
+	{
+		if(begin < end) virtualLocation.defaultUpdateAutomatic(charBuffer,begin,end);
+	}
+	
+	/** Modes in which {@link #runLR(int)} runs the parser. */
+	private static final int RUN_PARSE = 0,RUN_RECOGNIZE = 1,RUN_TOKENS = 2;
+	
+	/**
+	 * Runs the LR automaton, in one of three modes differing only in what is
+	 * done on each shift, reduce and acceptance: <code>RUN_PARSE</code> runs the
+	 * semantic actions and returns the root's synthesized attribute;
+	 * <code>RUN_RECOGNIZE</code> runs none and returns <code>null</code>;
+	 * <code>RUN_TOKENS</code> runs none and returns each token as it is shifted.
+	 */
+	private Object runLR(int mode)
+	throws IOException,EXCEPT
 	{
 		while(true)
 		{
 			// DEBUG-X-BEGIN
 			//System.err.println(parseStack);
 			// DEBUG-X-END
-			currentState = parseStack.peek();
+			peekCurrentState();
 			SingleDFAMatchData scanResult = layoutScan(false,null);
 			if(scanResult.terms.isEmpty())
 			{
 				disjointMatch = layoutScan(true,scanResult);
-				for(SingleDFAMatchData layout : scanResult.layouts)
-				{
-					runSemanticAction(layout.precedingPos,layout);
-					virtualLocation.defaultUpdateAutomatic(layout.lexeme);
-				}
-				
-				parseStack.push(new SingleDFAParseStackNode(currentState.statenum, scanResult.followingPos, null));
-				currentState = parseStack.peek();
+				passLayout(mode,scanResult);
+				currentState.pos = scanResult.followingPos;
+				virtualLocation.resolve();
+				if(parseListener != null) parseListener.syntaxError(currentState.statenum);
+				reportingSyntaxError = true;
 				reportSyntaxError();
-				parseStack.pop();
-				currentState = parseStack.peek();
+				reportingSyntaxError = false;
+				peekCurrentState();
 			}
 			else if(scanResult.terms.cardinality() > 1)
 			{
@@ -487,55 +1598,128 @@ public abstract class SingleDFAEngine<ROOT,EXCEPT extends Exception> implements
 			// DEBUG-X-BEGIN
 			//System.err.println(bitVecToString(scanResult.terms));
 			// DEBUG-X-END
-			int action = getParseTable()[currentState.statenum][scanResult.firstTerm];
-			Object synthAttr;
+			int action = getParseTableAction(currentState.statenum,scanResult.firstTerm);
 			switch(actionType(action))
 			{
 			case STATE_ACCEPT:
-				for(SingleDFAMatchData layout : scanResult.layouts)
-				{
-					runSemanticAction(layout.precedingPos,layout);
-					virtualLocation.defaultUpdateAutomatic(layout.lexeme);
-				}
-				return parseStack.peek().synthAttr;
+				return accepted(mode,scanResult);
 			case STATE_SHIFT:
 				int nextState = actionIndex(action);
-				for(SingleDFAMatchData layout : scanResult.layouts)
-				{
-					runSemanticAction(layout.precedingPos,layout);
-					virtualLocation.defaultUpdateAutomatic(layout.lexeme);
-				}
-				synthAttr = runSemanticAction(scanResult.precedingPos,scanResult);
-				virtualLocation.defaultUpdateAutomatic(scanResult.lexeme);
-				parseStack.push(new SingleDFAParseStackNode(nextState,scanResult.followingPos,synthAttr));
+				Object synthAttr = shifted(mode,scanResult);
+				parseStack.push(nextState,scanResult.followingPos,synthAttr);
+				if(parseListener != null) parseListener.shifted(scanResult.firstTerm,parseStack.size());
 				// DEBUG-X-BEGIN
 				//System.err.println("shift(" + nextState + ")");
 				// DEBUG-X-END
+				if(mode == RUN_TOKENS)
+				{
+					lastAction = STATE_SHIFT;
+					return readLexemes(scanResult);
+				}
 				break;
 			case STATE_REDUCE:
 				int production = actionIndex(action);
 				int productionLength = actionIndex(getSymbolNumbers()[production]);
 				int productionLHS = actionIndex(getProductionLHSs()[production - getGRAMMAR_SYMBOL_COUNT()]);
-				Object[] children = new Object[productionLength];
-				for(int i = productionLength - 1;i >= 0;i--)
-				{
-					children[i] = parseStack.pop().synthAttr;
-				}
-				int gotoState = actionIndex(getParseTable()[parseStack.peek().statenum][productionLHS]);
-				synthAttr = runSemanticAction(currentState.pos,children,production);
-				parseStack.push(new SingleDFAParseStackNode(gotoState,currentState.pos,synthAttr));
+				reduced(mode,production,productionLength,productionLHS);
+				if(parseListener != null) parseListener.reduced(production,parseStack.size());
 				// DEBUG-X-BEGIN
-				//System.err.println("reduce(" + production + "); goto(" + gotoState + ")");
+				//System.err.println("reduce(" + production + ")");
 				// DEBUG-X-END
 				break;
 			default:
-				// DEBUG-X-BEGIN
-				//System.err.println(bitVecToString(scanResult.terms));
-				// DEBUG-X-END
 				disjointMatch = scanResult;
+				virtualLocation.resolve();
+				if(parseListener != null) parseListener.syntaxError(currentState.statenum);
+				reportingSyntaxError = true;
 				reportSyntaxError();
+				reportingSyntaxError = false;
 			}
 			lastAction = actionType(action);
 		}
 	}
+	
+	/**
+	 * Moves past the layout and prefixes before a match: in a parse, running
+	 * their semantic actions; otherwise, moving only the virtual location.
+	 */
+	private void passLayout(int mode,SingleDFAMatchData match)
+	throws IOException,EXCEPT
+	{
+		switch(mode)
+		{
+		case RUN_PARSE:
+			runLayoutActions(currentState.pos.getPos(),match);
+			break;
+		case RUN_RECOGNIZE:
+			passInput(currentState.pos.getPos(),match.precedingPos.getPos());
+			break;
+		default:
+			for(SingleDFAMatchData layout : match.layouts) layout.defaultUpdate(virtualLocation);
+		}
+	}
+	
+	/**
+	 * Moves past a match being shifted and the layout before it.
+	 * @return The synthesized attribute of the match.
+	 */
+	private Object shifted(int mode,SingleDFAMatchData match)
+	throws IOException,EXCEPT
+	{
+		passLayout(mode,match);
+		switch(mode)
+		{
+		case RUN_PARSE:
+			Object synthAttr = runTerminalAction(match.precedingPos,match);
+			match.defaultUpdate(virtualLocation);
+			return synthAttr;
+		case RUN_RECOGNIZE:
+			passInput(match.precedingPos.getPos(),match.followingPos.getPos());
+			return null;
+		default:
+			match.defaultUpdate(virtualLocation);
+			return null;
+		}
+	}
+	
+	/**
+	 * Pops the right-hand side of a production and pushes its left-hand side,
+	 * running the production's semantic action in a parse.
+	 */
+	private void reduced(int mode,int production,int productionLength,int productionLHS)
+	throws IOException,EXCEPT
+	{
+		parseStack.pop(productionLength);
+		int gotoState = actionIndex(getParseTableAction(parseStack.peekState(),productionLHS));
+		if(mode != RUN_PARSE)
+		{
+			parseStack.push(gotoState,currentState.pos,null);
+			return;
+		}
+		int childrenOffset = parseStack.size();
+		Object synthAttr = runProductionAction(currentState.pos,parseStack.getValues(),childrenOffset,productionLength,production);
+		parseStack.push(gotoState,currentState.pos,synthAttr);
+		parseStack.releaseValues(childrenOffset + productionLength);
+	}
+	
+	/**
+	 * Finishes a run on acceptance of the input.
+	 * @return What {@link #runLR(int)} returns in the given mode.
+	 */
+	private Object accepted(int mode,SingleDFAMatchData match)
+	throws IOException,EXCEPT
+	{
+		switch(mode)
+		{
+		case RUN_PARSE:
+			runLayoutActions(currentState.pos.getPos(),match);
+			return parseStack.peekValue();
+		case RUN_RECOGNIZE:
+			return null;
+		default:
+			tokenStreamEnded = true;
+			lastAction = STATE_ACCEPT;
+			return readLexemes(match);
+		}
+	}
 }
@@ -0,0 +1,302 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.umn.cs.melt.copper.runtime.engines.semantics.VirtualLocation;
+import edu.umn.cs.melt.copper.runtime.engines.single.scanner.SingleDFAMatchData;
+
+/**
+ * Checks successive versions of an edited input for validity with a
+ * single-DFA parser, recording the tokens of each version. This is an
+ * incremental validity check, not an incremental parse: the parser is run
+ * as by {@link SingleDFAEngine#nextToken()}, building no semantic values
+ * and running no semantic actions other than disambiguation functions, so
+ * there are no parse results to reuse; only the token list is kept up to date.
+ * <p>
+ * A checkpoint of the parser states on the stack and the virtual location
+ * is taken every few tokens. After an edit, the check resumes from the last
+ * checkpoint whose scans read nothing at or after the edit, and stops as
+ * soon as it reaches a checkpoint of the previous version beyond the edited
+ * text with the same parser states and virtual column; the tokens and
+ * checkpoints after that point are carried over. Since the parser states
+ * alone are compared, a parser whose scanning or disambiguation depends on
+ * other state, such as parser attributes, may be judged differently than
+ * by a check of the whole input.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ * @param <EXCEPT> The type of the syntax-error exceptions thrown by the parser.
+ */
+public class SingleDFAIncrementalValidityChecker<EXCEPT extends Exception>
+{
+	private static final int defaultCheckpointInterval = 64;
+
+	private static class Checkpoint
+	{
+		/** The number of tokens recorded before the checkpoint. */
+		public int tokenCount;
+		/** The position at which the next scan starts. */
+		public long pos;
+		/** The furthest position read by the scanner before the checkpoint. */
+		public long readTo;
+		/** The parser states on the stack, bottom first. */
+		public int[] states;
+		public VirtualLocation virtualLocation;
+
+		public Checkpoint shift(long delta,int lineDelta)
+		{
+			Checkpoint rv = new Checkpoint();
+			rv.tokenCount = tokenCount;
+			rv.pos = pos + delta;
+			rv.readTo = readTo + delta;
+			rv.states = states;
+			rv.virtualLocation = new VirtualLocation(virtualLocation.getFileName(),virtualLocation.getLine() + lineDelta,virtualLocation.getColumn());
+			rv.virtualLocation.setTabStop(virtualLocation.getTabStop());
+			return rv;
+		}
+	}
+
+	private SingleDFAEngine<?,EXCEPT> engine;
+	private int checkpointInterval;
+	private String inputName;
+
+	private int[] tokenTerms;
+	private long[] tokenStarts,tokenEnds;
+	private int tokenCount;
+	private ArrayList<Checkpoint> checkpoints;
+	private boolean accepted;
+
+	/**
+	 * Creates a checker taking a checkpoint every 64 tokens.
+	 * @param engine The parser to run; it should not be used for anything else meanwhile.
+	 */
+	public SingleDFAIncrementalValidityChecker(SingleDFAEngine<?,EXCEPT> engine)
+	{
+		this(engine,defaultCheckpointInterval);
+	}
+
+	/**
+	 * Creates a checker with a custom checkpoint interval.
+	 * @param engine The parser to run; it should not be used for anything else meanwhile.
+	 * @param checkpointInterval The number of tokens between checkpoints.
+	 */
+	public SingleDFAIncrementalValidityChecker(SingleDFAEngine<?,EXCEPT> engine,int checkpointInterval)
+	{
+		if(checkpointInterval < 1) throw new IllegalArgumentException("Checkpoint interval must be positive");
+		this.engine = engine;
+		this.checkpointInterval = checkpointInterval;
+		tokenTerms = new int[0];
+		tokenStarts = new long[0];
+		tokenEnds = new long[0];
+		tokenCount = 0;
+		checkpoints = new ArrayList<Checkpoint>();
+		accepted = false;
+	}
+
+	/**
+	 * Checks an input in full, discarding anything recorded about earlier inputs.
+	 * @param text The input, which must not change while it is being checked.
+	 * @param inputName The label attached to the input (filename or similar).
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a syntax error occurs; the tokens before it are still recorded.
+	 */
+	public void check(CharSequence text,String inputName)
+	throws IOException,EXCEPT
+	{
+		this.inputName = inputName;
+		Checkpoint initial = new Checkpoint();
+		initial.tokenCount = 0;
+		initial.pos = 0;
+		initial.readTo = -1;
+		initial.states = new int[] { engine.getPARSER_START_STATENUM() };
+		initial.virtualLocation = new VirtualLocation(inputName,1,0);
+		checkpoints = new ArrayList<Checkpoint>();
+		checkpoints.add(initial);
+		tokenCount = 0;
+		accepted = false;
+		run(text,0,0,0);
+	}
+
+	/**
+	 * Checks a new version of the input after an edit replacing one span of text.
+	 * @param text The new version of the input, which must not change while it is being checked.
+	 * @param editStart The position of the first character replaced.
+	 * @param removedLength The number of characters replaced in the previous version.
+	 * @param insertedLength The number of characters that replaced them in the new version.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws EXCEPT If a syntax error occurs; the tokens before it are still recorded.
+	 */
+	public void recheck(CharSequence text,int editStart,int removedLength,int insertedLength)
+	throws IOException,EXCEPT
+	{
+		if(checkpoints.isEmpty()) throw new IllegalStateException("No input has been checked yet");
+		run(text,editStart,removedLength,insertedLength);
+	}
+
+	private void run(CharSequence text,int editStart,int removedLength,int insertedLength)
+	throws IOException,EXCEPT
+	{
+		long delta = insertedLength - removedLength;
+		long editEndNew = editStart + insertedLength;
+		// Only an accepted check can be carried over from a convergence point to its end.
+		boolean convergible = accepted;
+
+		// Resume from the last checkpoint whose scans never read the edited text.
+		int resume = checkpoints.size() - 1;
+		while(resume > 0 && checkpoints.get(resume).readTo >= editStart) resume--;
+		Checkpoint start = checkpoints.get(resume);
+		ArrayList<Checkpoint> oldCheckpoints = checkpoints;
+		int[] oldTerms = tokenTerms;
+		long[] oldStarts = tokenStarts,oldEnds = tokenEnds;
+		int oldTokenCount = tokenCount;
+
+		checkpoints = new ArrayList<Checkpoint>(oldCheckpoints.subList(0,resume + 1));
+		tokenTerms = Arrays.copyOf(oldTerms,Math.max(oldTerms.length,16));
+		tokenStarts = Arrays.copyOf(oldStarts,tokenTerms.length);
+		tokenEnds = Arrays.copyOf(oldEnds,tokenTerms.length);
+		tokenCount = start.tokenCount;
+		accepted = false;
+
+		engine.resumeTokenStream(text,inputName,start.pos,start.states,start.virtualLocation,start.readTo);
+
+		try
+		{
+			int sinceCheckpoint = 0;
+			SingleDFAMatchData token;
+			while((token = engine.nextToken()) != null)
+			{
+				for(SingleDFAMatchData layout : token.layouts) addToken(layout);
+				if(engine.isTokenStreamEnded())
+				{
+					accepted = true;
+					break;
+				}
+				addToken(token);
+				long pos = token.followingPos.getPos();
+				if(convergible && pos >= editEndNew)
+				{
+					int old = findCheckpoint(oldCheckpoints,pos - delta);
+					if(old >= 0 && converges(oldCheckpoints.get(old)))
+					{
+						Checkpoint oldCheckpoint = oldCheckpoints.get(old);
+						int lineDelta = engine.getVirtualLocation().getLine() - oldCheckpoint.virtualLocation.getLine();
+						int tokenDelta = tokenCount - oldCheckpoint.tokenCount;
+						for(int i = oldCheckpoint.tokenCount;i < oldTokenCount;i++) addToken(oldTerms[i],oldStarts[i] + delta,oldEnds[i] + delta);
+						for(int i = old;i < oldCheckpoints.size();i++)
+						{
+							Checkpoint shifted = oldCheckpoints.get(i).shift(delta,lineDelta);
+							shifted.tokenCount += tokenDelta;
+							checkpoints.add(shifted);
+						}
+						accepted = true;
+						break;
+					}
+				}
+				if(++sinceCheckpoint >= checkpointInterval)
+				{
+					takeCheckpoint(pos);
+					sinceCheckpoint = 0;
+				}
+			}
+		}
+		finally
+		{
+			engine.reset();
+		}
+	}
+
+	private static int findCheckpoint(ArrayList<Checkpoint> checkpoints,long pos)
+	{
+		int low = 0,high = checkpoints.size() - 1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long midPos = checkpoints.get(mid).pos;
+			if(midPos < pos) low = mid + 1;
+			else if(midPos > pos) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	private boolean converges(Checkpoint old)
+	{
+		if(engine.getVirtualLocation().getColumn() != old.virtualLocation.getColumn()) return false;
+		return Arrays.equals(engine.getStackStates(),old.states);
+	}
+
+	private void takeCheckpoint(long pos)
+	{
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.tokenCount = tokenCount;
+		checkpoint.pos = pos;
+		checkpoint.readTo = engine.getScanReadTo();
+		checkpoint.states = engine.getStackStates();
+		checkpoint.virtualLocation = new VirtualLocation(engine.getVirtualLocation());
+		checkpoints.add(checkpoint);
+	}
+
+	private void addToken(SingleDFAMatchData token)
+	{
+		addToken(token.firstTerm,token.precedingPos.getPos(),token.followingPos.getPos());
+	}
+
+	private void addToken(int term,long start,long end)
+	{
+		if(tokenCount == tokenTerms.length)
+		{
+			int newCapacity = Math.max(16,tokenCount * 2);
+			tokenTerms = Arrays.copyOf(tokenTerms,newCapacity);
+			tokenStarts = Arrays.copyOf(tokenStarts,newCapacity);
+			tokenEnds = Arrays.copyOf(tokenEnds,newCapacity);
+		}
+		tokenTerms[tokenCount] = term;
+		tokenStarts[tokenCount] = start;
+		tokenEnds[tokenCount] = end;
+		tokenCount++;
+	}
+
+	/**
+	 * @return <code>true</code> iff the last input checked was accepted.
+	 */
+	public boolean isAccepted()
+	{
+		return accepted;
+	}
+
+	/**
+	 * @return The number of tokens, layout and prefixes included, recorded for the last input.
+	 */
+	public int getTokenCount()
+	{
+		return tokenCount;
+	}
+
+	/**
+	 * @param index The index of a token.
+	 * @return The terminal number of the token.
+	 */
+	public int getTokenTerminal(int index)
+	{
+		return tokenTerms[index];
+	}
+
+	/**
+	 * @param index The index of a token.
+	 * @return The position of the token's first character.
+	 */
+	public long getTokenStart(int index)
+	{
+		return tokenStarts[index];
+	}
+
+	/**
+	 * @param index The index of a token.
+	 * @return The position after the token's last character.
+	 */
+	public long getTokenEnd(int index)
+	{
+		return tokenEnds[index];
+	}
+}
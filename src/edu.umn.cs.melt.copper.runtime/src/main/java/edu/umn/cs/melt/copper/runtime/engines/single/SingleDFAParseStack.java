@@ -0,0 +1,137 @@
+package edu.umn.cs.melt.copper.runtime.engines.single;
+
+import java.util.Arrays;
+
+import edu.umn.cs.melt.copper.runtime.io.InputPosition;
+
+/**
+ * The LR parse stack of a single-DFA engine, held in parallel arrays of
+ * parser states, semantic values and input positions instead of as a stack
+ * of node objects. It is not synchronized.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+public class SingleDFAParseStack
+{
+	private static final int defaultInitialCapacity = 64;
+
+	private int[] states;
+	private Object[] values;
+	private InputPosition[] positions;
+	private int size;
+
+	public SingleDFAParseStack()
+	{
+		this(defaultInitialCapacity);
+	}
+
+	public SingleDFAParseStack(int initialCapacity)
+	{
+		states = new int[initialCapacity];
+		values = new Object[initialCapacity];
+		positions = new InputPosition[initialCapacity];
+		size = 0;
+	}
+
+	/**
+	 * Pushes a new entry onto the stack.
+	 * @param state The parser state.
+	 * @param pos The input position at which the state was entered.
+	 * @param value The semantic value of the symbol that led to the state.
+	 */
+	public void push(int state,InputPosition pos,Object value)
+	{
+		if(size == states.length)
+		{
+			int newCapacity = size * 2;
+			states = Arrays.copyOf(states,newCapacity);
+			values = Arrays.copyOf(values,newCapacity);
+			positions = Arrays.copyOf(positions,newCapacity);
+		}
+		states[size] = state;
+		values[size] = value;
+		positions[size] = pos;
+		size++;
+	}
+
+	/**
+	 * Pops entries off the stack. Their semantic values remain in
+	 * {@link #getValues()}, starting at index {@link #size()}, until
+	 * overwritten by a push or released with {@link #releaseValues(int)}.
+	 * @param n The number of entries to pop.
+	 */
+	public void pop(int n)
+	{
+		size -= n;
+	}
+
+	/**
+	 * Drops the references held to semantic values of popped entries.
+	 * @param end The index one past the last popped entry to release.
+	 */
+	public void releaseValues(int end)
+	{
+		if(end > size) Arrays.fill(values,size,end,null);
+	}
+
+	public int peekState()
+	{
+		return states[size - 1];
+	}
+
+	public InputPosition peekPosition()
+	{
+		return positions[size - 1];
+	}
+
+	public Object peekValue()
+	{
+		return values[size - 1];
+	}
+
+	public int getState(int index)
+	{
+		return states[index];
+	}
+
+	public InputPosition getPosition(int index)
+	{
+		return positions[index];
+	}
+
+	/**
+	 * @return The array backing the stack's semantic values; index 0 is the bottom of the stack.
+	 */
+	public Object[] getValues()
+	{
+		return values;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/** Empties the stack, dropping all references it holds. */
+	public void clear()
+	{
+		Arrays.fill(values,0,size,null);
+		Arrays.fill(positions,0,size,null);
+		size = 0;
+	}
+
+	public String toString()
+	{
+		StringBuilder rv = new StringBuilder("[");
+		for(int i = 0;i < size;i++)
+		{
+			if(i > 0) rv.append(", ");
+			rv.append("(").append(states[i]).append(",").append(positions[i]).append(")");
+		}
+		return rv.append("]").toString();
+	}
+}
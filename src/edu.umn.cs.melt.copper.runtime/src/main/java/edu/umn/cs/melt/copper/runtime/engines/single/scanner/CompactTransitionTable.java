@@ -0,0 +1,259 @@
+package edu.umn.cs.melt.copper.runtime.engines.single.scanner;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableReader;
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableWriter;
+
+/**
+ * The transition function of a scanner DFA, held compactly. Characters are
+ * mapped to character classes in two levels: the 128 ASCII characters through
+ * a single array, all others through pages of 256 characters, identical pages
+ * being shared. Class numbers are kept in bytes where there are no more than
+ * 256 classes, and in chars otherwise. The transitions themselves are kept in
+ * one array, one fixed-length row per state.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public final class CompactTransitionTable implements Serializable
+{
+	private static final long serialVersionUID = 6118820421875370153L;
+
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int ASCII_SIZE = 128;
+
+	/** Character classes of ASCII characters. */
+	private final int[] ascii;
+	/** Character classes by page, if there are no more than 256 classes. */
+	private final byte[][] bytePages;
+	/** Character classes by page, if there are more than 256 classes. */
+	private final char[][] charPages;
+	/** The number of character classes, and the length of each row of <code>delta</code>. */
+	private final int stride;
+	private final int stateCount;
+	private final int[] delta;
+
+	private CompactTransitionTable(int[] ascii,byte[][] bytePages,char[][] charPages,int stride,int stateCount,int[] delta)
+	{
+		this.ascii = ascii;
+		this.bytePages = bytePages;
+		this.charPages = charPages;
+		this.stride = stride;
+		this.stateCount = stateCount;
+		this.delta = delta;
+	}
+
+	/**
+	 * @param ch A character.
+	 * @return The number of the character class containing it.
+	 */
+	public int charClass(char ch)
+	{
+		if(ch < ASCII_SIZE) return ascii[ch];
+		else if(bytePages != null) return bytePages[ch >>> PAGE_BITS][ch & PAGE_MASK] & 0xFF;
+		else return charPages[ch >>> PAGE_BITS][ch & PAGE_MASK];
+	}
+
+	/**
+	 * @param state A scanner state.
+	 * @param ch A character.
+	 * @return The state to which the scanner moves from <code>state</code> on reading <code>ch</code>.
+	 */
+	public int transition(int state,char ch)
+	{
+		return delta[state * stride + charClass(ch)];
+	}
+
+	/**
+	 * @return The character map in uncompressed form, one entry per character.
+	 */
+	public int[] expandCharMap()
+	{
+		int[] rv = new int[Character.MAX_VALUE + 1];
+		for(int ch = 0;ch <= Character.MAX_VALUE;ch++) rv[ch] = charClass((char) ch);
+		return rv;
+	}
+
+	/**
+	 * @return The transitions in uncompressed form, one row per state.
+	 */
+	public int[][] expandTransitions()
+	{
+		int[][] rv = new int[stateCount][];
+		for(int state = 0;state < stateCount;state++) rv[state] = Arrays.copyOfRange(delta,state * stride,(state + 1) * stride);
+		return rv;
+	}
+
+	/**
+	 * Writes this table in binary form, writing each shared page once.
+	 * @see #read(TableReader)
+	 */
+	public void write(TableWriter out)
+	throws IOException
+	{
+		out.writeIntArray(ascii);
+		out.writeInt(stride);
+		out.writeInt(stateCount);
+		out.writeIntArray(delta);
+		Object[] pages = (bytePages != null) ? bytePages : charPages;
+		out.writeInt((bytePages != null) ? 1 : 2);
+		out.writeInt(pages.length);
+		Map<Object,Integer> pageNumbers = new IdentityHashMap<Object,Integer>();
+		for(Object page : pages)
+		{
+			Integer pageNumber = pageNumbers.get(page);
+			if(pageNumber != null)
+			{
+				out.writeInt(pageNumber);
+				continue;
+			}
+			pageNumbers.put(page,pageNumbers.size());
+			out.writeInt(-1);
+			if(bytePages != null) out.writeByteArray((byte[]) page);
+			else out.writeCharArray((char[]) page);
+		}
+	}
+
+	/**
+	 * Reads a table written by {@link #write(TableWriter)}.
+	 */
+	public static CompactTransitionTable read(TableReader in)
+	{
+		int[] ascii = in.readIntArray();
+		int stride = in.readInt();
+		int stateCount = in.readInt();
+		int[] delta = in.readIntArray();
+		boolean bytes = in.readInt() == 1;
+		int pageCount = in.readInt();
+		byte[][] bytePages = bytes ? new byte[pageCount][] : null;
+		char[][] charPages = bytes ? null : new char[pageCount][];
+		Object[] distinctPages = new Object[pageCount];
+		int distinctPageCount = 0;
+		for(int page = 0;page < pageCount;page++)
+		{
+			int pageNumber = in.readInt();
+			Object contents;
+			if(pageNumber >= 0) contents = distinctPages[pageNumber];
+			else
+			{
+				contents = bytes ? in.readByteArray() : in.readCharArray();
+				distinctPages[distinctPageCount++] = contents;
+			}
+			if(bytes) bytePages[page] = (byte[]) contents;
+			else charPages[page] = (char[]) contents;
+		}
+		return new CompactTransitionTable(ascii,bytePages,charPages,stride,stateCount,delta);
+	}
+
+	/**
+	 * Builds a compact transition table.
+	 * @param charMap The character class of each character, indexed by character.
+	 * @param transitions The transitions, indexed by state and character class.
+	 * @param stateCount The number of states in use; rows of <code>transitions</code> past this are ignored.
+	 * @return The table.
+	 */
+	public static CompactTransitionTable build(int[] charMap,int[][] transitions,int stateCount)
+	{
+		return build(charMap,transitions,stateCount,new HashMap<PageKey,Object>());
+	}
+
+	/**
+	 * Builds a compact transition table, sharing character-map pages with
+	 * other tables built with the same page pool. Tables sharing pages should
+	 * be serialized in the same stream to keep them shared when read back.
+	 * @param charMap The character class of each character, indexed by character.
+	 * @param transitions The transitions, indexed by state and character class.
+	 * @param stateCount The number of states in use; rows of <code>transitions</code> past this are ignored.
+	 * @param pagePool The pages already built, to be shared with this table.
+	 * @return The table.
+	 */
+	public static CompactTransitionTable build(int[] charMap,int[][] transitions,int stateCount,Map<PageKey,Object> pagePool)
+	{
+		int stride = 0;
+		for(int state = 0;state < stateCount;state++) stride = Math.max(stride,transitions[state].length);
+		for(int ch = 0;ch < charMap.length;ch++) stride = Math.max(stride,charMap[ch] + 1);
+
+		int[] delta = new int[stateCount * stride];
+		for(int state = 0;state < stateCount;state++) System.arraycopy(transitions[state],0,delta,state * stride,transitions[state].length);
+
+		int[] ascii = Arrays.copyOf(charMap,ASCII_SIZE);
+		int pageCount = (Character.MAX_VALUE + 1) >>> PAGE_BITS;
+		byte[][] bytePages = null;
+		char[][] charPages = null;
+		if(stride <= 256) bytePages = new byte[pageCount][];
+		else charPages = new char[pageCount][];
+		for(int page = 0;page < pageCount;page++)
+		{
+			int start = page << PAGE_BITS;
+			if(bytePages != null)
+			{
+				byte[] contents = new byte[PAGE_SIZE];
+				for(int i = 0;i < PAGE_SIZE;i++) contents[i] = (byte) charMap[start + i];
+				bytePages[page] = (byte[]) internPage(pagePool,new PageKey(contents));
+			}
+			else
+			{
+				char[] contents = new char[PAGE_SIZE];
+				for(int i = 0;i < PAGE_SIZE;i++) contents[i] = (char) charMap[start + i];
+				charPages[page] = (char[]) internPage(pagePool,new PageKey(contents));
+			}
+		}
+
+		return new CompactTransitionTable(ascii,bytePages,charPages,stride,stateCount,delta);
+	}
+
+	private static Object internPage(Map<PageKey,Object> pagePool,PageKey key)
+	{
+		Object rv = pagePool.get(key);
+		if(rv == null)
+		{
+			rv = key.page;
+			pagePool.put(key,rv);
+		}
+		return rv;
+	}
+
+	/**
+	 * A key under which a character-map page is pooled, comparing pages by content.
+	 */
+	public static final class PageKey
+	{
+		private final Object page;
+		private final int hashCode;
+
+		private PageKey(byte[] page)
+		{
+			this.page = page;
+			this.hashCode = Arrays.hashCode(page);
+		}
+
+		private PageKey(char[] page)
+		{
+			this.page = page;
+			this.hashCode = 31 * Arrays.hashCode(page) + 1;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof PageKey)) return false;
+			Object other = ((PageKey) o).page;
+			if(page instanceof byte[] && other instanceof byte[]) return Arrays.equals((byte[]) page,(byte[]) other);
+			if(page instanceof char[] && other instanceof char[]) return Arrays.equals((char[]) page,(char[]) other);
+			return false;
+		}
+	}
+}
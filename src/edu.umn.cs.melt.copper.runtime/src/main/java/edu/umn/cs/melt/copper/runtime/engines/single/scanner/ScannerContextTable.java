@@ -0,0 +1,183 @@
+package edu.umn.cs.melt.copper.runtime.engines.single.scanner;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableReader;
+import edu.umn.cs.melt.copper.runtime.auxiliary.internal.TableWriter;
+
+/**
+ * The scanner DFA's accept, reject and possible sets, specialized to each
+ * scanning context (the set of terminals the scanner may match in a given
+ * parser state). In each context, every scanner state carries a single
+ * action: match a given set of terminals, reject the match so far, stop
+ * scanning, or nothing. Running the DFA in a context then takes no set
+ * operations.
+ * <p>
+ * This rests on the possible set of a state containing the possible sets
+ * of all states reachable from it, so that the terminals still possible in
+ * a context at any point of a scan depend only on the present state.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ *
+ */
+public final class ScannerContextTable implements Serializable
+{
+	private static final long serialVersionUID = -1893216440977813370L;
+
+	/** The action of a state at which nothing is matched or rejected. */
+	public static final int NO_ACTION = -1;
+	/** The action of a state at which the match so far is rejected. */
+	public static final int REJECT = -2;
+	/** The action of a state from which no terminal in the context can be matched. */
+	public static final int STOP = -3;
+
+	/** The context of each parser state. */
+	private final int[] contexts;
+	/** For each context, the action of each scanner state: one of the constants above, or the number of a match set. */
+	private final int[][] actions;
+	/** The sets of terminals matched. */
+	private final BitSet[] matchSets;
+
+	private ScannerContextTable(int[] contexts,int[][] actions,BitSet[] matchSets)
+	{
+		this.contexts = contexts;
+		this.actions = actions;
+		this.matchSets = matchSets;
+	}
+
+	/**
+	 * @param parserState A parser state.
+	 * @return The actions of each scanner state in the context of <code>parserState</code>'s shiftable set.
+	 */
+	public int[] getActions(int parserState)
+	{
+		return actions[contexts[parserState]];
+	}
+
+	/**
+	 * @param action An action that is neither {@link #NO_ACTION}, {@link #REJECT} nor {@link #STOP}.
+	 * @return The set of terminals matched.
+	 */
+	public BitSet getMatchSet(int action)
+	{
+		return matchSets[action];
+	}
+
+	/**
+	 * @return The number of distinct action rows, one or more contexts sharing each.
+	 */
+	public int getContextCount()
+	{
+		return actions.length;
+	}
+
+	/**
+	 * Writes this table in binary form.
+	 * @see #read(TableReader)
+	 */
+	public void write(TableWriter out)
+	throws IOException
+	{
+		out.writeIntArray(contexts);
+		out.writeIntArrays(actions);
+		out.writeBitSetArray(matchSets);
+	}
+
+	/**
+	 * Reads a table written by {@link #write(TableWriter)}.
+	 */
+	public static ScannerContextTable read(TableReader in)
+	{
+		int[] contexts = in.readIntArray();
+		int[][] actions = in.readIntArrays();
+		return new ScannerContextTable(contexts,actions,in.readBitSetArray());
+	}
+
+	/**
+	 * Specializes a scanner DFA to each parser state's shiftable set.
+	 * @param shiftableSets The shiftable set of each parser state.
+	 * @param acceptSets The accept set of each scanner state.
+	 * @param rejectSets The reject set of each scanner state.
+	 * @param possibleSets The possible set of each scanner state.
+	 * @return The table.
+	 */
+	public static ScannerContextTable build(BitSet[] shiftableSets,BitSet[] acceptSets,BitSet[] rejectSets,BitSet[] possibleSets)
+	{
+		int scannerStateCount = acceptSets.length;
+		int[] contexts = new int[shiftableSets.length];
+		List<int[]> actions = new ArrayList<int[]>();
+		Map<BitSet,Integer> contextNumbers = new HashMap<BitSet,Integer>();
+		Map<ActionsKey,Integer> actionNumbers = new HashMap<ActionsKey,Integer>();
+		List<BitSet> matchSets = new ArrayList<BitSet>();
+		Map<BitSet,Integer> matchSetNumbers = new HashMap<BitSet,Integer>();
+
+		for(int parserState = 0;parserState < shiftableSets.length;parserState++)
+		{
+			BitSet shiftable = shiftableSets[parserState];
+			Integer context = contextNumbers.get(shiftable);
+			if(context == null)
+			{
+				int[] row = new int[scannerStateCount];
+				for(int state = 0;state < scannerStateCount;state++)
+				{
+					if(!possibleSets[state].intersects(shiftable)) row[state] = STOP;
+					else if(acceptSets[state].intersects(shiftable))
+					{
+						BitSet matched = (BitSet) acceptSets[state].clone();
+						matched.and(shiftable);
+						Integer matchSet = matchSetNumbers.get(matched);
+						if(matchSet == null)
+						{
+							matchSet = matchSets.size();
+							matchSets.add(matched);
+							matchSetNumbers.put(matched,matchSet);
+						}
+						row[state] = matchSet;
+					}
+					else if(rejectSets[state].intersects(shiftable)) row[state] = REJECT;
+					else row[state] = NO_ACTION;
+				}
+				ActionsKey key = new ActionsKey(row);
+				context = actionNumbers.get(key);
+				if(context == null)
+				{
+					context = actions.size();
+					actions.add(row);
+					actionNumbers.put(key,context);
+				}
+				contextNumbers.put(shiftable,context);
+			}
+			contexts[parserState] = context;
+		}
+
+		return new ScannerContextTable(contexts,actions.toArray(new int[actions.size()][]),matchSets.toArray(new BitSet[matchSets.size()]));
+	}
+
+	private static final class ActionsKey
+	{
+		private final int[] row;
+
+		private ActionsKey(int[] row)
+		{
+			this.row = row;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(row);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return (o instanceof ActionsKey) && Arrays.equals(row,((ActionsKey) o).row);
+		}
+	}
+}
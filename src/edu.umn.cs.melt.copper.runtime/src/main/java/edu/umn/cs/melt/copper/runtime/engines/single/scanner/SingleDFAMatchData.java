@@ -1,9 +1,12 @@
 package edu.umn.cs.melt.copper.runtime.engines.single.scanner;
 
+import java.io.IOException;
 import java.util.BitSet;
 import java.util.LinkedList;
 
+import edu.umn.cs.melt.copper.runtime.engines.semantics.VirtualLocation;
 import edu.umn.cs.melt.copper.runtime.io.InputPosition;
+import edu.umn.cs.melt.copper.runtime.io.ScannerBuffer;
 
 public class SingleDFAMatchData
 {
@@ -12,9 +15,23 @@ public class SingleDFAMatchData
 	public int firstTerm;
 	public BitSet terms;
 	public InputPosition precedingPos,followingPos;
+	/**
+	 * The matched text; <code>null</code> if the match was made with a
+	 * lexeme read on demand and the lexeme has not yet been read.
+	 * The engines and generated parsers fill it, in a match and the layout
+	 * before it, before handing the match to semantic actions or to token
+	 * consumers (see {@link #readLexemes()}).
+	 * @deprecated Read the lexeme with {@link #getLexeme()}, which reads it
+	 * from the scanner buffer if it has not yet been read.
+	 */
+	@Deprecated
 	public String lexeme;
 	public LinkedList<SingleDFAMatchData> layouts;
 	
+	/** The buffer holding the lexeme, or <code>null</code> if the match was made with a lexeme already read. */
+	private ScannerBuffer lexemeSource;
+	private long lexemeBegin,lexemeEnd;
+
 	public SingleDFAMatchData(BitSet terms,
 			         InputPosition precedingPos,
 			         InputPosition followingPos,
@@ -28,6 +45,40 @@ public class SingleDFAMatchData
 		this.followingPos = followingPos;
 		this.lexeme = lexeme;
 		this.layouts = layouts;
+		this.lexemeSource = null;
+	}
+	
+	/**
+	 * Creates a match whose lexeme is read from the scanner buffer only when asked for.
+	 * The characters from <code>lexemeBegin</code> to <code>lexemeEnd</code> must remain
+	 * in the buffer until the lexeme is read.
+	 * @param lexemeSource The buffer holding the lexeme.
+	 * @param lexemeBegin The position of the lexeme's first character.
+	 * @param lexemeEnd The position one past the lexeme's last character.
+	 */
+	public SingleDFAMatchData(BitSet terms,
+	                          InputPosition precedingPos,
+	                          InputPosition followingPos,
+	                          ScannerBuffer lexemeSource,
+	                          long lexemeBegin,
+	                          long lexemeEnd,
+	                          LinkedList<SingleDFAMatchData> layouts)
+	{
+		this(terms,precedingPos,followingPos,(String) null,layouts);
+		this.lexemeSource = lexemeSource;
+		this.lexemeBegin = lexemeBegin;
+		this.lexemeEnd = lexemeEnd;
+	}
+
+	/**
+	 * Creates a copy of another match, sharing its lexeme whether or not it has been read.
+	 */
+	protected SingleDFAMatchData(SingleDFAMatchData other)
+	{
+		this(other.terms,other.precedingPos,other.followingPos,other.lexeme,other.layouts);
+		this.lexemeSource = other.lexemeSource;
+		this.lexemeBegin = other.lexemeBegin;
+		this.lexemeEnd = other.lexemeEnd;
 	}
 	
 	public boolean isEmpty()
@@ -35,4 +86,49 @@ public class SingleDFAMatchData
 		if(isEmpty == null) isEmpty = precedingPos.equals(followingPos);
 		return isEmpty;
 	}
+
+	/**
+	 * Returns the matched text, reading it from the scanner buffer
+	 * (and setting <code>lexeme</code>) the first time it is asked for.
+	 */
+	public String getLexeme()
+	throws IOException
+	{
+		if(lexeme == null && lexemeSource != null) lexeme = lexemeSource.readStringFromBuffer(lexemeBegin,lexemeEnd);
+		return lexeme;
+	}
+
+	/**
+	 * Reads the lexemes of this match and of the layout before it, so that
+	 * the <code>lexeme</code> fields of all of them are filled. Called before
+	 * a match is handed to code that may read the fields directly.
+	 */
+	public void readLexemes()
+	throws IOException
+	{
+		for(SingleDFAMatchData layout : layouts) layout.getLexeme();
+		getLexeme();
+	}
+
+	/**
+	 * @return The length of the matched text, without reading it.
+	 */
+	public int getLexemeLength()
+	{
+		if(lexemeSource != null) return (int) (lexemeEnd - lexemeBegin);
+		else return lexeme.length();
+	}
+
+	/**
+	 * Performs an automatic "default update" of a virtual location past
+	 * the matched text, from the buffer where it is held if it is, whether
+	 * or not it has been read into a string.
+	 * @see VirtualLocation#defaultUpdateAutomatic(String)
+	 */
+	public void defaultUpdate(VirtualLocation location)
+	throws IOException
+	{
+		if(lexemeSource != null) location.defaultUpdateAutomatic(lexemeSource,lexemeBegin,lexemeEnd);
+		else location.defaultUpdateAutomatic(lexeme);
+	}
 }
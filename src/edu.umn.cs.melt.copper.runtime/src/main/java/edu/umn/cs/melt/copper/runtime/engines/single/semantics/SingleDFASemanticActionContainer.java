@@ -13,7 +13,14 @@ import edu.umn.cs.melt.copper.runtime.io.Location;
 public abstract class SingleDFASemanticActionContainer<EXCEPT extends Exception> implements SemanticActionContainer<SingleDFAMatchData,EXCEPT>
 {
 	protected InputPosition _pos;
+	/**
+	 * The semantic values of the children of the production being reduced,
+	 * starting at index <code>_childrenOffset</code>. Parsers whose action code
+	 * refers to <code>_children</code> pass an array of the children alone,
+	 * so that the offset is 0.
+	 */
 	protected Object[] _children;
+	protected int _childrenOffset;
 	protected int _prod;
 	protected SingleDFAMatchData _terminal;
 	protected SpecialParserAttributes _specialAttributes;
@@ -0,0 +1,50 @@
+package edu.umn.cs.melt.copper.runtime.io;
+
+import java.io.IOException;
+
+/**
+ * A scanner buffer over a slice of a character array held in memory in full.
+ * The array must not change while it is being scanned.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+class CharArrayScannerBuffer extends ScannerBuffer
+{
+	private char[] text;
+	private int offset;
+	private int length;
+	
+	protected CharArrayScannerBuffer(char[] text,int offset,int length)
+	{
+		this.text = text;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public char charAt(long pos)
+	throws IOException
+	{
+		if(pos >= length) return EOFIndicator;
+		return text[offset + (int) pos];
+	}
+
+	@Override
+	public void advanceBufferTo(long newBufferBegin)
+	throws IOException
+	{
+		// The whole input is held, so nothing need be discarded.
+	}
+
+	@Override
+	public boolean keepsAllInput()
+	{
+		return true;
+	}
+
+	@Override
+	public String readStringFromBuffer(long begin,long end)
+	throws IOException
+	{
+		return new String(text,offset + (int) begin,(int) (end - begin));
+	}
+}
@@ -0,0 +1,48 @@
+package edu.umn.cs.melt.copper.runtime.io;
+
+import java.io.IOException;
+
+/**
+ * A scanner buffer over input that is already held in memory in full.
+ * The sequence must not change while it is being scanned.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+class CharSequenceScannerBuffer extends ScannerBuffer
+{
+	private CharSequence text;
+	private int length;
+	
+	protected CharSequenceScannerBuffer(CharSequence text)
+	{
+		this.text = text;
+		this.length = text.length();
+	}
+
+	@Override
+	public char charAt(long pos)
+	throws IOException
+	{
+		if(pos >= length) return EOFIndicator;
+		return text.charAt((int) pos);
+	}
+
+	@Override
+	public void advanceBufferTo(long newBufferBegin)
+	throws IOException
+	{
+		// The whole input is held, so nothing need be discarded.
+	}
+
+	@Override
+	public boolean keepsAllInput()
+	{
+		return true;
+	}
+
+	@Override
+	public String readStringFromBuffer(long begin,long end)
+	throws IOException
+	{
+		return text.subSequence((int) begin,(int) end).toString();
+	}
+}
@@ -44,6 +44,21 @@ class InputPositionFull extends InputPosition
     	// DEBUG-X-END
     }
     
+    /**
+     * Creates an instance of InputPosition with known line and column.
+     * @param fileName The filename.
+     * @param pos The offset in characters from the beginning of the input.
+     * @param line The line number.
+     * @param column The column number.
+     */
+    protected InputPositionFull(String fileName,long pos,int line,int column)
+    {
+    	this.fileName = fileName;
+    	this.pos = pos;
+    	this.line = line;
+    	this.posSinceNewline = column;
+    }
+    
     /**
      * Creates an instance of InputPosition with a new filename.
      * @param ref The reference position.
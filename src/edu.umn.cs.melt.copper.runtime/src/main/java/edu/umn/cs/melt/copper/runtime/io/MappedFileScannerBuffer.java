@@ -0,0 +1,234 @@
+package edu.umn.cs.melt.copper.runtime.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A scanner buffer over a memory-mapped file. If the file's character set
+ * encodes every character in one byte, characters are read straight from the
+ * mapping through a table. Otherwise, the file is decoded once, as the scanner
+ * reaches it, into fixed-size blocks of characters, which are dropped as the
+ * buffer advances past them.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+class MappedFileScannerBuffer extends ScannerBuffer
+{
+	/** Mappings are made in segments of 2^SEGMENT_BITS bytes. */
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+	/** Each segment is mapped with this many bytes of the next, so that no multi-byte character is split between segments. */
+	private static final int SEGMENT_OVERLAP = 16;
+	private static final int BLOCK_BITS = 16;
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private MappedByteBuffer[] segments;
+	private long byteLength;
+
+	/** For single-byte character sets, the character encoded by each byte; otherwise <code>null</code>. */
+	private char[] byteTable;
+
+	private CharsetDecoder decoder;
+	/** Blocks of decoded characters; those before the start of the buffer are <code>null</code>. */
+	private char[][] blocks;
+	/** The number of characters decoded so far. */
+	private long decodedTo;
+	/** The offset of the first byte not yet decoded. */
+	private long bytePos;
+	private boolean flushing,decodingFinished;
+
+	protected MappedFileScannerBuffer(Path file,Charset charset)
+	throws IOException
+	{
+		FileChannel channel = FileChannel.open(file,StandardOpenOption.READ);
+		try
+		{
+			byteLength = channel.size();
+			int segmentCount = (int) ((byteLength + SEGMENT_MASK) >>> SEGMENT_BITS);
+			segments = new MappedByteBuffer[segmentCount];
+			for(int i = 0;i < segmentCount;i++)
+			{
+				long start = ((long) i) << SEGMENT_BITS;
+				long size = Math.min(byteLength - start,(1L << SEGMENT_BITS) + SEGMENT_OVERLAP);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,start,size);
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		byteTable = singleByteTable(charset);
+		if(byteTable == null)
+		{
+			decoder = charset.newDecoder()
+			                 .onMalformedInput(CodingErrorAction.REPLACE)
+			                 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+			blocks = new char[16][];
+			decodedTo = 0;
+			bytePos = 0;
+			flushing = false;
+			decodingFinished = false;
+		}
+	}
+
+	/**
+	 * Builds a table of the characters encoded by each byte, if a character
+	 * set encodes each character in exactly one byte.
+	 */
+	private static char[] singleByteTable(Charset charset)
+	{
+		if(!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f) return null;
+		CharsetDecoder decoder = charset.newDecoder();
+		if(decoder.maxCharsPerByte() != 1.0f) return null;
+		decoder.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		char[] rv = new char[256];
+		byte[] oneByte = new byte[1];
+		for(int b = 0;b < 256;b++)
+		{
+			oneByte[0] = (byte) b;
+			try
+			{
+				CharBuffer decoded = decoder.reset().decode(ByteBuffer.wrap(oneByte));
+				if(decoded.remaining() != 1) return null;
+				rv[b] = decoded.get();
+			}
+			catch(CharacterCodingException ex)
+			{
+				return null;
+			}
+		}
+		return rv;
+	}
+
+	private byte byteAt(long pos)
+	{
+		return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+	}
+
+	/**
+	 * Decodes another stretch of the file, up to the end of the present block or segment.
+	 * @return <code>false</code> if the whole file has already been decoded.
+	 */
+	private boolean decodeMore()
+	{
+		if(decodingFinished) return false;
+		int blockNum = (int) (decodedTo >>> BLOCK_BITS);
+		int blockOffset = (int) (decodedTo & BLOCK_MASK);
+		if(blockNum >= blocks.length) blocks = Arrays.copyOf(blocks,blocks.length * 2);
+		if(blocks[blockNum] == null) blocks[blockNum] = new char[BLOCK_SIZE];
+		// A surrogate pair may not fit at the end of a block; decode into a scratch buffer there.
+		boolean scratch = BLOCK_SIZE - blockOffset < 2;
+		CharBuffer out = scratch ? CharBuffer.allocate(2) : CharBuffer.wrap(blocks[blockNum],blockOffset,BLOCK_SIZE - blockOffset);
+		int outStart = out.position();
+
+		CoderResult result;
+		if(flushing) result = decoder.flush(out);
+		else
+		{
+			ByteBuffer in;
+			boolean endOfInput;
+			if(bytePos >= byteLength)
+			{
+				in = ByteBuffer.allocate(0);
+				endOfInput = true;
+			}
+			else
+			{
+				int segmentNum = (int) (bytePos >>> SEGMENT_BITS);
+				in = segments[segmentNum].duplicate();
+				in.position((int) (bytePos & SEGMENT_MASK));
+				endOfInput = (((long) segmentNum) << SEGMENT_BITS) + in.limit() == byteLength;
+			}
+			int inStart = in.position();
+			result = decoder.decode(in,out,endOfInput);
+			bytePos += in.position() - inStart;
+			if(endOfInput && result.isUnderflow())
+			{
+				flushing = true;
+				result = decoder.flush(out);
+			}
+		}
+		if(flushing && result.isUnderflow()) decodingFinished = true;
+
+		if(!scratch) decodedTo += out.position() - outStart;
+		else
+		{
+			out.flip();
+			while(out.hasRemaining())
+			{
+				blockNum = (int) (decodedTo >>> BLOCK_BITS);
+				if(blockNum >= blocks.length) blocks = Arrays.copyOf(blocks,blocks.length * 2);
+				if(blocks[blockNum] == null) blocks[blockNum] = new char[BLOCK_SIZE];
+				blocks[blockNum][(int) (decodedTo & BLOCK_MASK)] = out.get();
+				decodedTo++;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public char charAt(long pos)
+	throws IOException
+	{
+		if(byteTable != null)
+		{
+			if(pos >= byteLength) return EOFIndicator;
+			return byteTable[byteAt(pos) & 0xFF];
+		}
+		while(pos >= decodedTo)
+		{
+			if(!decodeMore()) return EOFIndicator;
+		}
+		return blocks[(int) (pos >>> BLOCK_BITS)][(int) (pos & BLOCK_MASK)];
+	}
+
+	@Override
+	public void advanceBufferTo(long newBufferBegin)
+	throws IOException
+	{
+		if(byteTable != null) return;
+		advanceNewlineIndexTo(newBufferBegin);
+		int firstKept = (int) (newBufferBegin >>> BLOCK_BITS);
+		for(int i = Math.min(firstKept,blocks.length) - 1;i >= 0 && blocks[i] != null;i--) blocks[i] = null;
+	}
+
+	@Override
+	public boolean keepsAllInput()
+	{
+		return byteTable != null;
+	}
+
+	@Override
+	public String readStringFromBuffer(long begin,long end)
+	throws IOException
+	{
+		char[] rv = new char[(int) (end - begin)];
+		if(byteTable != null)
+		{
+			for(int i = 0;i < rv.length;i++) rv[i] = byteTable[byteAt(begin + i) & 0xFF];
+			return new String(rv);
+		}
+		if(end > decodedTo) charAt(end - 1);
+		for(int i = 0;i < rv.length;)
+		{
+			long pos = begin + i;
+			int offset = (int) (pos & BLOCK_MASK);
+			int length = Math.min(rv.length - i,BLOCK_SIZE - offset);
+			System.arraycopy(blocks[(int) (pos >>> BLOCK_BITS)],offset,rv,i,length);
+			i += length;
+		}
+		return new String(rv);
+	}
+}
@@ -0,0 +1,357 @@
+package edu.umn.cs.melt.copper.runtime.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * A scanner buffer whose input is pushed to it in chunks, rather than pulled
+ * from a reader. Asking for a character past the end of the input fed so far,
+ * before the end of input has been marked, throws {@link MoreInputNeeded}
+ * instead of blocking. Characters are kept in fixed-size blocks, which are
+ * dropped as the buffer advances past them. For parsers whose scanners read
+ * bytes, the buffer may instead hold the UTF-8 encoding of the input, each
+ * byte taking the place of a character in the blocks.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+public class PushScannerBuffer extends ScannerBuffer
+{
+	private static final int BLOCK_BITS = 12;
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Thrown when a character is asked for that has not yet been fed.
+	 * A single instance, without a stack trace, is thrown every time.
+	 */
+	public static final class MoreInputNeeded extends IOException
+	{
+		private static final long serialVersionUID = -2687102913460557447L;
+
+		private MoreInputNeeded()
+		{
+			super("More input is needed");
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace()
+		{
+			return this;
+		}
+	}
+
+	private static final MoreInputNeeded MORE_INPUT_NEEDED = new MoreInputNeeded();
+
+	/** Blocks of characters, the first being block number <code>firstBlock</code>; those before the start of the buffer are <code>null</code>. */
+	private char[][] blocks;
+	private long firstBlock;
+	/** The number of characters fed so far. */
+	private long end;
+	private boolean ended;
+
+	/** The decoder of bytes fed, or <code>null</code> if only characters may be fed or bytes are kept as they are. */
+	private CharsetDecoder decoder;
+	/** Bytes fed that do not yet make up a whole character. */
+	private ByteBuffer pendingBytes;
+	private CharBuffer decoded;
+	/** <code>true</code> if bytes fed are UTF-8, and are kept as they are. */
+	private boolean keepsBytes;
+
+	/** If the buffer holds UTF-8 bytes, the encoder of characters fed; otherwise <code>null</code>. */
+	private CharsetEncoder encoder;
+	/** Characters fed that are not yet encoded, such as the first half of a surrogate pair; in write mode. */
+	private CharBuffer pendingChars;
+	private ByteBuffer encoded;
+
+	/**
+	 * Creates a buffer to which characters may be fed.
+	 */
+	public PushScannerBuffer()
+	{
+		blocks = new char[4][];
+		firstBlock = 0;
+		end = 0;
+		ended = false;
+	}
+
+	/**
+	 * Creates a buffer to which characters, or bytes in a given character set, may be fed.
+	 * @param charset The character set in which bytes fed are encoded.
+	 */
+	public PushScannerBuffer(Charset charset)
+	{
+		this(charset,false);
+	}
+
+	/**
+	 * Creates a buffer to which characters, or bytes in a given character set,
+	 * may be fed, holding either the characters or their UTF-8 encoding.
+	 * @param charset The character set in which bytes fed are encoded, or
+	 * <code>null</code> if only characters may be fed.
+	 * @param utf8 If <code>true</code>, the buffer holds the UTF-8 encoding of
+	 * the input, each position being a byte offset, for scanners reading bytes.
+	 */
+	public PushScannerBuffer(Charset charset,boolean utf8)
+	{
+		this();
+		if(utf8)
+		{
+			encoder = UTF_8.newEncoder()
+			               .onMalformedInput(CodingErrorAction.REPLACE)
+			               .onUnmappableCharacter(CodingErrorAction.REPLACE);
+			pendingChars = CharBuffer.allocate(BLOCK_SIZE);
+			encoded = ByteBuffer.allocate(4 * BLOCK_SIZE);
+			// ASCII is a subset of UTF-8; bytes in either are kept as they are.
+			keepsBytes = charset != null && (charset.equals(UTF_8) || charset.name().equals("US-ASCII"));
+		}
+		if(charset != null && !keepsBytes)
+		{
+			decoder = charset.newDecoder()
+			                 .onMalformedInput(CodingErrorAction.REPLACE)
+			                 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+			pendingBytes = ByteBuffer.allocate(Math.max(16,2 * (int) Math.ceil(charset.newEncoder().maxBytesPerChar())));
+			decoded = CharBuffer.allocate(BLOCK_SIZE);
+		}
+	}
+
+	/**
+	 * @return The number of characters fed so far.
+	 */
+	public long getLength()
+	{
+		return end;
+	}
+
+	/**
+	 * @return <code>true</code> if the end of input has been marked.
+	 */
+	public boolean isEnded()
+	{
+		return ended;
+	}
+
+	@Override
+	public boolean isUtf8()
+	{
+		return encoder != null;
+	}
+
+	/**
+	 * Appends the remaining characters of a buffer to the input.
+	 * @param chunk The characters; the buffer's position is moved to its limit.
+	 */
+	public void append(CharBuffer chunk)
+	{
+		if(ended) throw new IllegalStateException("End of input has already been marked");
+		if(pendingBytes != null && pendingBytes.position() > 0) throw new IllegalStateException("Characters fed in the middle of an encoded character");
+		appendChars(chunk);
+	}
+
+	private void appendChars(CharBuffer chunk)
+	{
+		if(encoder != null)
+		{
+			encode(chunk,false);
+			return;
+		}
+		while(chunk.hasRemaining())
+		{
+			int offset = (int) (end & BLOCK_MASK);
+			int length = Math.min(chunk.remaining(),BLOCK_SIZE - offset);
+			chunk.get(blockFor(end),offset,length);
+			end += length;
+		}
+	}
+
+	/**
+	 * Appends bytes, each as the character of the same value.
+	 */
+	private void appendBytes(ByteBuffer chunk)
+	{
+		while(chunk.hasRemaining())
+		{
+			char[] block = blockFor(end);
+			int offset = (int) (end & BLOCK_MASK);
+			int length = Math.min(chunk.remaining(),BLOCK_SIZE - offset);
+			for(int i = 0;i < length;i++) block[offset + i] = (char) (chunk.get() & 0xFF);
+			end += length;
+		}
+	}
+
+	/**
+	 * Decodes the remaining bytes of a buffer and appends them to the input.
+	 * Bytes at the end of the buffer that do not make up a whole character
+	 * are kept until the rest of the character is fed.
+	 * @param chunk The bytes; the buffer's position is moved to its limit.
+	 */
+	public void append(ByteBuffer chunk)
+	{
+		if(ended) throw new IllegalStateException("End of input has already been marked");
+		if(keepsBytes)
+		{
+			if(pendingChars.position() > 0) throw new IllegalStateException("Bytes fed in the middle of a surrogate pair");
+			appendBytes(chunk);
+			return;
+		}
+		if(decoder == null) throw new IllegalStateException("No character set was given for decoding bytes");
+		// Complete a character split between chunks a byte at a time.
+		while(pendingBytes.position() > 0 && chunk.hasRemaining())
+		{
+			pendingBytes.put(chunk.get());
+			pendingBytes.flip();
+			decode(pendingBytes,false);
+			pendingBytes.compact();
+		}
+		decode(chunk,false);
+		pendingBytes.put(chunk);
+	}
+
+	/**
+	 * Marks the end of the input, after which no more may be fed.
+	 */
+	public void endOfInput()
+	{
+		if(ended) return;
+		if(decoder != null)
+		{
+			// A character left incomplete is replaced.
+			pendingBytes.flip();
+			decode(pendingBytes,true);
+			CoderResult result;
+			do
+			{
+				result = decoder.flush(decoded);
+				appendDecoded();
+			}
+			while(result.isOverflow());
+		}
+		if(encoder != null)
+		{
+			encode(CharBuffer.allocate(0),true);
+			CoderResult result;
+			do
+			{
+				result = encoder.flush(encoded);
+				appendEncoded();
+			}
+			while(result.isOverflow());
+		}
+		ended = true;
+	}
+
+	private void decode(ByteBuffer in,boolean endOfInput)
+	{
+		CoderResult result;
+		do
+		{
+			result = decoder.decode(in,decoded,endOfInput);
+			appendDecoded();
+		}
+		while(result.isOverflow());
+	}
+
+	private void appendDecoded()
+	{
+		decoded.flip();
+		appendChars(decoded);
+		decoded.clear();
+	}
+
+	/**
+	 * Encodes characters in UTF-8 and appends the bytes, keeping the first
+	 * half of a surrogate pair at the end until the second is fed.
+	 */
+	private void encode(CharBuffer in,boolean endOfInput)
+	{
+		while(in.hasRemaining() || endOfInput)
+		{
+			int length = Math.min(in.remaining(),pendingChars.remaining());
+			CharBuffer part = in.duplicate();
+			part.limit(part.position() + length);
+			pendingChars.put(part);
+			in.position(in.position() + length);
+			pendingChars.flip();
+			CoderResult result;
+			do
+			{
+				result = encoder.encode(pendingChars,encoded,endOfInput && !in.hasRemaining());
+				appendEncoded();
+			}
+			while(result.isOverflow());
+			pendingChars.compact();
+			if(!in.hasRemaining()) break;
+		}
+	}
+
+	private void appendEncoded()
+	{
+		encoded.flip();
+		appendBytes(encoded);
+		encoded.clear();
+	}
+
+	/**
+	 * Returns the block holding a given position, creating it if need be.
+	 */
+	private char[] blockFor(long pos)
+	{
+		int index = (int) ((pos >>> BLOCK_BITS) - firstBlock);
+		if(index >= blocks.length) blocks = Arrays.copyOf(blocks,Math.max(blocks.length * 2,index + 1));
+		if(blocks[index] == null) blocks[index] = new char[BLOCK_SIZE];
+		return blocks[index];
+	}
+
+	@Override
+	public char charAt(long pos)
+	throws IOException
+	{
+		if(pos >= end)
+		{
+			if(ended) return EOFIndicator;
+			throw MORE_INPUT_NEEDED;
+		}
+		return blocks[(int) ((pos >>> BLOCK_BITS) - firstBlock)][(int) (pos & BLOCK_MASK)];
+	}
+
+	@Override
+	public void advanceBufferTo(long newBufferBegin)
+	throws IOException
+	{
+		advanceNewlineIndexTo(newBufferBegin);
+		int dropped = (int) ((newBufferBegin >>> BLOCK_BITS) - firstBlock);
+		if(dropped <= 0) return;
+		// Keep the array of blocks from growing over a long input.
+		dropped = Math.min(dropped,blocks.length);
+		System.arraycopy(blocks,dropped,blocks,0,blocks.length - dropped);
+		Arrays.fill(blocks,blocks.length - dropped,blocks.length,null);
+		firstBlock += dropped;
+	}
+
+	@Override
+	public String readStringFromBuffer(long begin,long end)
+	throws IOException
+	{
+		if(end > this.end) charAt(end - 1);
+		char[] rv = new char[(int) (end - begin)];
+		for(int i = 0;i < rv.length;)
+		{
+			long pos = begin + i;
+			int offset = (int) (pos & BLOCK_MASK);
+			int length = Math.min(rv.length - i,BLOCK_SIZE - offset);
+			System.arraycopy(blocks[(int) ((pos >>> BLOCK_BITS) - firstBlock)],offset,rv,i,length);
+			i += length;
+		}
+		if(encoder == null) return new String(rv);
+		byte[] bytes = new byte[rv.length];
+		for(int i = 0;i < rv.length;i++) bytes[i] = (byte) rv[i];
+		return new String(bytes,UTF_8);
+	}
+}
@@ -2,6 +2,11 @@ package edu.umn.cs.melt.copper.runtime.io;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * A "sliding window" scanner buffer to hold the portion of the parser's
@@ -21,6 +26,95 @@ public abstract class ScannerBuffer
 		return new SlidingWindowScannerBuffer(reader);
 	}
 
+	/**
+	 * Constructs a new scanner buffer over input held in memory.
+	 * @param text The parser's input, which must not change while it is being scanned.
+	 * @return An instance of ScannerBuffer reading directly from <code>text</code>.
+	 */
+	public static ScannerBuffer instantiate(CharSequence text)
+	{
+		if(text instanceof CharBuffer && ((CharBuffer) text).hasArray())
+		{
+			CharBuffer buffer = (CharBuffer) text;
+			return new CharArrayScannerBuffer(buffer.array(),buffer.arrayOffset() + buffer.position(),buffer.remaining());
+		}
+		return new CharSequenceScannerBuffer(text);
+	}
+
+	/**
+	 * Constructs a new scanner buffer over a slice of a character array.
+	 * @param text The array holding the parser's input, which must not change while it is being scanned.
+	 * @param offset The index of the first character of the input.
+	 * @param length The length of the input.
+	 * @return An instance of ScannerBuffer reading directly from <code>text</code>.
+	 */
+	public static ScannerBuffer instantiate(char[] text,int offset,int length)
+	{
+		if(offset < 0 || length < 0 || offset + length > text.length) throw new IndexOutOfBoundsException();
+		return new CharArrayScannerBuffer(text,offset,length);
+	}
+
+	/**
+	 * Constructs a new scanner buffer over a memory-mapped file.
+	 * @param file The file holding the parser's input, which must not change while it is being scanned.
+	 * @param charset The character set in which the file is encoded.
+	 * @return An instance of ScannerBuffer reading from a mapping of <code>file</code>.
+	 * @throws IOException If the file could not be opened or mapped.
+	 */
+	public static ScannerBuffer instantiate(Path file,Charset charset)
+	throws IOException
+	{
+		return new MappedFileScannerBuffer(file,charset);
+	}
+
+	/**
+	 * Constructs a new scanner buffer over UTF-8 bytes, for parsers whose
+	 * scanners read bytes rather than characters.
+	 * @param bytes The parser's input, from the buffer's position to its limit;
+	 * it must not change while it is being scanned.
+	 * @return An instance of ScannerBuffer reading directly from <code>bytes</code>.
+	 */
+	public static ScannerBuffer instantiateUtf8(ByteBuffer bytes)
+	{
+		return new Utf8ScannerBuffer(bytes);
+	}
+
+	/**
+	 * Constructs a new scanner buffer over the UTF-8 encoding of input held in memory.
+	 * @param text The parser's input.
+	 * @return An instance of ScannerBuffer reading from the encoding of <code>text</code>.
+	 */
+	public static ScannerBuffer instantiateUtf8(CharSequence text)
+	{
+		return new Utf8ScannerBuffer(UTF_8.encode(CharBuffer.wrap(text)));
+	}
+
+	/**
+	 * Constructs a new scanner buffer over the UTF-8 encoding of a reader's contents,
+	 * encoding them as they are scanned.
+	 * @param reader The parser's input.
+	 * @return An instance of ScannerBuffer with the sliding window set at the reader's present position
+	 * with a size of 0.
+	 */
+	public static ScannerBuffer instantiateUtf8(Reader reader)
+	{
+		return new SlidingWindowUtf8ScannerBuffer(reader);
+	}
+
+	/**
+	 * Constructs a new scanner buffer over a memory-mapped file of UTF-8 (or ASCII) bytes.
+	 * @param file The file holding the parser's input, which must not change while it is being scanned.
+	 * @return An instance of ScannerBuffer reading from a mapping of <code>file</code>.
+	 * @throws IOException If the file could not be opened or mapped.
+	 */
+	public static ScannerBuffer instantiateUtf8(Path file)
+	throws IOException
+	{
+		return new Utf8ScannerBuffer(file);
+	}
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	/** The character used to indicate "end of file." */
 	public static char EOFIndicator = Character.MIN_VALUE;
 
@@ -51,4 +145,206 @@ public abstract class ScannerBuffer
 	 */
 	public abstract String readStringFromBuffer(long begin,long end) throws IOException;
 
+	/**
+	 * @return <code>true</code> if characters stay in this buffer after it
+	 * advances past them; by default, <code>false</code>.
+	 */
+	public boolean keepsAllInput()
+	{
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if this buffer holds UTF-8 bytes, each position
+	 * being a byte offset and each "character" a byte value.
+	 */
+	public boolean isUtf8()
+	{
+		return false;
+	}
+
+	/**
+	 * Counts the characters, in UTF-16 code units, that a byte begins in UTF-8:
+	 * none for a continuation byte, two for the first byte of a character
+	 * outside the Basic Multilingual Plane, one otherwise.
+	 * @param b A byte value, 0 to 255.
+	 */
+	public static int utf8Width(int b)
+	{
+		if((b & 0xC0) == 0x80) return 0;
+		else if(b >= 0xF0) return 2;
+		else return 1;
+	}
+
+	/**
+	 * Counts the characters between two positions on the same line. In a
+	 * buffer of UTF-8 bytes, characters are counted in UTF-16 code units,
+	 * from counts kept as the newline index is built where the bytes may
+	 * already have been dropped.
+	 * @param begin The first position.
+	 * @param end The position one past the last.
+	 * @return The number of characters, <code>end - begin</code> unless the buffer holds UTF-8 bytes.
+	 * @throws IOException If an error occurred reading input.
+	 */
+	protected int charsBetween(long begin,long end)
+	throws IOException
+	{
+		if(!isUtf8()) return (int) (end - begin);
+		if(begin == lineBegin && end <= indexedTo) return (int) (charsIndexed - charsBeforeLine - utf8CharsBetween(end,indexedTo));
+		return (int) utf8CharsBetween(begin,end);
+	}
+
+	private long utf8CharsBetween(long begin,long end)
+	throws IOException
+	{
+		long rv = 0;
+		for(long pos = begin;pos < end;pos++) rv += utf8Width(charAt(pos));
+		return rv;
+	}
+
+	/**
+	 * Offsets of the newline characters passed so far, in ascending order,
+	 * save the first <code>newlinesDropped</code>, which are no longer needed.
+	 */
+	private long[] newlineIndex = new long[64];
+	private int newlineCount = 0;
+	private int newlinesDropped = 0;
+	/** The offset up to which the newline index has been built. */
+	private long indexedTo = 0;
+	/**
+	 * In a buffer of UTF-8 bytes, the number of characters before <code>indexedTo</code>;
+	 * the start of the last line begun before it, or of the origin if later;
+	 * and the number of characters before that.
+	 */
+	private long charsIndexed = 0,lineBegin = 0,charsBeforeLine = 0;
+
+	/**
+	 * Extends the newline index to cover all characters before a given position.
+	 * @param pos The position up to which to index.
+	 * @throws IOException If an error occurred reading input.
+	 */
+	protected void indexNewlinesTo(long pos) throws IOException
+	{
+		boolean utf8 = isUtf8();
+		for(;indexedTo < pos;indexedTo++)
+		{
+			char c = charAt(indexedTo);
+			if(utf8) charsIndexed += utf8Width(c);
+			if(c == '\n')
+			{
+				if(newlineCount == newlineIndex.length) newlineIndex = Arrays.copyOf(newlineIndex,newlineCount * 2);
+				newlineIndex[newlineCount++] = indexedTo;
+				lineBegin = indexedTo + 1;
+				charsBeforeLine = charsIndexed;
+			}
+		}
+	}
+
+	/**
+	 * Extends the newline index to a position to which the buffer is
+	 * advancing, and drops from it the newlines that lines and columns of
+	 * positions from there on do not need: all but the last one before it.
+	 * Buffers that discard their contents must call this before advancing,
+	 * after which no position before <code>pos</code> may be looked up.
+	 * @param pos The new beginning point of the buffer.
+	 * @throws IOException If an error occurred reading input.
+	 */
+	protected void advanceNewlineIndexTo(long pos) throws IOException
+	{
+		int dropped = newlinesBefore(pos) - newlinesDropped - 1;
+		// Move the index only once half of it has been dropped, so that each newline is moved a bounded number of times.
+		if(dropped < newlineIndex.length / 2) return;
+		System.arraycopy(newlineIndex,dropped,newlineIndex,0,newlineCount - dropped);
+		newlineCount -= dropped;
+		newlinesDropped += dropped;
+	}
+
+	/**
+	 * Counts the newline characters before a given position.
+	 * @param pos An input position.
+	 * @return The number of newlines at offsets less than <code>pos</code>.
+	 * @throws IOException If an error occurred reading input.
+	 */
+	private int newlinesBefore(long pos) throws IOException
+	{
+		indexNewlinesTo(pos);
+		// Positions are nearly always requested at or near the end of the index.
+		if(newlineCount == 0 || newlineIndex[newlineCount - 1] < pos) return newlinesDropped + newlineCount;
+		int low = 0,high = newlineCount - 1;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(newlineIndex[mid] < pos) low = mid + 1;
+			else high = mid;
+		}
+		return newlinesDropped + low;
+	}
+
+	/** The position at which the input starts, and its line and column. */
+	private long originPos = 0;
+	private int originLine = 1,originColumn = 0;
+	/** The number of newlines before <code>originPos</code>. */
+	private int originNewlines = 0;
+
+	/**
+	 * Sets the position from which lines and columns are counted.
+	 * By default, the first character is at line 1, column 0.
+	 * @param origin The position at which the input starts; its offset, line and column are used.
+	 * @throws IOException If an error occurred reading input.
+	 */
+	public void setOrigin(InputPosition origin) throws IOException
+	{
+		originPos = origin.getPos();
+		originLine = origin.getLine();
+		originColumn = origin.getColumn();
+		originNewlines = newlinesBefore(originPos);
+		if(indexedTo == originPos)
+		{
+			lineBegin = originPos;
+			charsBeforeLine = charsIndexed;
+		}
+	}
+
+	/**
+	 * Gets the line number of a given position in the input.
+	 * @param pos An input position.
+	 * @return The line number, counted from that of the origin (by default, 1).
+	 * @throws IOException If an error occurred reading input.
+	 */
+	public int getLine(long pos) throws IOException
+	{
+		return originLine + newlinesBefore(pos) - originNewlines;
+	}
+
+	/**
+	 * Gets the column number of a given position in the input.
+	 * @param pos An input position.
+	 * @return The number of characters between the last preceding newline and <code>pos</code>,
+	 * or if there is none since the origin, the origin's column plus the number of characters since it.
+	 * @throws IOException If an error occurred reading input.
+	 */
+	public int getColumn(long pos) throws IOException
+	{
+		return columnOf(newlinesBefore(pos),pos);
+	}
+
+	private int columnOf(int nlCount,long pos) throws IOException
+	{
+		if(nlCount == originNewlines) return originColumn + charsBetween(originPos,pos);
+		else return charsBetween(newlineIndex[nlCount - newlinesDropped - 1] + 1,pos);
+	}
+
+	/**
+	 * Builds an {@link InputPosition} object for a given position in the input,
+	 * taking its line and column from the newline index.
+	 * @param fileName The name of the input.
+	 * @param pos An input position.
+	 * @return The position object.
+	 * @throws IOException If an error occurred reading input.
+	 */
+	public InputPosition getPosition(String fileName,long pos) throws IOException
+	{
+		int nlCount = newlinesBefore(pos);
+		return new InputPositionFull(fileName,pos,originLine + nlCount - originNewlines,columnOf(nlCount,pos));
+	}
 }
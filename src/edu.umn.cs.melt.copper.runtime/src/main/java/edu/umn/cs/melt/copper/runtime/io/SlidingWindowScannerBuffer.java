@@ -47,6 +47,7 @@ class SlidingWindowScannerBuffer extends ScannerBuffer
 		// DEBUG-X-BEGIN
 		//System.err.println("advanceBufferTo(" + newBufferBegin + ")");
 		// DEBUG-X-END
+		advanceNewlineIndexTo(newBufferBegin);
 		head = (head + (int)(newBufferBegin - bufferBegin)) % circleBuffer.length;
 		bufferBegin = newBufferBegin;
 		if(!eofReached && size() < (circleBuffer.length / 2))
@@ -0,0 +1,127 @@
+package edu.umn.cs.melt.copper.runtime.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A "sliding window" scanner buffer over the UTF-8 encoding of a reader's
+ * contents, for scanners reading bytes rather than characters. Characters are
+ * encoded as the scanner reaches them, and bytes are dropped as the buffer
+ * advances past them, so only the portion of the input presently being used
+ * is held. Positions are byte offsets.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+class SlidingWindowUtf8ScannerBuffer extends ScannerBuffer
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int defaultInitialCapacity = 8192;
+	/** The least room to leave at the end of the window before encoding more characters into it. */
+	private static final int minimumRoom = 1024;
+
+	private Reader reader;
+	private CharsetEncoder encoder;
+	/** Characters read but not yet encoded, such as the first half of a surrogate pair; in write mode. */
+	private CharBuffer chars;
+	private boolean eofReached,flushing,encodingFinished;
+
+	/** The bytes from <code>windowBegin</code> to <code>windowBegin + filled</code>. */
+	private byte[] window;
+	private int filled;
+	private long windowBegin,bufferBegin;
+
+	protected SlidingWindowUtf8ScannerBuffer(Reader reader)
+	{
+		this.reader = reader;
+		encoder = UTF_8.newEncoder()
+		               .onMalformedInput(CodingErrorAction.REPLACE)
+		               .onUnmappableCharacter(CodingErrorAction.REPLACE);
+		chars = CharBuffer.allocate(defaultInitialCapacity);
+		window = new byte[defaultInitialCapacity];
+		filled = 0;
+		windowBegin = 0;
+		bufferBegin = 0;
+		eofReached = false;
+		flushing = false;
+		encodingFinished = false;
+	}
+
+	/**
+	 * Encodes more of the input onto the end of the window, first moving
+	 * the buffer's bytes to the front of it or growing it if it is short of room.
+	 * @return <code>false</code> if the whole input has already been encoded.
+	 */
+	private boolean encodeMore()
+	throws IOException
+	{
+		if(encodingFinished) return false;
+		if(window.length - filled < minimumRoom)
+		{
+			long keptBegin = Math.min(bufferBegin,windowBegin + filled);
+			int kept = filled - (int) (keptBegin - windowBegin);
+			byte[] newWindow = (window.length - kept < 2 * minimumRoom) ? new byte[window.length * 2] : window;
+			System.arraycopy(window,(int) (keptBegin - windowBegin),newWindow,0,kept);
+			window = newWindow;
+			filled = kept;
+			windowBegin = keptBegin;
+		}
+		ByteBuffer out = ByteBuffer.wrap(window,filled,window.length - filled);
+
+		CoderResult result;
+		if(flushing) result = encoder.flush(out);
+		else
+		{
+			if(!eofReached && chars.hasRemaining() && reader.read(chars) < 0) eofReached = true;
+			chars.flip();
+			result = encoder.encode(chars,out,eofReached);
+			chars.compact();
+			if(eofReached && result.isUnderflow())
+			{
+				flushing = true;
+				result = encoder.flush(out);
+			}
+		}
+		if(flushing && result.isUnderflow()) encodingFinished = true;
+
+		filled = out.position();
+		return true;
+	}
+
+	@Override
+	public char charAt(long pos)
+	throws IOException
+	{
+		while(pos >= windowBegin + filled)
+		{
+			if(!encodeMore()) return EOFIndicator;
+		}
+		return (char) (window[(int) (pos - windowBegin)] & 0xFF);
+	}
+
+	@Override
+	public void advanceBufferTo(long newBufferBegin)
+	throws IOException
+	{
+		advanceNewlineIndexTo(newBufferBegin);
+		bufferBegin = newBufferBegin;
+	}
+
+	@Override
+	public String readStringFromBuffer(long begin,long end)
+	throws IOException
+	{
+		if(end > begin) charAt(end - 1);
+		return new String(window,(int) (begin - windowBegin),(int) (end - begin),UTF_8);
+	}
+
+	@Override
+	public boolean isUtf8()
+	{
+		return true;
+	}
+}
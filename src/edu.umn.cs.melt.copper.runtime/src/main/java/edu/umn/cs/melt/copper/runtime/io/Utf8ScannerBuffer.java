@@ -0,0 +1,118 @@
+package edu.umn.cs.melt.copper.runtime.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A scanner buffer over UTF-8 bytes held in memory or mapped from a file,
+ * for scanners reading bytes rather than characters. Each "character" is a
+ * byte value; positions are byte offsets. The bytes are held in segments of
+ * 2^SEGMENT_BITS, so that files of 2GB or more may be mapped. Bytes are
+ * decoded only when a lexeme is read, and columns are counted in characters.
+ * @author August Schwerdfeger &lt;<a href="mailto:schw0709@umn.edu">schw0709@umn.edu</a>&gt;
+ */
+class Utf8ScannerBuffer extends ScannerBuffer
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	/** The bytes; every segment but the last holds exactly SEGMENT_SIZE of them, from position 0. */
+	private final ByteBuffer[] segments;
+	private final long length;
+
+	/**
+	 * @param bytes The bytes, from the buffer's position to its limit; they must not change while they are being scanned.
+	 */
+	protected Utf8ScannerBuffer(ByteBuffer bytes)
+	{
+		this.length = bytes.remaining();
+		this.segments = new ByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+		for(int i = 0;i < segments.length;i++)
+		{
+			ByteBuffer segment = bytes.duplicate();
+			segment.position(bytes.position() + (int) (((long) i) << SEGMENT_BITS));
+			segment.limit(segment.position() + (int) Math.min(SEGMENT_SIZE,length - (((long) i) << SEGMENT_BITS)));
+			segments[i] = segment.slice();
+		}
+	}
+
+	/**
+	 * @param file The file holding the bytes, which must not change while it is being scanned.
+	 * @throws IOException If the file could not be opened or mapped.
+	 */
+	protected Utf8ScannerBuffer(Path file)
+	throws IOException
+	{
+		FileChannel channel = FileChannel.open(file,StandardOpenOption.READ);
+		try
+		{
+			this.length = channel.size();
+			this.segments = new ByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for(int i = 0;i < segments.length;i++)
+			{
+				long start = ((long) i) << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,start,Math.min(SEGMENT_SIZE,length - start));
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	@Override
+	public char charAt(long pos)
+	throws IOException
+	{
+		if(pos >= length) return EOFIndicator;
+		return (char) (segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK)) & 0xFF);
+	}
+
+	@Override
+	public void advanceBufferTo(long newBufferBegin)
+	throws IOException
+	{
+	}
+
+	@Override
+	public boolean keepsAllInput()
+	{
+		return true;
+	}
+
+	@Override
+	public String readStringFromBuffer(long begin,long end)
+	throws IOException
+	{
+		int count = (int) (end - begin);
+		if(count == 0) return "";
+		ByteBuffer first = segments[(int) (begin >>> SEGMENT_BITS)];
+		int firstOffset = (int) (begin & SEGMENT_MASK);
+		if(first.hasArray() && firstOffset + count <= first.limit()) return new String(first.array(),first.arrayOffset() + firstOffset,count,UTF_8);
+		// The lexeme may run from one segment into the next.
+		byte[] rv = new byte[count];
+		for(int i = 0;i < count;)
+		{
+			long pos = begin + i;
+			ByteBuffer slice = segments[(int) (pos >>> SEGMENT_BITS)].duplicate();
+			slice.position((int) (pos & SEGMENT_MASK));
+			int length = Math.min(count - i,slice.remaining());
+			slice.get(rv,i,length);
+			i += length;
+		}
+		return new String(rv,UTF_8);
+	}
+
+	@Override
+	public boolean isUtf8()
+	{
+		return true;
+	}
+}
@@ -0,0 +1,30 @@
+package parsers;
+
+%%
+%parser ChildrenGrammarParser
+
+%lex{
+    ignore terminal spaces ::= /[ \t\n]+/ in (), < (), > ();
+
+    terminal plus ::= /\+/ in (), < (), > ();
+    terminal lp ::= /\(/ in (), < (), > ();
+    terminal rp ::= /\)/ in (), < (), > ();
+    terminal String number ::= /[0-9]+/ in (), < (), > ()
+    {:
+        RESULT = lexeme;
+    :};
+%lex}
+
+%cf{
+    non terminal String E;
+
+    start with E;
+
+    precedence left plus;
+
+    E ::=
+       E plus E  {: RESULT = "(" + _children[0] + "+" + _children[2] + ")"; :}
+     | lp E rp   {: RESULT = (String) _children[_children.length - 2]; :}
+     | number    {: RESULT = (String) _children[0]; :}
+     ;
+%cf}
@@ -9,6 +9,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -26,8 +28,15 @@ import edu.umn.cs.melt.copper.runtime.logging.CopperException;
 public class CopperCompilerTests {
 	
 	public static void runCopperCompilerAPI(boolean shouldFail, CopperSkinType skin, File outputFile, String... specs) {
+		runCopperCompilerAPI(shouldFail, skin, outputFile, Collections.<String,Object>emptyMap(), specs);
+	}
+	
+	public static void runCopperCompilerAPI(boolean shouldFail, CopperSkinType skin, File outputFile, Map<String,Object> customSwitches, String... specs) {
 		ParserCompilerParameters args = new ParserCompilerParameters();
 		args.setUseSkin(skin);
+		for(Map.Entry<String,Object> customSwitch : customSwitches.entrySet()) {
+			args.setCustomSwitch(customSwitch.getKey(), customSwitch.getValue());
+		}
 		if(outputFile == null) {
 			args.setOutputType(CopperIOType.STREAM);
 			args.setOutputStream(new PrintStream(new ByteArrayOutputStream()));
@@ -2,12 +2,34 @@ package edu.umn.cs.melt.copper.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import javax.tools.JavaCompiler;
 import javax.tools.ToolProvider;
@@ -16,9 +38,22 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import edu.umn.cs.melt.copper.compiletime.srcbuilders.single.SingleDFACompilationProcess;
 import edu.umn.cs.melt.copper.main.CopperSkinType;
 import edu.umn.cs.melt.copper.runtime.RunParser;
+import edu.umn.cs.melt.copper.runtime.engines.CopperBatchParser;
+import edu.umn.cs.melt.copper.runtime.engines.CopperParseSession;
 import edu.umn.cs.melt.copper.runtime.engines.CopperParser;
+import edu.umn.cs.melt.copper.runtime.engines.CopperParserFactory;
+import edu.umn.cs.melt.copper.runtime.engines.single.CompressedParseTable;
+import edu.umn.cs.melt.copper.runtime.engines.single.ParseMetrics;
+import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAEngine;
+import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAIncrementalValidityChecker;
+import edu.umn.cs.melt.copper.runtime.engines.single.SingleDFAParseStackNode;
+import edu.umn.cs.melt.copper.runtime.engines.single.scanner.ScannerContextTable;
+import edu.umn.cs.melt.copper.runtime.engines.single.scanner.SingleDFAMatchData;
+import edu.umn.cs.melt.copper.runtime.io.InputPosition;
+import edu.umn.cs.melt.copper.runtime.logging.CopperSyntaxError;
 
 /**
  * Copper tests involving the running of a Copper parser.
@@ -31,6 +66,14 @@ public class CopperRuntimeTests {
 	private JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
 	
 	private CopperParser<?, ?> compileCopperParser(String parserClassName, CopperSkinType skin, String... specs) {
+		return compileCopperParser(parserClassName, skin, Collections.<String>emptyList(), specs);
+	}
+	
+	/**
+	 * Compiles a parser with some of the compiler's custom switches turned on.
+	 * The tables file of the external-tables switch is written beside the parser class.
+	 */
+	private CopperParser<?, ?> compileCopperParser(String parserClassName, CopperSkinType skin, List<String> switches, String... specs) {
 		CopperParser<?, ?> parser = null;
 		
 		try {
@@ -43,7 +86,12 @@ public class CopperRuntimeTests {
 			Files.createDirectories(parserOutputDir.toPath());
 			String parserClassSimpleName = parserClassPath[parserClassPath.length - 1];
 			File parserSrc = new File(parserOutputDir, parserClassSimpleName + ".java"); 
-			CopperCompilerTests.runCopperCompilerAPI(false, skin, parserSrc, specs);
+			Map<String,Object> customSwitches = new HashMap<String,Object>();
+			for(String customSwitch : switches) {
+				if(customSwitch.equals(SingleDFACompilationProcess.EXTERNAL_TABLES_SWITCH)) customSwitches.put(customSwitch, new File(parserOutputDir, parserClassSimpleName + ".tables"));
+				else customSwitches.put(customSwitch, true);
+			}
+			CopperCompilerTests.runCopperCompilerAPI(false, skin, parserSrc, customSwitches, specs);
 			assertNotNull("No Java compiler available", javac);
 			int compilerErrorlevel = javac.run(null, null, null, parserSrc.getAbsolutePath());
 			assertEquals("Unexpected error running Java compiler", 0, compilerErrorlevel);
@@ -71,5 +119,790 @@ public class CopperRuntimeTests {
 			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
 		}
 	}
+	
+	@Test
+	public void testActionsIndexingChildren() {
+		CopperParser<?, ?> parser = compileCopperParser("parsers.ChildrenGrammarParser", CopperSkinType.CUP, "ChildrenGrammar.x");
+		try {
+			String output = (String) parser.parse("1 + (2 + 3) + ((4))");
+			assertEquals("Parser output does not match expected","((1+(2+3))+4)", output);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testActionsReadingLexemeField() {
+		CopperParser<?, ?> parser = compileCopperParser("parsers.LexemeFieldXMLParser", CopperSkinType.XML, "LexemeFieldXML.xml");
+		try {
+			String output = (String) parser.parse("ab  cd e");
+			assertEquals("Parser output does not match expected","ab,cd,e ab|  |cd| |e|", output);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Builds a MiniJava program of several kilobytes with a syntax error,
+	 * preceded by a comment of a given number of lines, in its middle.
+	 */
+	private static String erroneousMiniJavaProgram(int commentLines) {
+		StringBuilder program = new StringBuilder();
+		program.append("class Main {\n    public static void main(String[] args) {\n        System.out.println(1);\n    }\n}\n");
+		for(int c = 0;c < 80;c++) {
+			if(c == 40) {
+				program.append("class Bad {\n    int /*");
+				for(int i = 0;i < commentLines;i++) program.append(" Line ").append(i).append(" of a comment before the error.\n");
+				program.append("    */ ;\n}\n");
+			}
+			program.append("class C").append(c).append(" {\n");
+			for(int f = 0;f < 10;f++) program.append("    // Field ").append(f).append(" of class ").append(c).append(".\n    int f").append(f).append(";\n");
+			program.append("}\n");
+		}
+		return program.toString();
+	}
+	
+	/**
+	 * Parses an input with a syntax error and returns the error. The input is
+	 * given as the arguments of one of the parser's <code>parse</code> methods,
+	 * less the input's name: a reader; a character sequence; UTF-8 bytes; an
+	 * array of characters, the offset and the length of a slice of it; or a
+	 * file and its character set.
+	 */
+	private static CopperSyntaxError parseForSyntaxError(CopperParser<?, ?> parser, Object... input) {
+		try {
+			if(input[0] instanceof Reader) parser.parse((Reader) input[0], "input");
+			else if(input[0] instanceof CharSequence) {
+				if(parser instanceof CopperParseSession) ((CopperParseSession<?, ?>) parser).parse((CharSequence) input[0], "input");
+				else parser.parse(input[0].toString(), "input");
+			}
+			else if(input[0] instanceof ByteBuffer) ((SingleDFAEngine<?, ?>) parser).parse((ByteBuffer) input[0], "input");
+			else if(input[0] instanceof char[]) ((SingleDFAEngine<?, ?>) parser).parse((char[]) input[0], (Integer) input[1], (Integer) input[2], "input");
+			else ((SingleDFAEngine<?, ?>) parser).parse((Path) input[0], (Charset) input[1]);
+		} catch(Exception ex) {
+			if(ex instanceof CopperSyntaxError) return (CopperSyntaxError) ex;
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+		fail("Erroneous input was accepted");
+		return null;
+	}
+	
+	private static void assertSameSyntaxError(String context, CopperSyntaxError expected, CopperSyntaxError actual) {
+		assertEquals("Error line differs " + context, expected.getRealLine(), actual.getRealLine());
+		assertEquals("Error column differs " + context, expected.getRealColumn(), actual.getRealColumn());
+		assertEquals("Error virtual line differs " + context, expected.getVirtualLine(), actual.getVirtualLine());
+		assertEquals("Error virtual column differs " + context, expected.getVirtualColumn(), actual.getVirtualColumn());
+		assertEquals("Error message differs " + context, expected.getMessage(), actual.getMessage());
+	}
+	
+	@Test
+	public void testSyntaxErrorPositionThroughReader() {
+		CopperParser<?, ?> parser = compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		// The comment's length varies where the error falls in the reader's window.
+		for(int commentLines = 0;commentLines < 24;commentLines++) {
+			String input = erroneousMiniJavaProgram(commentLines);
+			int errorPos = input.indexOf("*/ ;") + 3;
+			int expectedLine = 1, lastNewline = -1;
+			for(int i = 0;i < errorPos;i++) if(input.charAt(i) == '\n') { expectedLine++; lastNewline = i; }
+			int expectedColumn = errorPos - lastNewline - 1;
+			
+			CopperSyntaxError inMemory = parseForSyntaxError(parser, input);
+			CopperSyntaxError throughReader = parseForSyntaxError(parser, new StringReader(input));
+			assertEquals("Unexpected error line", expectedLine, inMemory.getRealLine());
+			assertEquals("Unexpected error column", expectedColumn, inMemory.getRealColumn());
+			assertEquals("Error line differs through a reader", expectedLine, throughReader.getRealLine());
+			assertEquals("Error column differs through a reader", expectedColumn, throughReader.getRealColumn());
+			assertEquals("Error virtual line differs through a reader", inMemory.getVirtualLine(), throughReader.getVirtualLine());
+			assertEquals("Error virtual column differs through a reader", inMemory.getVirtualColumn(), throughReader.getVirtualColumn());
+			assertEquals("Error message differs through a reader", inMemory.getMessage(), throughReader.getMessage());
+		}
+	}
+	
+	@Test
+	public void testRecognizeThroughReader() {
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		try {
+			for(int commentLines = 0;commentLines < 24;commentLines++) {
+				String input = erroneousMiniJavaProgram(commentLines);
+				CopperSyntaxError parsed = parseForSyntaxError(parser, new StringReader(input));
+				CopperSyntaxError recognized = (CopperSyntaxError) parser.recognize(new StringReader(input), "input");
+				assertNotNull("Erroneous input was recognized", recognized);
+				assertSameSyntaxError("from a parse", parsed, recognized);
+				assertNull("Valid input was not recognized", parser.recognize(new StringReader(input.replace("*/ ;", "*/ x;")), "input"));
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+
+	
+	private static <EXCEPT extends Exception> SingleDFAIncrementalValidityChecker<EXCEPT> validityChecker(SingleDFAEngine<?, EXCEPT> engine) {
+		return new SingleDFAIncrementalValidityChecker<EXCEPT>(engine, 8);
+	}
+	
+	/**
+	 * Describes the tokens a checker recorded, and the error, if any, that stopped it.
+	 */
+	private static String recordedTokens(SingleDFAIncrementalValidityChecker<?> checker, Exception error) {
+		StringBuilder tokens = new StringBuilder();
+		tokens.append(checker.isAccepted()).append(' ').append(error == null ? "" : error.getMessage()).append('\n');
+		for(int i = 0;i < checker.getTokenCount();i++) {
+			tokens.append(checker.getTokenTerminal(i)).append('@').append(checker.getTokenStart(i)).append('-').append(checker.getTokenEnd(i)).append(' ');
+		}
+		return tokens.toString();
+	}
+	
+	@Test
+	public void testIncrementalValidityCheckAfterRandomEdits() {
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.CExprGrammarParser", CopperSkinType.CUP, "CExprGrammar.x");
+		try {
+			SingleDFAIncrementalValidityChecker<?> incremental = validityChecker(parser);
+			SingleDFAEngine<?, ?> fullParser = parser.getClass().newInstance();
+			StringBuilder text = new StringBuilder();
+			for(int i = 0;i < 200;i++) text.append("x").append(i).append(" = ").append(i).append(" * (y + ").append(i % 7).append(");\n");
+			incremental.check(text, "input");
+			assertTrue("Unedited input was not accepted", incremental.isAccepted());
+			
+			String[] insertions = { "1", " ", "+", "(", ")", ";\n", "z", "x9 = 2;\n", "", "1 + ", "(2) * " };
+			Random random = new Random(42);
+			for(int edit = 0;edit < 300;edit++) {
+				int start = random.nextInt(text.length() + 1);
+				int removedLength = Math.min(random.nextInt(3), text.length() - start);
+				String inserted = insertions[random.nextInt(insertions.length)];
+				String removed = text.substring(start, start + removedLength);
+				// Undo each edit that leaves the input invalid, so most are made to a valid one.
+				for(int pass = 0;pass < 2;pass++) {
+					if(pass == 0) text.replace(start, start + removedLength, inserted);
+					else text.replace(start, start + inserted.length(), removed);
+					Exception incrementalError = null, fullError = null;
+					try {
+						if(pass == 0) incremental.recheck(text, start, removedLength, inserted.length());
+						else incremental.recheck(text, start, inserted.length(), removedLength);
+					} catch(Exception ex) {
+						incrementalError = ex;
+					}
+					SingleDFAIncrementalValidityChecker<?> full = validityChecker(fullParser);
+					try {
+						full.check(text, "input");
+					} catch(Exception ex) {
+						fullError = ex;
+					}
+					assertEquals("Tokens differ from a full check after edit " + edit, recordedTokens(full, fullError), recordedTokens(incremental, incrementalError));
+					if(full.isAccepted()) break;
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Describes the tokens, and the layout before each, that a parser reads from an input.
+	 */
+	private static String scannedTokens(SingleDFAEngine<?, ?> parser, String input) throws Exception {
+		StringBuilder tokens = new StringBuilder();
+		parser.startTokenStream(new StringReader(input), "input");
+		for(SingleDFAMatchData token = parser.nextToken();token != null;token = parser.nextToken()) {
+			for(SingleDFAMatchData layout : token.layouts) tokens.append('[').append(layout.firstTerm).append(' ').append(layout.getLexeme()).append(']');
+			tokens.append(token.firstTerm).append(' ').append(token.getLexeme()).append('@').append(token.precedingPos.getLine()).append(':').append(token.precedingPos.getColumn()).append('\n');
+		}
+		return tokens.toString();
+	}
+	
+	private SingleDFAEngine<?, ?> compileMiniJavaParser(String... switches) {
+		return (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, Arrays.asList(switches), "MiniJavaGrammar.x");
+	}
+	
+	/**
+	 * Checks that parsers generated with some of the compiler's switches turned on
+	 * behave as the default ones do: they run the same actions, read the same
+	 * tokens, and report syntax errors at the same places, in memory and through a reader.
+	 * @return The MiniJava parser generated with the switches, for checks of their own.
+	 */
+	private SingleDFAEngine<?, ?> assertSwitchesPreserveBehavior(SingleDFAEngine<?, ?> defaultParser, String... switches) {
+		List<String> switchList = Arrays.asList(switches);
+		CopperParser<?, ?> childrenParser = compileCopperParser("parsers.ChildrenGrammarParser", CopperSkinType.CUP, switchList, "ChildrenGrammar.x");
+		CopperParser<?, ?> lexemeParser = compileCopperParser("parsers.LexemeFieldXMLParser", CopperSkinType.XML, switchList, "LexemeFieldXML.xml");
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, switchList, "MiniJavaGrammar.x");
+		try {
+			assertEquals("Parser output does not match expected", "((1+(2+3))+4)", childrenParser.parse("1 + (2 + 3) + ((4))"));
+			assertEquals("Parser output does not match expected", "ab,cd,e ab|  |cd| |e|", lexemeParser.parse("ab  cd e"));
+			for(int commentLines = 0;commentLines < 24;commentLines += 4) {
+				String input = erroneousMiniJavaProgram(commentLines);
+				assertSameSyntaxError("from the default parser", parseForSyntaxError(defaultParser, input), parseForSyntaxError(parser, input));
+				assertSameSyntaxError("from the default parser through a reader", parseForSyntaxError(defaultParser, new StringReader(input)), parseForSyntaxError(parser, new StringReader(input)));
+				String valid = input.replace("*/ ;", "*/ x;");
+				assertEquals("Tokens differ from the default parser", scannedTokens(defaultParser, valid), scannedTokens(parser, valid));
+				assertNull("Valid input was not recognized", parser.recognize(new StringReader(valid), "input"));
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+		return parser;
+	}
+	
+	private static void assertSameParseTable(SingleDFAEngine<?, ?> expected, SingleDFAEngine<?, ?> actual) {
+		assertEquals("Parser state count differs", expected.getPARSER_STATE_COUNT(), actual.getPARSER_STATE_COUNT());
+		for(int state = 0;state < expected.getPARSER_STATE_COUNT();state++) {
+			for(int symbol = 0;symbol < expected.getGRAMMAR_SYMBOL_COUNT();symbol++) {
+				assertEquals("Parse action differs in state " + state + " on symbol " + symbol, expected.getParseTableAction(state, symbol), actual.getParseTableAction(state, symbol));
+			}
+		}
+	}
+	
+	@Test
+	public void testCompressedTablesPreserveBehavior() {
+		SingleDFAEngine<?, ?> defaultParser = compileMiniJavaParser();
+		assertSameParseTable(defaultParser, assertSwitchesPreserveBehavior(defaultParser, SingleDFACompilationProcess.COMPRESS_TABLES_SWITCH));
+		
+		// State 1's row is laid over state 0's, so its lookups on symbols 0 to 2
+		// land in slots state 0 owns and must fall back on its default action.
+		int shift = SingleDFAEngine.newAction(SingleDFAEngine.STATE_SHIFT, 5);
+		int reduce = SingleDFAEngine.newAction(SingleDFAEngine.STATE_REDUCE, 7);
+		int[][] table = {
+			{ shift, shift + 1, shift + 2, SingleDFAEngine.STATE_ERROR },
+			{ reduce, reduce, reduce, SingleDFAEngine.STATE_ERROR }
+		};
+		BitSet[] defaultSymbols = { new BitSet(), new BitSet() };
+		defaultSymbols[1].set(0, 4);
+		CompressedParseTable compressed = CompressedParseTable.compress(table, defaultSymbols);
+		assertEquals("Rows were not laid over each other", 4, compressed.getSlotCount());
+		for(int state = 0;state < table.length;state++) {
+			for(int symbol = 0;symbol < table[state].length;symbol++) {
+				assertEquals("Parse action differs in state " + state + " on symbol " + symbol, table[state][symbol], compressed.getAction(state, symbol));
+			}
+		}
+	}
+	
+	/**
+	 * Describes the token, or the exception, that a parser's scanner reads
+	 * at the start of an input in a given parser state.
+	 */
+	private static String pulledToken(SingleDFAEngine<?, ?> parser, String input, int state) throws Exception {
+		parser.startTokenStream(new StringReader(input), "input");
+		try {
+			SingleDFAMatchData token = parser.pullToken(new SingleDFAParseStackNode(state, InputPosition.initialPos("input"), null));
+			return token.terms + " " + token.followingPos.getPos();
+		} catch(Exception ex) {
+			return ex.getClass().getName() + " " + ex.getMessage();
+		}
+	}
+	
+	@Test
+	public void testSpecializedScannerPreservesBehavior() {
+		SingleDFAEngine<?, ?> defaultParser = compileMiniJavaParser();
+		SingleDFAEngine<?, ?> parser = assertSwitchesPreserveBehavior(defaultParser, SingleDFACompilationProcess.SPECIALIZE_SCANNER_SWITCH);
+		try {
+			// Every parser state's context, including one with nothing shiftable, scans as the default scanner does.
+			boolean emptyContext = false;
+			for(BitSet shiftable : parser.getShiftableSets()) emptyContext |= shiftable.isEmpty();
+			assertTrue("No parser state has an empty shiftable set", emptyContext);
+			for(String input : new String[] { "class Main {", "  /* comment */ x", "" }) {
+				for(int state = 0;state < parser.getPARSER_STATE_COUNT();state++) {
+					assertEquals("Token differs in parser state " + state, pulledToken(defaultParser, input, state), pulledToken(parser, input, state));
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+		
+		// A context with an empty shiftable set stops in every scanner state.
+		BitSet[] shiftableSets = { new BitSet(), new BitSet() };
+		shiftableSets[0].set(1);
+		BitSet[] acceptSets = { new BitSet(), new BitSet() }, rejectSets = { new BitSet(), new BitSet() }, possibleSets = { new BitSet(), new BitSet() };
+		acceptSets[1].set(1);
+		possibleSets[0].set(1);
+		possibleSets[1].set(1);
+		ScannerContextTable contexts = ScannerContextTable.build(shiftableSets, acceptSets, rejectSets, possibleSets);
+		assertEquals("Contexts were not told apart", 2, contexts.getContextCount());
+		assertEquals("Scanner stopped where a terminal was possible", ScannerContextTable.NO_ACTION, contexts.getActions(0)[0]);
+		assertEquals("Terminal was not matched", shiftableSets[0], contexts.getMatchSet(contexts.getActions(0)[1]));
+		for(int action : contexts.getActions(1)) assertEquals("Scanner did not stop where nothing is shiftable", ScannerContextTable.STOP, action);
+	}
+	
+	/**
+	 * Checks that a parser with an inlined scanner has some scanner states'
+	 * transitions emitted as code, and that every state's transition on
+	 * every character is the one in the default parser's table.
+	 */
+	private static void assertSameTransitions(SingleDFAEngine<?, ?> defaultParser, SingleDFAEngine<?, ?> parser) {
+		int inlinedStates = 0;
+		for(Method method : parser.getClass().getDeclaredMethods()) {
+			if(method.getName().matches("transition[0-9]+")) inlinedStates++;
+		}
+		assertTrue("No scanner state was inlined", inlinedStates > 0);
+		assertEquals("Scanner state count differs", defaultParser.getSCANNER_STATE_COUNT(), parser.getSCANNER_STATE_COUNT());
+		try {
+			// Generated parsers make the transition function public.
+			Method defaultTransition = defaultParser.getClass().getMethod("transition", int.class, char.class);
+			Method transition = parser.getClass().getMethod("transition", int.class, char.class);
+			for(int state = 0;state < parser.getSCANNER_STATE_COUNT();state++) {
+				for(int ch = Character.MIN_VALUE;ch <= Character.MAX_VALUE;ch++) {
+					if(!defaultTransition.invoke(defaultParser, state, (char) ch).equals(transition.invoke(parser, state, (char) ch))) {
+						fail("Transition differs from scanner state " + state + " on character " + ch);
+					}
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testInlinedScannerPreservesBehavior() {
+		SingleDFAEngine<?, ?> defaultParser = compileMiniJavaParser();
+		assertSameTransitions(defaultParser, assertSwitchesPreserveBehavior(defaultParser, SingleDFACompilationProcess.INLINE_SCANNER_SWITCH));
+	}
+	
+	@Test
+	public void testInlinedSpecializedScannerPreservesBehavior() {
+		SingleDFAEngine<?, ?> defaultParser = compileMiniJavaParser();
+		assertSameTransitions(defaultParser, assertSwitchesPreserveBehavior(defaultParser, SingleDFACompilationProcess.INLINE_SCANNER_SWITCH, SingleDFACompilationProcess.SPECIALIZE_SCANNER_SWITCH));
+	}
+	
+	/**
+	 * Loads a copy of a parser's classes beside a given tables file, or none.
+	 * @return The cause of the error initializing the copy.
+	 */
+	private Throwable loadWithTables(CopperParser<?, ?> parser, File tables) throws Exception {
+		Class<?> parserClass = parser.getClass();
+		File classDir = new File(parserClass.getResource(parserClass.getSimpleName() + ".class").toURI()).getParentFile();
+		File copyFolder = tempDir.newFolder();
+		File copyDir = new File(copyFolder, parserClass.getPackage().getName().replace('.', File.separatorChar));
+		Files.createDirectories(copyDir.toPath());
+		for(File file : classDir.listFiles()) {
+			if(file.getName().endsWith(".class")) Files.copy(file.toPath(), new File(copyDir, file.getName()).toPath());
+		}
+		if(tables != null) Files.copy(tables.toPath(), new File(copyDir, parserClass.getSimpleName() + ".tables").toPath());
+		@SuppressWarnings("resource")
+		ClassLoader loader = new URLClassLoader(new URL[] { copyFolder.toURI().toURL() }, RunParser.class.getClassLoader());
+		try {
+			Class.forName(parserClass.getName(), true, loader);
+		} catch(ExceptionInInitializerError ex) {
+			return ex.getCause();
+		}
+		fail("Parser was loaded with " + (tables == null ? "no" : "another parser's") + " tables file");
+		return null;
+	}
+	
+	/**
+	 * Checks that a parser with external tables refuses to load without its
+	 * tables file, or with the tables file of another grammar.
+	 */
+	private void assertStaleTablesRejected(SingleDFAEngine<?, ?> parser, String... switches) {
+		CopperParser<?, ?> otherParser = compileCopperParser("parsers.ChildrenGrammarParser", CopperSkinType.CUP, Arrays.asList(switches), "ChildrenGrammar.x");
+		try {
+			Throwable missing = loadWithTables(parser, null);
+			assertTrue("Missing tables were not reported", missing instanceof IOException && missing.getMessage().contains("not found"));
+			Throwable stale = loadWithTables(parser, new File(otherParser.getClass().getResource("ChildrenGrammarParser.tables").toURI()));
+			assertTrue("Stale tables were not reported", stale instanceof IOException && stale.getMessage().contains("do not match"));
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testExternalTablesPreserveBehavior() {
+		SingleDFAEngine<?, ?> defaultParser = compileMiniJavaParser();
+		String[] switches = { SingleDFACompilationProcess.EXTERNAL_TABLES_SWITCH };
+		assertStaleTablesRejected(assertSwitchesPreserveBehavior(defaultParser, switches), switches);
+	}
+	
+	@Test
+	public void testExternalCompressedTablesPreserveBehavior() {
+		SingleDFAEngine<?, ?> defaultParser = compileMiniJavaParser();
+		String[] switches = { SingleDFACompilationProcess.EXTERNAL_TABLES_SWITCH, SingleDFACompilationProcess.COMPRESS_TABLES_SWITCH };
+		SingleDFAEngine<?, ?> parser = assertSwitchesPreserveBehavior(defaultParser, switches);
+		assertSameParseTable(defaultParser, parser);
+		assertStaleTablesRejected(parser, switches);
+	}
+	
+	@Test
+	public void testUtf8ScannerPreservesBehavior() {
+		SingleDFAEngine<?, ?> parser = assertSwitchesPreserveBehavior(compileMiniJavaParser(), SingleDFACompilationProcess.UTF8_SCANNER_SWITCH);
+		try {
+			// A byte scanner's tokens and layout span their lexemes' bytes in the UTF-8 encoding.
+			String input = erroneousMiniJavaProgram(4).replace("of a comment", "of a çommënt ∑ 𝄞").replace("*/ ;", "*/ x;");
+			byte[] bytes = input.getBytes("UTF-8");
+			int multibyteLexemes = 0;
+			parser.startTokenStream(new StringReader(input), "input");
+			for(SingleDFAMatchData token = parser.nextToken();token != null;token = parser.nextToken()) {
+				List<SingleDFAMatchData> matches = new ArrayList<SingleDFAMatchData>(token.layouts);
+				matches.add(token);
+				for(SingleDFAMatchData match : matches) {
+					int begin = (int) match.precedingPos.getPos(), end = (int) match.followingPos.getPos();
+					assertEquals("Lexeme is not the bytes its offsets span", new String(bytes, begin, end - begin, "UTF-8"), match.getLexeme());
+					if(end - begin > match.getLexeme().length()) multibyteLexemes++;
+				}
+			}
+			assertTrue("No lexeme held a multibyte character", multibyteLexemes > 0);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testUtf8ScannerOnMultibyteInput() {
+		SingleDFAEngine<?, ?> defaultParser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, Arrays.asList(SingleDFACompilationProcess.UTF8_SCANNER_SWITCH), "MiniJavaGrammar.x");
+		try {
+			// The longest comment outgrows the window of a reader's buffer.
+			for(int commentLines : new int[] { 0, 3, 6, 9, 12, 15, 18, 21, 600 }) {
+				// Two-, three- and four-byte characters in the comments before the error.
+				String input = erroneousMiniJavaProgram(commentLines).replace("of a comment", "of a çommënt ∑ 𝄞");
+				ByteBuffer bytes = ByteBuffer.wrap(input.getBytes("UTF-8"));
+				CopperSyntaxError expected = parseForSyntaxError(defaultParser, new StringReader(input));
+				CopperSyntaxError inMemory = parseForSyntaxError(parser, input);
+				CopperSyntaxError throughReader = parseForSyntaxError(parser, new StringReader(input));
+				CopperSyntaxError fromBytes = parseForSyntaxError(parser, bytes);
+				for(CopperSyntaxError actual : new CopperSyntaxError[] { inMemory, throughReader, fromBytes }) {
+					assertEquals("Error line differs from the default parser", expected.getRealLine(), actual.getRealLine());
+					assertEquals("Error column differs from the default parser", expected.getRealColumn(), actual.getRealColumn());
+				}
+				// A byte scanner's offsets count bytes, not characters.
+				assertEquals("Error offset is not a byte offset", input.substring(0, (int) expected.getRealCharIndex()).getBytes("UTF-8").length, fromBytes.getRealCharIndex());
+				assertSameSyntaxError("from a UTF-8 byte buffer", expected, parseForSyntaxError(defaultParser, bytes));
+				assertSameSyntaxError("through a reader", inMemory, throughReader);
+				
+				String valid = input.replace("*/ ;", "*/ x;");
+				assertEquals("Tokens differ from the default parser", scannedTokens(defaultParser, valid), scannedTokens(parser, valid));
+				assertNull("Valid input was not recognized", parser.recognize(valid, "input"));
+				parser.parse(ByteBuffer.wrap(valid.getBytes("UTF-8")), "input");
+				parser.parse(new StringReader(valid), "input");
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testParseInMemoryInput() {
+		SingleDFAEngine<?, ?> childrenParser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.ChildrenGrammarParser", CopperSkinType.CUP, "ChildrenGrammar.x");
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		try {
+			String expression = "1 + (2 + 3) + ((4))";
+			char[] padded = ("((9)) +\n" + expression + "\n+ 5").toCharArray();
+			assertEquals("Parser output does not match expected", "((1+(2+3))+4)", childrenParser.parse(new StringBuilder(expression)));
+			assertEquals("Parser output does not match expected", "((1+(2+3))+4)", childrenParser.parse(CharBuffer.wrap(expression)));
+			assertEquals("Parser output does not match expected", "((1+(2+3))+4)", childrenParser.parse(padded, 8, expression.length(), "input"));
+			
+			for(int commentLines = 0;commentLines < 24;commentLines += 4) {
+				String input = erroneousMiniJavaProgram(commentLines);
+				CopperSyntaxError expected = parseForSyntaxError(parser, new StringReader(input));
+				assertSameSyntaxError("from a StringBuilder", expected, parseForSyntaxError(parser, new StringBuilder(input)));
+				// Positions in a slice of an array count from the start of the slice.
+				char[] slice = ("class Pre {\n}\n" + input + "class Post {\n").toCharArray();
+				CopperSyntaxError fromSlice = parseForSyntaxError(parser, slice, 14, input.length());
+				assertEquals("Error line differs in a slice", expected.getRealLine(), fromSlice.getRealLine());
+				assertEquals("Error column differs in a slice", expected.getRealColumn(), fromSlice.getRealColumn());
+				assertEquals("Error message differs in a slice", expected.getMessage(), fromSlice.getMessage());
+				String valid = input.replace("*/ ;", "*/ x;");
+				parser.parse(valid.toCharArray(), 0, valid.length(), "input");
+				assertNull("Valid input was not recognized", parser.recognize(new StringBuilder(valid), "input"));
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testParseFile() {
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		SingleDFAEngine<?, ?> utf8Parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, Arrays.asList(SingleDFACompilationProcess.UTF8_SCANNER_SWITCH), "MiniJavaGrammar.x");
+		try {
+			for(int commentLines = 0;commentLines < 24;commentLines += 4) {
+				String input = erroneousMiniJavaProgram(commentLines).replace("of a comment", "of a çommënt");
+				String valid = input.replace("*/ ;", "*/ x;");
+				CopperSyntaxError expected = parseForSyntaxError(parser, new StringReader(input));
+				for(Charset charset : new Charset[] { Charset.forName("UTF-8"), Charset.forName("ISO-8859-1") }) {
+					Path file = tempDir.newFile().toPath();
+					Path validFile = tempDir.newFile().toPath();
+					Files.write(file, input.getBytes(charset));
+					Files.write(validFile, valid.getBytes(charset));
+					for(SingleDFAEngine<?, ?> fileParser : Arrays.asList(parser, utf8Parser)) {
+						CopperSyntaxError fromFile = parseForSyntaxError(fileParser, file, charset);
+						assertEquals("Error file name differs from the file's", file.toString(), fromFile.getRealFilename());
+						assertEquals("Error line differs from a file", expected.getRealLine(), fromFile.getRealLine());
+						assertEquals("Error column differs from a file", expected.getRealColumn(), fromFile.getRealColumn());
+						assertSameSyntaxError("recognizing a file", fromFile, (CopperSyntaxError) fileParser.recognize(file, charset));
+						fileParser.parse(validFile, charset);
+						assertNull("Valid input was not recognized", fileParser.recognize(validFile, charset));
+					}
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Pushes an input to a parser in chunks of random lengths, as characters
+	 * or as UTF-8 bytes, where a chunk may end in the middle of a character.
+	 */
+	private static Object pushInChunks(SingleDFAEngine<?, ?> parser, String input, boolean asBytes, Random random) throws Exception {
+		if(asBytes) {
+			byte[] bytes = input.getBytes("UTF-8");
+			parser.startPush("input", Charset.forName("UTF-8"));
+			for(int pos = 0;pos < bytes.length;) {
+				int length = Math.min(random.nextInt(300), bytes.length - pos);
+				parser.feed(ByteBuffer.wrap(bytes, pos, length));
+				pos += length;
+			}
+		} else {
+			parser.startPush("input");
+			for(int pos = 0;pos < input.length();) {
+				int length = Math.min(random.nextInt(300), input.length() - pos);
+				parser.feed(CharBuffer.wrap(input, pos, pos + length));
+				pos += length;
+			}
+		}
+		return parser.endOfInput();
+	}
+	
+	@Test
+	public void testPushedInput() {
+		SingleDFAEngine<?, ?> childrenParser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.ChildrenGrammarParser", CopperSkinType.CUP, "ChildrenGrammar.x");
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		SingleDFAEngine<?, ?> utf8Parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, Arrays.asList(SingleDFACompilationProcess.UTF8_SCANNER_SWITCH), "MiniJavaGrammar.x");
+		try {
+			Random random = new Random(42);
+			for(boolean asBytes : new boolean[] { false, true }) {
+				assertEquals("Parser output does not match expected", "((1+(2+3))+4)", pushInChunks(childrenParser, "1 + (2 + 3) + ((4))", asBytes, new Random(7)));
+				// The longest comment spans many chunks, so its scan is suspended and resumed many times.
+				for(int commentLines : new int[] { 0, 2, 4, 6, 8, 10, 12, 14, 16, 18, 20, 22, 300 }) {
+					String input = erroneousMiniJavaProgram(commentLines).replace("of a comment", "of a çommënt ∑ 𝄞");
+					for(SingleDFAEngine<?, ?> pushParser : Arrays.asList(parser, utf8Parser)) {
+						CopperSyntaxError expected = parseForSyntaxError(pushParser, input);
+						CopperSyntaxError pushed = null;
+						try {
+							pushInChunks(pushParser, input, asBytes, random);
+						} catch(Exception ex) {
+							if(!(ex instanceof CopperSyntaxError)) throw ex;
+							pushed = (CopperSyntaxError) ex;
+						}
+						assertNotNull("Erroneous input was accepted", pushed);
+						assertSameSyntaxError("from a pushed parse", expected, pushed);
+						pushInChunks(pushParser, input.replace("*/ ;", "*/ x;"), asBytes, random);
+					}
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testTokenStream() {
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		try {
+			for(int commentLines = 0;commentLines < 24;commentLines += 4) {
+				String input = erroneousMiniJavaProgram(commentLines);
+				String valid = input.replace("*/ ;", "*/ x;");
+				
+				// The tokens and their layout, end to end, are the input.
+				StringBuilder tokens = new StringBuilder();
+				parser.startTokenStream(new StringReader(valid), "input");
+				SingleDFAMatchData token;
+				while((token = parser.nextToken()) != null) {
+					for(SingleDFAMatchData layout : token.layouts) tokens.append(layout.getLexeme());
+					tokens.append(token.getLexeme());
+				}
+				assertTrue("Token stream did not end", parser.isTokenStreamEnded());
+				assertEquals("Tokens do not make up the input", valid, tokens.toString());
+				
+				CopperSyntaxError expected = parseForSyntaxError(parser, new StringReader(input));
+				CopperSyntaxError streamed = null;
+				parser.startTokenStream(new StringReader(input), "input");
+				try {
+					while(parser.nextToken() != null);
+				} catch(Exception ex) {
+					if(!(ex instanceof CopperSyntaxError)) throw ex;
+					streamed = (CopperSyntaxError) ex;
+				}
+				assertNotNull("Erroneous input was accepted", streamed);
+				assertSameSyntaxError("from a token stream", expected, streamed);
+				
+				// A token pulled in the start state is the stream's first.
+				parser.startTokenStream(new StringReader(valid), "input");
+				SingleDFAMatchData pulled = parser.pullToken(new SingleDFAParseStackNode(parser.getPARSER_START_STATENUM(), InputPosition.initialPos("input"), null));
+				SingleDFAMatchData first = parser.nextToken();
+				assertEquals("Pulled token differs from the first", first.firstTerm, pulled.firstTerm);
+				assertEquals("Pulled token differs from the first", first.getLexeme(), pulled.getLexeme());
+				assertEquals("Pulled token differs from the first", first.followingPos.getPos(), pulled.followingPos.getPos());
+				
+				// Once the stream has moved on, input before it may be gone.
+				while(parser.nextToken() != null);
+				try {
+					parser.pullToken(new SingleDFAParseStackNode(parser.getPARSER_START_STATENUM(), InputPosition.initialPos("input"), null));
+					fail("A token was pulled from input the buffer has discarded");
+				} catch(IllegalArgumentException ex) {
+					// Expected.
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	private static <ROOT, EXCEPT extends Exception> void assertSessionsPooled(CopperParserFactory<ROOT, EXCEPT> factory) {
+		CopperParseSession<ROOT, EXCEPT> session = factory.acquire();
+		CopperParseSession<ROOT, EXCEPT> other = factory.acquire();
+		assertNotSame("A session was lent twice", session, other);
+		factory.release(session);
+		assertSame("A released session was not reused", session, factory.acquire());
+		factory.release(session);
+		factory.release(other);
+	}
+	
+	@Test
+	public void testParserFactory() {
+		CopperParser<?, ?> parser = compileCopperParser("parsers.ChildrenGrammarParser", CopperSkinType.CUP, "ChildrenGrammar.x");
+		try {
+			final CopperParserFactory<?, ?> factory = (CopperParserFactory<?, ?>) parser.getClass().getMethod("newCopperParserFactory", int.class).invoke(null, 2);
+			assertSessionsPooled(factory);
+			// More threads than pooled sessions, so sessions are both reused and created.
+			final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+			Thread[] threads = new Thread[4];
+			for(int t = 0;t < threads.length;t++) {
+				final int thread = t;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int i = 0;i < 200;i++) {
+								int n = thread * 1000 + i;
+								assertEquals("Parser output does not match expected", "((" + n + "+(" + (n + 1) + "+" + (n + 2) + "))+" + (n + 3) + ")", factory.parse(n + " + (" + (n + 1) + " + " + (n + 2) + ") + ((" + (n + 3) + "))"));
+								assertNotNull("Erroneous input was accepted", parseForSyntaxError(factory, i % 2 == 0 ? new StringReader(n + " + (") : n + " + ("));
+							}
+						} catch(Throwable ex) {
+							failures.add(ex);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread : threads) thread.join();
+			for(Throwable failure : failures) failure.printStackTrace();
+			assertTrue("Parses failed on " + failures.size() + " threads", failures.isEmpty());
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	private static <ROOT, EXCEPT extends Exception> CopperBatchParser.Result<?>[] parseInBatch(CopperParserFactory<ROOT, EXCEPT> factory, List<CopperBatchParser.Input> inputs) {
+		CopperBatchParser.Result<?>[] results = new CopperBatchParser.Result<?>[inputs.size()];
+		CopperBatchParser<ROOT, EXCEPT> batchParser = new CopperBatchParser<ROOT, EXCEPT>(factory, 3);
+		try {
+			for(Iterator<CopperBatchParser.Result<ROOT>> finished = batchParser.parseAll(inputs);finished.hasNext();) {
+				CopperBatchParser.Result<ROOT> result = finished.next();
+				assertNull("Input was parsed twice", results[result.getIndex()]);
+				results[result.getIndex()] = result;
+			}
+		} finally {
+			batchParser.close();
+		}
+		return results;
+	}
+	
+	@Test
+	public void testBatchParser() {
+		CopperParser<?, ?> parser = compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		try {
+			CopperParserFactory<?, ?> factory = (CopperParserFactory<?, ?>) parser.getClass().getMethod("newCopperParserFactory", int.class).invoke(null, 3);
+			List<String> programs = new ArrayList<String>();
+			List<CopperBatchParser.Input> inputs = new ArrayList<CopperBatchParser.Input>();
+			for(int commentLines = 0;commentLines < 24;commentLines++) {
+				String program = erroneousMiniJavaProgram(commentLines);
+				if(commentLines % 2 == 1) program = program.replace("*/ ;", "*/ x;");
+				programs.add(program);
+				switch(commentLines % 3) {
+				case 0:
+					inputs.add(CopperBatchParser.Input.of(program, "input"));
+					break;
+				case 1:
+					inputs.add(CopperBatchParser.Input.of(new StringReader(program), "input"));
+					break;
+				default:
+					Path file = tempDir.newFile().toPath();
+					Files.write(file, program.getBytes("UTF-8"));
+					inputs.add(CopperBatchParser.Input.of(file, Charset.forName("UTF-8")));
+				}
+			}
+			CopperBatchParser.Result<?>[] results = parseInBatch(factory, inputs);
+			for(int i = 0;i < results.length;i++) {
+				assertNotNull("Input was not parsed", results[i]);
+				assertEquals("Result name differs from the input's", inputs.get(i).getName(), results[i].getName());
+				if(i % 2 == 1) {
+					assertTrue("Valid input was not parsed", results[i].succeeded());
+				} else {
+					CopperSyntaxError expected = parseForSyntaxError(parser, new StringReader(programs.get(i)));
+					CopperSyntaxError error = results[i].getSyntaxError();
+					assertNotNull("Erroneous input was accepted", error);
+					assertEquals("Error line differs in a batch", expected.getRealLine(), error.getRealLine());
+					assertEquals("Error column differs in a batch", expected.getRealColumn(), error.getRealColumn());
+					if(i % 3 != 2) assertSameSyntaxError("in a batch", expected, error);
+				}
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testParseMetrics() {
+		SingleDFAEngine<?, ?> parser = (SingleDFAEngine<?, ?>) compileCopperParser("parsers.MiniJavaGrammarParser", CopperSkinType.CUP, "MiniJavaGrammar.x");
+		try {
+			SingleDFAEngine<?, ?> tokenCounter = parser.getClass().newInstance();
+			ParseMetrics metrics = ParseMetrics.forParser(parser.getClass());
+			metrics.reset();
+			parser.enableMetrics();
+			long characters = 0, tokens = 0;
+			for(int commentLines = 0;commentLines < 12;commentLines++) {
+				String valid = erroneousMiniJavaProgram(commentLines).replace("*/ ;", "*/ x;");
+				parser.parse(valid, "input");
+				characters += valid.length();
+				tokenCounter.startTokenStream(new StringReader(valid), "input");
+				// The end-of-input token is not shifted.
+				while(tokenCounter.nextToken() != null) tokens++;
+				tokens--;
+			}
+			assertEquals("Parses were not counted", 12, metrics.getParses());
+			assertEquals("Characters were not counted", characters, metrics.getCharacters());
+			assertEquals("Tokens were not counted", tokens, metrics.getTokens());
+			assertTrue("Stack depth was not measured", metrics.getMaxStackDepth() > 1);
+			
+			int errorState = -1;
+			for(int commentLines = 0;commentLines < 12;commentLines++) {
+				String input = erroneousMiniJavaProgram(commentLines);
+				errorState = parseForSyntaxError(parser, commentLines % 2 == 0 ? new StringReader(input) : input).getParseState();
+			}
+			assertEquals("Parses were not counted", 24, metrics.getParses());
+			assertEquals("Failed parses were not counted", 12, metrics.getFailedParses());
+			assertEquals("Syntax errors were not counted by state", Collections.singletonMap(errorState, 12L), metrics.getSyntaxErrorsByState());
+			assertEquals("Metrics differ over JMX", 24L, ManagementFactory.getPlatformMBeanServer().getAttribute(metrics.getObjectName(), "Parses"));
+			metrics.reset();
+			assertEquals("Metrics were not reset", 0, metrics.getParses());
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			fail("Unexpected " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+		}
+	}
 
 }